@@ -0,0 +1,103 @@
+package com.semonin.jjwarehouse;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Insert throughput of the batched addItems() path at 1k, 10k and 100k rows, with the
+ * row-at-a-time addItem() loop at 1k rows as a reference point.
+ * Results are written to logcat under the "AddItemsBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AddItemsBenchmark {
+
+    private static final String TAG = "AddItemsBenchmark";
+    private static final String BENCHMARK_DB = "benchmark_add_items.db";
+
+    private Context context;
+    private DatabaseHelper db;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(BENCHMARK_DB);
+        db = new DatabaseHelper(context, BENCHMARK_DB);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(BENCHMARK_DB);
+    }
+
+    @Test
+    public void singleRowInsertsReference() {
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            db.addItem("item" + i, i);
+        }
+        report("addItem x1000", 1_000, System.nanoTime() - start);
+        assertEquals(1_000, db.getItemCount());
+    }
+
+    @Test
+    public void batchInsert1k() {
+        measureBatch(1_000);
+    }
+
+    @Test
+    public void batchInsert10k() {
+        measureBatch(10_000);
+    }
+
+    @Test
+    public void batchInsert100k() {
+        measureBatch(100_000);
+    }
+
+    private void measureBatch(int rows) {
+        long start = System.nanoTime();
+        int inserted = db.addItems(generated(rows));
+        report("addItems x" + rows, rows, System.nanoTime() - start);
+        assertEquals(rows, inserted);
+        assertEquals(rows, db.getItemCount());
+    }
+
+    // Produces items lazily so the benchmark measures the insert path, not list building
+    private static Iterable<Item> generated(final int rows) {
+        return () -> new Iterator<Item>() {
+            private final Item item = new Item();
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            @Override
+            public Item next() {
+                item.setName("item" + next);
+                item.setQuantity(next % 500);
+                next++;
+                return item;
+            }
+        };
+    }
+
+    private static void report(String label, int rows, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        Log.i(TAG, label + ": " + Math.round(rows / seconds) + " rows/s, " + Math.round(seconds * 1000) + " ms total");
+    }
+}
@@ -0,0 +1,128 @@
+package com.semonin.jjwarehouse;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares per-operation latency of the shared, long-lived connection against the
+ * old pattern of opening and closing the database around every call, both through
+ * addItem. addItem is also timed against its INSERT compiled once and bound per row on
+ * the same connection, which is the floor for what addItem adds on top of SQLite.
+ * Results are written to logcat under the "DatabaseHelperBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseHelperBenchmark {
+
+    private static final String TAG = "DatabaseHelperBenchmark";
+    private static final String BENCHMARK_DB = "benchmark_inventory.db";
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 500;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(BENCHMARK_DB);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(BENCHMARK_DB);
+    }
+
+    @Test
+    public void sharedConnectionIsFasterThanOpenClosePerCall() {
+        long[] openClose = measureOpenClosePerCall();
+        long[] shared = measureSharedConnection();
+        long[] compiled = measureCompiledInsert();
+
+        report("open/close per call", openClose);
+        report("shared connection", shared);
+        report("compiled insert", compiled);
+        Log.i(TAG, "addItem overhead over the compiled insert: p50=" + (median(shared) - median(compiled)) / 1000 + "us");
+
+        assertTrue("shared connection should not be slower than reopening the database",
+                median(shared) <= median(openClose));
+    }
+
+    // The pre-singleton pattern: a fresh helper per call and close() afterwards
+    private long[] measureOpenClosePerCall() {
+        long[] samples = new long[ITERATIONS];
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            long start = System.nanoTime();
+            DatabaseHelper helper = new DatabaseHelper(context, BENCHMARK_DB);
+            helper.addItem("item" + i, i);
+            helper.close();
+            if (i >= WARMUP) {
+                samples[i - WARMUP] = System.nanoTime() - start;
+            }
+        }
+        return samples;
+    }
+
+    private long[] measureSharedConnection() {
+        long[] samples = new long[ITERATIONS];
+        DatabaseHelper helper = new DatabaseHelper(context, BENCHMARK_DB);
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            long start = System.nanoTime();
+            helper.addItem("item" + i, i);
+            if (i >= WARMUP) {
+                samples[i - WARMUP] = System.nanoTime() - start;
+            }
+        }
+        helper.close();
+        return samples;
+    }
+
+    // addItem's INSERT without addItem: compiled once, bound and executed per row
+    private long[] measureCompiledInsert() {
+        long[] samples = new long[ITERATIONS];
+        DatabaseHelper helper = new DatabaseHelper(context, BENCHMARK_DB);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO items (name, quantity) VALUES (?, ?)");
+        try {
+            for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+                long start = System.nanoTime();
+                insert.bindString(1, "item" + i);
+                insert.bindLong(2, i);
+                insert.executeInsert();
+                if (i >= WARMUP) {
+                    samples[i - WARMUP] = System.nanoTime() - start;
+                }
+            }
+        } finally {
+            insert.close();
+            helper.close();
+        }
+        return samples;
+    }
+
+    private static long median(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void report(String label, long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        Log.i(TAG, label + ": p50=" + sorted[sorted.length / 2] / 1000 + "us"
+                + " p90=" + sorted[(int) (sorted.length * 0.9)] / 1000 + "us"
+                + " p99=" + sorted[(int) (sorted.length * 0.99)] / 1000 + "us");
+    }
+}
@@ -0,0 +1,169 @@
+package com.semonin.jjwarehouse;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Upgrades a version 1 database and checks that rows survive and that the user and
+ * item name lookups switch from full table scans to index searches.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseMigrationsTest {
+
+    private static final String USER_LOOKUP = "SELECT 1 FROM users WHERE username = ? LIMIT 1";
+    private static final String NAME_LOOKUP = "SELECT id FROM items WHERE name = ?";
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        DatabaseHelper.createBaseSchema(db);
+        db.execSQL("INSERT INTO items (name, quantity) VALUES ('bolt', 10), ('nut', 20)");
+        db.execSQL("INSERT INTO users (username, password) VALUES ('alice', 'x'), ('alice', 'y'), ('bob', 'z')");
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void upgradeKeepsStock() {
+        DatabaseMigrations.migrate(db, 1, DatabaseHelper.DATABASE_VERSION);
+
+        Cursor cursor = db.rawQuery("SELECT name, quantity FROM items ORDER BY id", null);
+        assertTrue(cursor.moveToNext());
+        assertEquals("bolt", cursor.getString(0));
+        assertEquals(10, cursor.getInt(1));
+        assertTrue(cursor.moveToNext());
+        assertEquals("nut", cursor.getString(0));
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+    }
+
+    @Test
+    public void upgradeRenamesDuplicateUsersInsteadOfDroppingThem() {
+        DatabaseMigrations.migrate(db, 1, DatabaseHelper.DATABASE_VERSION);
+
+        Cursor cursor = db.rawQuery("SELECT username, password FROM users ORDER BY id", null);
+        assertEquals(3, cursor.getCount());
+        cursor.moveToFirst();
+        // The oldest account keeps the name
+        assertEquals("alice", cursor.getString(0));
+        assertEquals("x", cursor.getString(1));
+        cursor.moveToNext();
+        assertEquals("alice#2", cursor.getString(0));
+        assertEquals("y", cursor.getString(1));
+        cursor.close();
+    }
+
+    @Test
+    public void userLookupUsesIndexAfterUpgrade() {
+        assertTrue(plan(USER_LOOKUP, "alice").contains("SCAN"));
+
+        DatabaseMigrations.migrate(db, 1, DatabaseHelper.DATABASE_VERSION);
+
+        String plan = plan(USER_LOOKUP, "alice");
+        assertTrue(plan, plan.contains("SEARCH") && plan.contains("idx_users_username"));
+    }
+
+    @Test
+    public void itemNameLookupUsesIndexAfterUpgrade() {
+        assertTrue(plan(NAME_LOOKUP, "bolt").contains("SCAN"));
+
+        DatabaseMigrations.migrate(db, 1, DatabaseHelper.DATABASE_VERSION);
+
+        String plan = plan(NAME_LOOKUP, "bolt");
+        assertTrue(plan, plan.contains("SEARCH") && plan.contains("idx_items_name"));
+    }
+
+    @Test
+    public void aggregatesFollowWrites() {
+        DatabaseMigrations.migrate(db, 1, DatabaseHelper.DATABASE_VERSION);
+        assertArrayEquals(new long[]{2, 30, 0}, totals());
+
+        db.execSQL("UPDATE items SET reorder_threshold = 15");
+        assertArrayEquals(new long[]{2, 30, 1}, totals());
+        db.execSQL("INSERT INTO items (name, quantity, reorder_threshold) VALUES ('washer', 3, 5)");
+        db.execSQL("UPDATE items SET quantity = quantity + 10 WHERE name = 'bolt'");
+        assertArrayEquals(new long[]{3, 43, 1}, totals());
+        db.execSQL("DELETE FROM items WHERE name = 'washer'");
+        assertArrayEquals(new long[]{2, 40, 0}, totals());
+    }
+
+    @Test
+    public void lowStockLookupUsesPartialIndex() {
+        DatabaseMigrations.migrate(db, 1, DatabaseHelper.DATABASE_VERSION);
+
+        String plan = plan("SELECT id, name, quantity, reorder_threshold FROM items WHERE "
+                + InventoryStats.LOW_STOCK + " AND id > ? ORDER BY id LIMIT 50", "0");
+        assertTrue(plan, plan.contains("COVERING INDEX idx_items_low_stock"));
+    }
+
+    @Test
+    public void skuLookupUsesUniqueIndex() {
+        DatabaseMigrations.migrate(db, 1, DatabaseHelper.DATABASE_VERSION);
+
+        String plan = plan("SELECT id FROM items WHERE sku = ?", "4006381333931");
+        assertTrue(plan, plan.contains("SEARCH") && plan.contains("idx_items_sku"));
+        db.execSQL("UPDATE items SET sku = 'A-1' WHERE name = 'bolt'");
+        try {
+            db.execSQL("UPDATE items SET sku = 'A-1' WHERE name = 'nut'");
+            fail("duplicate SKU accepted");
+        } catch (SQLiteConstraintException expected) {
+            // unique index
+        }
+    }
+
+    @Test
+    public void locationListingReadsOneKeyRange() {
+        DatabaseMigrations.migrate(db, 1, DatabaseHelper.DATABASE_VERSION);
+
+        String plan = plan("SELECT s.item_id, i.name, s.quantity FROM stock s JOIN items i ON i.id = s.item_id"
+                + " WHERE s.location_id = ? AND s.item_id > 0 ORDER BY s.item_id LIMIT 50", "1");
+        assertTrue(plan, plan.contains("SEARCH s USING PRIMARY KEY (location_id=? AND item_id>?)"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void movementHistoryReadsOneKeyRange() {
+        DatabaseMigrations.migrate(db, 1, DatabaseHelper.DATABASE_VERSION);
+
+        String plan = plan("SELECT bucket, units_in, units_out, movements FROM movement_rollups"
+                + " WHERE item_id = ? AND resolution = 86400 AND bucket >= 0 AND bucket < 100 ORDER BY bucket", "1");
+        assertTrue(plan, plan.contains("SEARCH movement_rollups USING PRIMARY KEY (item_id=? AND resolution=?"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    // item_count, total_quantity, low_stock_count
+    private long[] totals() {
+        Cursor cursor = db.rawQuery("SELECT item_count, total_quantity, low_stock_count FROM inventory_stats", null);
+        cursor.moveToFirst();
+        long[] totals = {cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)};
+        cursor.close();
+        return totals;
+    }
+
+    // The "detail" column of EXPLAIN QUERY PLAN, one line per step
+    private String plan(String sql, String arg) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, new String[]{arg});
+        StringBuilder plan = new StringBuilder();
+        int detail = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detail)).append('\n');
+        }
+        cursor.close();
+        return plan.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package com.semonin.jjwarehouse;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Full-text search latency over 100k items, plus checks that the index follows
+ * inserts, renames and deletes. Results are written to logcat under "SearchBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchBenchmark {
+
+    private static final String TAG = "SearchBenchmark";
+    private static final String BENCHMARK_DB = "benchmark_search.db";
+    private static final int ROWS = 100_000;
+    private static final String[] WORDS = {"red", "blue", "green", "box", "crate", "pallet", "bolt",
+            "screw", "washer", "bracket", "hinge", "panel", "cable", "tape", "glove", "boot"};
+
+    private static Context context;
+    private static DatabaseHelper db;
+
+    @BeforeClass
+    public static void seed() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(BENCHMARK_DB);
+        db = new DatabaseHelper(context, BENCHMARK_DB);
+        List<Item> items = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Item item = new Item();
+            item.setName(WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i);
+            item.setQuantity(i % 100);
+            items.add(item);
+        }
+        db.addItems(items);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        db.close();
+        context.deleteDatabase(BENCHMARK_DB);
+    }
+
+    @Test
+    public void prefixAndMultiTokenLookupsAt100k() {
+        String[] queries = {"hin", "brack pan", "gl bo", "cable 4242", "washer scr"};
+        long[] samples = new long[queries.length * 20];
+        int n = 0;
+        for (int round = 0; round < 20; round++) {
+            for (String query : queries) {
+                long start = System.nanoTime();
+                List<Item> results = db.getItemsFilteredBy(query, 50);
+                samples[n++] = System.nanoTime() - start;
+                assertFalse(query, results.isEmpty());
+            }
+        }
+        Arrays.sort(samples);
+        Log.i(TAG, "getItemsFilteredBy at " + ROWS + " rows: p50=" + samples[samples.length / 2] / 1000
+                + "us p99=" + samples[(int) (samples.length * 0.99)] / 1000 + "us");
+    }
+
+    @Test
+    public void indexFollowsWrites() {
+        db.addItem("zephyr widget", 3);
+        List<Item> found = db.getItemsFilteredBy("zeph", 10);
+        assertEquals(1, found.size());
+
+        int id = found.get(0).getId();
+        db.updateItem(id, "quasar widget", 3);
+        assertTrue(db.getItemsFilteredBy("zeph", 10).isEmpty());
+        assertEquals(1, db.getItemsFilteredBy("quas wid", 10).size());
+
+        db.deleteItem(id);
+        assertTrue(db.getItemsFilteredBy("quas", 10).isEmpty());
+    }
+}
@@ -0,0 +1,282 @@
+package com.semonin.jjwarehouse;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local change log for offline-first sync. Triggers on items append one row per
+ * insert, update and delete, whichever DatabaseHelper method (or bulk statement) made
+ * it, so nothing can be written without being queued for upload. Rows are deleted
+ * once the server acknowledges them. Changes pulled from the server are applied with
+ * sync_state.applying_remote set, which keeps them out of the log.
+ *
+ * Items are identified across devices by items.guid, assigned on insert.
+ * items.sku joined the log with addSku (schema version 10).
+ */
+final class ChangeLog {
+
+    private static final String TAG = "ChangeLog";
+
+    static final String TABLE_CHANGES = "change_log";
+    static final String TABLE_SYNC_STATE = "sync_state";
+    static final String COLUMN_GUID = "guid";
+
+    static final int OP_INSERT = 0;
+    static final int OP_UPDATE = 1;
+    static final int OP_DELETE = 2;
+
+    // Bits of change_log.fields and SyncApi.RemoteItem.fields
+    static final int FIELD_NAME = 1;
+    static final int FIELD_QUANTITY = 2;
+    static final int FIELD_REORDER_THRESHOLD = 4;
+    static final int FIELD_SKU = 8;
+    static final int ALL_FIELDS = FIELD_NAME | FIELD_QUANTITY | FIELD_REORDER_THRESHOLD | FIELD_SKU;
+    // What the log carried before addSku; create() is a shipped migration step and keeps to it
+    private static final int FIELDS_BEFORE_SKU = FIELD_NAME | FIELD_QUANTITY | FIELD_REORDER_THRESHOLD;
+
+    private static final String NOT_APPLYING_REMOTE =
+            "(SELECT applying_remote FROM " + TABLE_SYNC_STATE + " WHERE id = 1) = 0";
+
+    private ChangeLog() {
+    }
+
+    /**
+     * Adds items.guid, the log, the sync state row and the logging triggers. Every
+     * existing item is logged as an insert so the first sync uploads it.
+     */
+    static void create(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE items ADD COLUMN " + COLUMN_GUID + " TEXT");
+        db.execSQL("UPDATE items SET " + COLUMN_GUID + " = lower(hex(randomblob(16)))");
+        db.execSQL("CREATE UNIQUE INDEX idx_items_guid ON items(" + COLUMN_GUID + ")");
+
+        // quantity_delta rather than the new quantity, so the server can merge concurrent adjustments
+        db.execSQL("CREATE TABLE " + TABLE_CHANGES + " ("
+                + "seq INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "guid TEXT NOT NULL, "
+                + "op INTEGER NOT NULL, "
+                + "fields INTEGER NOT NULL, "
+                + "name TEXT, "
+                + "quantity_delta INTEGER NOT NULL DEFAULT 0, "
+                + "reorder_threshold INTEGER)");
+        db.execSQL("CREATE INDEX idx_change_log_guid ON " + TABLE_CHANGES + "(guid)");
+
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                + "id INTEGER PRIMARY KEY CHECK (id = 1), "
+                + "client_id TEXT NOT NULL, "
+                + "sync_token TEXT, "
+                + "upload_cursor INTEGER NOT NULL DEFAULT 0, "
+                + "applying_remote INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("INSERT INTO " + TABLE_SYNC_STATE + " (id, client_id) VALUES (1, lower(hex(randomblob(16))))");
+
+        db.execSQL("INSERT INTO " + TABLE_CHANGES + " (guid, op, fields, name, quantity_delta, reorder_threshold) "
+                + "SELECT guid, " + OP_INSERT + ", " + FIELDS_BEFORE_SKU + ", name, IFNULL(quantity, 0), reorder_threshold "
+                + "FROM items ORDER BY id");
+
+        createInsertUpdateTriggers(db, false);
+        db.execSQL("CREATE TRIGGER items_changes_ad AFTER DELETE ON items WHEN " + NOT_APPLYING_REMOTE + " BEGIN "
+                + "INSERT INTO " + TABLE_CHANGES + " (guid, op, fields) VALUES (old.guid, " + OP_DELETE + ", 0); END");
+    }
+
+    /**
+     * Starts logging items.sku: adds change_log.sku and re-creates the insert and update
+     * triggers with it. Existing SKUs are queued as updates so the next sync uploads them.
+     */
+    static void addSku(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_CHANGES + " ADD COLUMN sku TEXT");
+        db.execSQL("DROP TRIGGER items_changes_ai");
+        db.execSQL("DROP TRIGGER items_changes_au");
+        createInsertUpdateTriggers(db, true);
+        db.execSQL("INSERT INTO " + TABLE_CHANGES + " (guid, op, fields, sku) SELECT guid, " + OP_UPDATE + ", "
+                + FIELD_SKU + ", sku FROM items WHERE sku IS NOT NULL ORDER BY id");
+    }
+
+    // One insert trigger assigns the guid and logs, so the log row always sees the guid
+    private static void createInsertUpdateTriggers(SQLiteDatabase db, boolean withSku) {
+        String columns = "guid, op, fields, name, quantity_delta, reorder_threshold" + (withSku ? ", sku" : "");
+        db.execSQL("CREATE TRIGGER items_changes_ai AFTER INSERT ON items BEGIN "
+                + "UPDATE items SET guid = lower(hex(randomblob(16))) WHERE id = new.id AND guid IS NULL; "
+                + "INSERT INTO " + TABLE_CHANGES + " (" + columns + ") "
+                + "SELECT guid, " + OP_INSERT + ", " + (withSku ? ALL_FIELDS : FIELDS_BEFORE_SKU)
+                + ", name, IFNULL(quantity, 0), reorder_threshold" + (withSku ? ", sku" : "") + " "
+                + "FROM items WHERE id = new.id AND " + NOT_APPLYING_REMOTE + "; END");
+        db.execSQL("CREATE TRIGGER items_changes_au AFTER UPDATE OF name, quantity, reorder_threshold"
+                + (withSku ? ", sku" : "") + " ON items "
+                + "WHEN " + NOT_APPLYING_REMOTE + " AND " + changedFields(withSku) + " != 0 BEGIN "
+                + "INSERT INTO " + TABLE_CHANGES + " (" + columns + ") "
+                + "VALUES (new.guid, " + OP_UPDATE + ", " + changedFields(withSku) + ", new.name, "
+                + "IFNULL(new.quantity, 0) - IFNULL(old.quantity, 0), new.reorder_threshold"
+                + (withSku ? ", new.sku" : "") + "); END");
+    }
+
+    // Bit mask of the columns an UPDATE actually changed
+    private static String changedFields(boolean withSku) {
+        return "((old.name IS NOT new.name) * " + FIELD_NAME
+                + " + (old.quantity IS NOT new.quantity) * " + FIELD_QUANTITY
+                + " + (old.reorder_threshold IS NOT new.reorder_threshold) * " + FIELD_REORDER_THRESHOLD
+                + (withSku ? " + (old.sku IS NOT new.sku) * " + FIELD_SKU : "") + ")";
+    }
+
+    static String readClientId(SQLiteDatabase db) {
+        return readState(db, "client_id");
+    }
+
+    static String readSyncToken(SQLiteDatabase db) {
+        return readState(db, "sync_token");
+    }
+
+    private static String readState(SQLiteDatabase db, String column) {
+        Cursor cursor = db.rawQuery("SELECT " + column + " FROM " + TABLE_SYNC_STATE + " WHERE id = 1", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Oldest unacknowledged changes first
+    static List<SyncApi.Change> readPending(SQLiteDatabase db, int limit) {
+        Cursor cursor = db.rawQuery("SELECT seq, guid, op, fields, name, quantity_delta, reorder_threshold, sku FROM "
+                + TABLE_CHANGES + " ORDER BY seq LIMIT ?", new String[]{String.valueOf(limit)});
+        try {
+            List<SyncApi.Change> changes = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                changes.add(new SyncApi.Change(cursor.getLong(0), cursor.getString(1), cursor.getInt(2),
+                        cursor.getInt(3), cursor.getString(4), cursor.getInt(5),
+                        cursor.isNull(6) ? 0 : cursor.getInt(6), cursor.getString(7)));
+            }
+            return changes;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Drops acknowledged rows and moves the checkpoint, in one transaction so a crash cannot split them
+    static void acknowledge(SQLiteDatabase db, long uptoSeq) {
+        db.beginTransactionNonExclusive();
+        try {
+            db.execSQL("DELETE FROM " + TABLE_CHANGES + " WHERE seq <= ?", new Object[]{uptoSeq});
+            db.execSQL("UPDATE " + TABLE_SYNC_STATE + " SET upload_cursor = MAX(upload_cursor, ?) WHERE id = 1",
+                    new Object[]{uptoSeq});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Applies one page of server deltas and stores the new sync token, in one
+     * transaction. Per field: a field with a local change not yet uploaded keeps the
+     * local value (the upload will merge it on the server), except quantity, which is
+     * rebased as server quantity + pending local delta.
+     *
+     * @return local ids of the items that were inserted, changed or deleted
+     */
+    static List<Integer> applyRemote(SQLiteDatabase db, List<SyncApi.RemoteItem> items, String token) {
+        List<Integer> touched = new ArrayList<>(items.size());
+        db.beginTransactionNonExclusive();
+        try {
+            db.execSQL("UPDATE " + TABLE_SYNC_STATE + " SET applying_remote = 1 WHERE id = 1");
+            for (SyncApi.RemoteItem item : items) {
+                int id = findItem(db, item.guid);
+                if (item.deleted) {
+                    if (id != -1) {
+                        // Deleted on the server: local edits to it have nothing left to apply to
+                        db.delete("items", "id = ?", new String[]{String.valueOf(id)});
+                        db.delete(TABLE_CHANGES, "guid = ?", new String[]{item.guid});
+                        touched.add(id);
+                    }
+                    continue;
+                }
+
+                int pendingFields = 0;
+                long pendingDelta = 0;
+                Cursor pending = db.rawQuery("SELECT op, fields, quantity_delta FROM " + TABLE_CHANGES
+                        + " WHERE guid = ?", new String[]{item.guid});
+                boolean pendingDelete = false;
+                try {
+                    while (pending.moveToNext()) {
+                        pendingDelete |= pending.getInt(0) == OP_DELETE;
+                        pendingFields |= pending.getInt(1);
+                        if ((pending.getInt(1) & FIELD_QUANTITY) != 0) {
+                            pendingDelta += pending.getLong(2);
+                        }
+                    }
+                } finally {
+                    pending.close();
+                }
+                if (pendingDelete) {
+                    // Deleted here and not uploaded yet; the upload decides
+                    continue;
+                }
+
+                ContentValues values = new ContentValues();
+                if ((item.fields & FIELD_NAME) != 0 && (pendingFields & FIELD_NAME) == 0) {
+                    values.put("name", item.name);
+                }
+                if ((item.fields & FIELD_QUANTITY) != 0) {
+                    // Never below the units this device has put away (see Locations)
+                    int floor = id == -1 ? 0 : Locations.readLocatedQuantity(db, id);
+                    values.put("quantity", Math.max(floor, item.quantity + pendingDelta));
+                }
+                if ((item.fields & FIELD_REORDER_THRESHOLD) != 0 && (pendingFields & FIELD_REORDER_THRESHOLD) == 0) {
+                    values.put("reorder_threshold", item.reorderThreshold);
+                }
+                if ((item.fields & FIELD_SKU) != 0 && (pendingFields & FIELD_SKU) == 0) {
+                    String sku = DatabaseHelper.normalizeSku(item.sku);
+                    if (sku != null && skuTakenByOther(db, sku, id)) {
+                        // The unique index would fail the whole page; the other item's own sync sorts it out
+                        Log.w(TAG, "SKU " + sku + " of " + item.guid + " is on another item here, not applied");
+                    } else {
+                        values.put("sku", sku);
+                    }
+                }
+                if (id == -1) {
+                    values.put(COLUMN_GUID, item.guid);
+                    if (!values.containsKey("quantity")) {
+                        values.put("quantity", 0);
+                    }
+                    touched.add((int) db.insert("items", null, values));
+                } else if (values.size() > 0) {
+                    db.update("items", values, "id = ?", new String[]{String.valueOf(id)});
+                    touched.add(id);
+                }
+            }
+            db.execSQL("UPDATE " + TABLE_SYNC_STATE + " SET applying_remote = 0, sync_token = ? WHERE id = 1",
+                    new Object[]{token});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return touched;
+    }
+
+    private static boolean skuTakenByOther(SQLiteDatabase db, String sku, int id) {
+        return DatabaseUtils.queryNumEntries(db, "items", "sku = ? AND id != ?",
+                new String[]{sku, String.valueOf(id)}) > 0;
+    }
+
+    private static int findItem(SQLiteDatabase db, String guid) {
+        Cursor cursor = db.rawQuery("SELECT id FROM items WHERE " + COLUMN_GUID + " = ?", new String[]{guid});
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static int countPending(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_CHANGES, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -1,20 +1,46 @@
 package com.semonin.jjwarehouse;
 
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.List;
+import java.util.ArrayList;
 
 public class DataGridFragment extends Fragment {
 
+    private static final String TAG = "DataGridFragment";
+    // Location the grid starts scoped to, InventoryPager.ALL_LOCATIONS for every item
+    static final String ARG_LOCATION_ID = "locationId";
+
+    // Owns the paged inventory and the live search, so both survive rotation
+    private ItemViewModel viewModel;
+    // Kept across view re-creation so stable ids survive; the pages themselves live in viewModel
+    private PagedInventoryAdapter adapter;
+    // Shows search results while the search box is not empty
+    private InventoryAdapter searchAdapter;
+    private RecyclerView recyclerView;
+
+    private final InventoryAdapter.OnItemClickListener itemClickListener = new InventoryAdapter.OnItemClickListener() {
+        @Override
+        public void onItemClick(Item item) {
+            navigateToGridItemFragmentWithItemDetails(item);
+        }
+    };
+
     public DataGridFragment() {
         // Required empty public constructor
     }
@@ -23,6 +49,15 @@ public class DataGridFragment extends Fragment {
         return new DataGridFragment();
     }
 
+    // A grid listing only what is held at one location, with the units there
+    public static DataGridFragment newInstance(int locationId) {
+        DataGridFragment fragment = new DataGridFragment();
+        Bundle args = new Bundle();
+        args.putInt(ARG_LOCATION_ID, locationId);
+        fragment.setArguments(args);
+        return fragment;
+    }
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
         // Inflate the layout for this fragment
@@ -32,7 +67,18 @@ public class DataGridFragment extends Fragment {
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
+        viewModel = new ViewModelProvider(requireActivity()).get(ItemViewModel.class);
+        if (savedInstanceState == null && getArguments() != null) {
+            // Later changes come from showLocation() and live in the view model, so only apply this once
+            viewModel.setLocation(getArguments().getInt(ARG_LOCATION_ID, InventoryPager.ALL_LOCATIONS));
+        }
         setupRecyclerView(view);
+        setupSearch(view);
+
+        // Dashboard counts come from the trigger-maintained aggregates row, not a scan
+        final TextView summary = view.findViewById(R.id.inventorySummary);
+        viewModel.getTotals().observe(getViewLifecycleOwner(), totals -> summary.setText(getString(
+                R.string.inventory_summary, totals.itemCount, totals.totalQuantity, totals.lowStockCount)));
 
         Button addDataButton = view.findViewById(R.id.addDataButton);
         addDataButton.setOnClickListener(new View.OnClickListener() {
@@ -45,19 +91,67 @@ public class DataGridFragment extends Fragment {
 
     //ALGO
     private void setupRecyclerView(View view) {
-        RecyclerView recyclerView = view.findViewById(R.id.dataGrid);
+        recyclerView = view.findViewById(R.id.dataGrid);
         recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
 
-        DatabaseHelper db = new DatabaseHelper(getContext());
-        List<Item> items = db.getItems();
+        if (adapter == null) {
+            adapter = new PagedInventoryAdapter(viewModel.getInventory(), itemClickListener);
+        }
+        recyclerView.setAdapter(adapter);
+
+        // Re-read the visible rows only when items was written, not on every resume
+        viewModel.getItemsVersion().observe(getViewLifecycleOwner(), version -> {
+            if (viewModel.consumeInventoryVersion(version)) {
+                adapter.refresh();
+            }
+        });
+    }
+
+    // Scopes the grid to one location (InventoryPager.ALL_LOCATIONS for every item); search stays catalogue-wide
+    public void showLocation(int locationId) {
+        viewModel.setLocation(locationId);
+    }
+
+    // Search box -> LiveSearch (debounce, cancel, cache) -> searchAdapter
+    private void setupSearch(View view) {
+        if (searchAdapter == null) {
+            searchAdapter = new InventoryAdapter(new ArrayList<Item>(), itemClickListener);
+        }
+        viewModel.getSearchResults().observe(getViewLifecycleOwner(), this::showResults);
+
+        EditText searchInput = view.findViewById(R.id.searchInput);
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
 
-        InventoryAdapter adapter = new InventoryAdapter(items, new InventoryAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(Item item) {
-                navigateToGridItemFragmentWithItemDetails(item);
+            public void afterTextChanged(Editable s) {
+                viewModel.getLiveSearch().onQueryChanged(s.toString());
             }
         });
-        recyclerView.setAdapter(adapter);
+    }
+
+    private void showResults(ItemViewModel.SearchResults results) {
+        if (recyclerView == null) {
+            return;
+        }
+        if (results.query.trim().isEmpty()) {
+            // Back to the full, paged inventory
+            if (recyclerView.getAdapter() != adapter) {
+                recyclerView.setAdapter(adapter);
+            }
+            results.rendered();
+            return;
+        }
+        if (recyclerView.getAdapter() != searchAdapter) {
+            recyclerView.setAdapter(searchAdapter);
+        }
+        searchAdapter.submitList(results.items, results::rendered);
     }
                 // bundle
     private void navigateToGridItemFragmentWithItemDetails(Item item) {
@@ -65,34 +159,63 @@ public class DataGridFragment extends Fragment {
 
         // Pass item details to GridItemFragment
         Bundle args = new Bundle();
-        args.putInt("itemId", item.getId()); // Assuming Item class has getId()
-        args.putString("itemName", item.getName());
-        args.putInt("itemQuantity", item.getQuantity());
+        args.putInt(GridItem.ARG_ITEM_ID, item.getId()); // Assuming Item class has getId()
+        args.putString(GridItem.ARG_ITEM_NAME, item.getName());
+        // A location-scoped row holds the units at that location, not the total the edit screen shows
+        // and saves, so it opens empty and fills in once the database answers
+        if (!isLocationScoped()) {
+            args.putInt(GridItem.ARG_ITEM_QUANTITY, item.getQuantity());
+            args.putInt(GridItem.ARG_ITEM_VERSION, item.getVersion());
+        }
+        args.putLong(GridItem.ARG_OPENED_AT, SystemClock.elapsedRealtimeNanos());
         gridItemFragment.setArguments(args);
 
-        // Perform the fragment transaction
+        // Perform the fragment transaction, hiding (not replacing) the grid so its rows survive
         if (isAdded()) {
             getActivity().getSupportFragmentManager().beginTransaction()
-                    .replace(R.id.fragment_container, gridItemFragment)
+                    .hide(this)
+                    .add(R.id.fragment_container, gridItemFragment)
                     .addToBackStack(null)
                     .commit();
         }
     }
 
+    // True while the grid shows one location's paged stock; search results always carry item totals
+    private boolean isLocationScoped() {
+        return recyclerView != null && recyclerView.getAdapter() == adapter
+                && viewModel.getInventory().getLocation() != InventoryPager.ALL_LOCATIONS;
+    }
+
     private void navigateToAddNewItem() {
         GridItem gridItemFragment = new GridItem();
         // Perform the fragment transaction to add a new item
         if (isAdded()) {
             getActivity().getSupportFragmentManager().beginTransaction()
-                    .replace(R.id.fragment_container, gridItemFragment)
+                    .hide(this)
+                    .add(R.id.fragment_container, gridItemFragment)
                     .addToBackStack(null)
                     .commit();
         }
     }
 
     @Override
-    public void onResume() {
-        super.onResume();
-        setupRecyclerView(getView());
+    public void onPause() {
+        super.onPause();
+        LiveSearch liveSearch = viewModel == null ? null : viewModel.getLiveSearch();
+        if (liveSearch != null && liveSearch.getLatencyRecorder().getCount() > 0) {
+            Log.i(TAG, "Search keystroke-to-render latency: p50=" + liveSearch.getLatencyMillis(0.5)
+                    + "ms p99=" + liveSearch.getLatencyMillis(0.99) + "ms");
+        }
+        // adb shell setprop log.tag.DataGridFragment DEBUG to dump the data layer counters
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Data layer metrics:\n" + DbMetrics.snapshot());
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        viewModel.getLiveSearch().cancel();
+        recyclerView = null;
     }
 }
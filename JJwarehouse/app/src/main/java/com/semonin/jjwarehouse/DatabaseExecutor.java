@@ -0,0 +1,123 @@
+package com.semonin.jjwarehouse;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs database and password hashing work on a small, bounded pool of background
+ * threads and delivers results back on the main thread.
+ */
+public final class DatabaseExecutor {
+
+    private static final String TAG = "DatabaseExecutor";
+
+    // SQLite allows one writer at a time (WAL allows concurrent readers), so a couple of threads is enough
+    private static final int POOL_SIZE = 2;
+    // Bounded so a burst of taps cannot queue unbounded work behind a slow query
+    private static final int QUEUE_CAPACITY = 64;
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+            new DatabaseThreadFactory(),
+            new ThreadPoolExecutor.AbortPolicy());
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private DatabaseExecutor() {
+    }
+
+    // Receives the result of background work on the main thread
+    public interface Callback<T> {
+        void onResult(T result);
+
+        default void onError(Exception e) {
+            Log.e(TAG, "Background database call failed", e);
+        }
+    }
+
+    /**
+     * Runs work on the database pool and hands its result (or failure) to callback on the
+     * main thread. A full queue is reported through callback.onError.
+     *
+     * @return the pending task, which can be cancelled, or null if it was rejected
+     */
+    public static <T> Future<?> submit(final Callable<T> work, final Callback<T> callback) {
+        try {
+            return EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final T result = work.call();
+                        MAIN_HANDLER.post(() -> callback.onResult(result));
+                    } catch (final Exception e) {
+                        MAIN_HANDLER.post(() -> callback.onError(e));
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            MAIN_HANDLER.post(() -> callback.onError(e));
+            return null;
+        }
+    }
+
+    /**
+     * Fire-and-forget background work, failures are logged. Never throws for a full queue,
+     * so it is safe to call from the main thread; work that must not be lost checks the
+     * result and tries again later.
+     *
+     * @return false if the queue was full and work was not scheduled
+     */
+    public static boolean execute(final Runnable work) {
+        try {
+            EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        work.run();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Background database call failed", e);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Database queue full, work not scheduled");
+            return false;
+        }
+    }
+
+    public static void postToMain(Runnable runnable) {
+        MAIN_HANDLER.post(runnable);
+    }
+
+    public static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    private static class DatabaseThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "db-" + count.incrementAndGet());
+            // Keep UI rendering ahead of database work
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -2,38 +2,185 @@ package com.semonin.jjwarehouse;
 
 
 
+import android.content.ComponentCallbacks2;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
 import android.util.Log;
+import android.util.SparseIntArray;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "inventoryApp.db";
-    private static final int DATABASE_VERSION = 1;
+    // Follows the steps in DatabaseMigrations; appending one is all an upgrade needs
+    static final int DATABASE_VERSION = DatabaseMigrations.LATEST_VERSION;
 
     // Table and columns names
-    private static final String TABLE_ITEMS = "items";
-    private static final String COLUMN_ID = "id";
-    private static final String COLUMN_NAME = "name";
-    private static final String COLUMN_QUANTITY = "quantity";
+    static final String TABLE_ITEMS = "items";
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_QUANTITY = "quantity";
+    // Added in version 4; an item with quantity below it is low stock
+    static final String COLUMN_REORDER_THRESHOLD = "reorder_threshold";
+    // Added in version 6; bumped on every change to the row, for optimistic updates
+    static final String COLUMN_VERSION = "version";
+    // Added in version 7; the item's barcode, unique among items that have one
+    static final String COLUMN_SKU = "sku";
 
-    private static final String TABLE_USERS = "users";
-    private static final String COLUMN_USER_ID = "id";
-    private static final String COLUMN_USER_NAME = "username";
-    private static final String COLUMN_USER_PASSWORD = "password";
+    // Bound parameters SQLite accepts per statement before 3.32 (every Android release before 11)
+    static final int MAX_SQL_VARIABLES = 999;
 
-    public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    static final String TABLE_USERS = "users";
+    static final String COLUMN_USER_ID = "id";
+    static final String COLUMN_USER_NAME = "username";
+    static final String COLUMN_USER_PASSWORD = "password";
+
+    // Where the calibrated PBKDF2 iteration count is kept
+    static final String SECURITY_PREFS = "security";
+    static final String PREF_HASH_ITERATIONS = "pbkdf2_iterations";
+
+    // Instrumented operations, see DbMetrics
+    private static final DbMetrics.Op OP_ADD_USER = DbMetrics.op("addUser");
+    private static final DbMetrics.Op OP_CHECK_USER = DbMetrics.op("checkUser");
+    private static final DbMetrics.Op OP_CHECK_USER_EXISTS = DbMetrics.op("checkUserExists");
+    private static final DbMetrics.Op OP_ADD_ITEM = DbMetrics.op("addItem");
+    private static final DbMetrics.Op OP_ADD_ITEMS = DbMetrics.op("addItems");
+    private static final DbMetrics.Op OP_GET_ITEMS = DbMetrics.op("getItems");
+    private static final DbMetrics.Op OP_EXPORT_ITEMS = DbMetrics.op("exportItems");
+    private static final DbMetrics.Op OP_IMPORT_ITEMS = DbMetrics.op("importItems");
+    private static final DbMetrics.Op OP_GET_ITEM_COUNT = DbMetrics.op("getItemCount");
+    private static final DbMetrics.Op OP_GET_ITEMS_AFTER = DbMetrics.op("getItemsAfter");
+    private static final DbMetrics.Op OP_GET_ITEMS_BEFORE = DbMetrics.op("getItemsBefore");
+    private static final DbMetrics.Op OP_COUNT_ITEMS_BEFORE = DbMetrics.op("countItemsBefore");
+    private static final DbMetrics.Op OP_GET_ITEM_ID_AFTER = DbMetrics.op("getItemIdAfter");
+    private static final DbMetrics.Op OP_GET_ITEMS_FILTERED_BY = DbMetrics.op("getItemsFilteredBy");
+    private static final DbMetrics.Op OP_GET_ITEM_BY_ID = DbMetrics.op("getItemById");
+    private static final DbMetrics.Op OP_UPDATE_ITEM = DbMetrics.op("updateItem");
+    private static final DbMetrics.Op OP_UPDATE_ITEM_IF_VERSION = DbMetrics.op("updateItemIfVersion");
+    private static final DbMetrics.Op OP_UPDATE_ITEM_WITH_RETRY = DbMetrics.op("updateItemWithRetry");
+    private static final DbMetrics.Op OP_UPDATE_ITEM_NAME = DbMetrics.op("updateItemName");
+    private static final DbMetrics.Op OP_ADJUST_QUANTITY = DbMetrics.op("adjustQuantity");
+    private static final DbMetrics.Op OP_ADJUST_QUANTITIES = DbMetrics.op("adjustQuantities");
+    private static final DbMetrics.Op OP_SET_REORDER_THRESHOLD = DbMetrics.op("setReorderThreshold");
+    private static final DbMetrics.Op OP_SET_SKU = DbMetrics.op("setSku");
+    private static final DbMetrics.Op OP_GET_ITEM_BY_SKU = DbMetrics.op("getItemBySku");
+    private static final DbMetrics.Op OP_GET_ITEMS_BY_SKUS = DbMetrics.op("getItemsBySkus");
+    private static final DbMetrics.Op OP_ADJUST_QUANTITIES_BY_SKU = DbMetrics.op("adjustQuantitiesBySku");
+    private static final DbMetrics.Op OP_ADD_LOCATION = DbMetrics.op("addLocation");
+    private static final DbMetrics.Op OP_GET_LOCATIONS = DbMetrics.op("getLocations");
+    private static final DbMetrics.Op OP_ADJUST_STOCK = DbMetrics.op("adjustStock");
+    private static final DbMetrics.Op OP_TRANSFER_STOCK = DbMetrics.op("transferStock");
+    private static final DbMetrics.Op OP_GET_ITEM_STOCK = DbMetrics.op("getItemStock");
+    private static final DbMetrics.Op OP_GET_LOCATION_TOTALS = DbMetrics.op("getLocationTotals");
+    private static final DbMetrics.Op OP_GET_STOCK_COUNT = DbMetrics.op("getStockCount");
+    private static final DbMetrics.Op OP_GET_STOCK_AFTER = DbMetrics.op("getStockAfter");
+    private static final DbMetrics.Op OP_GET_STOCK_BEFORE = DbMetrics.op("getStockBefore");
+    private static final DbMetrics.Op OP_COUNT_STOCK_BEFORE = DbMetrics.op("countStockBefore");
+    private static final DbMetrics.Op OP_GET_STOCK_ITEM_ID_AFTER = DbMetrics.op("getStockItemIdAfter");
+    private static final DbMetrics.Op OP_GET_INVENTORY_TOTALS = DbMetrics.op("getInventoryTotals");
+    private static final DbMetrics.Op OP_GET_LOW_STOCK_ITEMS = DbMetrics.op("getLowStockItems");
+    private static final DbMetrics.Op OP_GET_INVENTORY_SNAPSHOT = DbMetrics.op("getInventorySnapshot");
+    private static final DbMetrics.Op OP_ROLL_UP_MOVEMENTS = DbMetrics.op("rollUpMovements");
+    private static final DbMetrics.Op OP_GET_MOVEMENT_HISTORY = DbMetrics.op("getMovementHistory");
+    private static final DbMetrics.Op OP_DELETE_ITEM = DbMetrics.op("deleteItem");
+    private static final DbMetrics.Op OP_GET_SYNC_CLIENT_ID = DbMetrics.op("getSyncClientId");
+    private static final DbMetrics.Op OP_GET_SYNC_TOKEN = DbMetrics.op("getSyncToken");
+    private static final DbMetrics.Op OP_GET_PENDING_CHANGE_COUNT = DbMetrics.op("getPendingChangeCount");
+    private static final DbMetrics.Op OP_GET_PENDING_CHANGES = DbMetrics.op("getPendingChanges");
+    private static final DbMetrics.Op OP_ACKNOWLEDGE_CHANGES = DbMetrics.op("acknowledgeChanges");
+    private static final DbMetrics.Op OP_APPLY_REMOTE_CHANGES = DbMetrics.op("applyRemoteChanges");
+
+    // One helper (and one open connection pool) shared by the whole process
+    private static volatile DatabaseHelper instance;
+
+    public static final int DEFAULT_ITEM_CACHE_SIZE = 256;
+
+    // Write-through cache in front of getItemById
+    private final ItemCache itemCache = new ItemCache(DEFAULT_ITEM_CACHE_SIZE);
+
+    private final Context appContext;
+    private volatile boolean hashCalibrated;
+
+    /**
+     * Told after a write to a table has completed, on the thread that made the write.
+     * Implementations should only schedule work, not query from inside the callback.
+     */
+    public interface OnTableChangedListener {
+        void onTableChanged(String table);
+    }
+
+    private final CopyOnWriteArrayList<OnTableChangedListener> tableListeners = new CopyOnWriteArrayList<>();
+
+    // Item writes between background rollups of the movement journal
+    static final int ROLLUP_EVERY_WRITES = 256;
+    private final AtomicInteger writesSinceRollup = new AtomicInteger();
+
+    /**
+     * Returns the process-wide DatabaseHelper. The underlying database is opened once
+     * and kept open until the process dies, so callers must not close it.
+     *
+     * @param context any context, only its application context is retained
+     * @return the shared helper
+     */
+    public static DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            synchronized (DatabaseHelper.class) {
+                if (instance == null) {
+                    Context appContext = context.getApplicationContext();
+                    instance = new DatabaseHelper(appContext, DATABASE_NAME);
+                    appContext.registerComponentCallbacks(new MemoryTrimCallbacks());
+                }
+            }
+        }
+        return instance;
+    }
+
+    // Package-private so tests and benchmarks can open a separate (or in-memory, name == null) database
+    DatabaseHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        appContext = context;
+        // WAL lets the grid keep reading while the edit screen is writing
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Movements earlier runs left un-rolled count towards the next rollup, so runs of few writes still trigger one
+        writesSinceRollup.set(StockJournal.countUnrolled(db));
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createBaseSchema(db);
+        // A fresh install goes through the same steps as an upgrade, so both end up identical
+        DatabaseMigrations.migrate(db, 1, DATABASE_VERSION);
+    }
+
+    // The version 1 schema, everything after it lives in DatabaseMigrations
+    static void createBaseSchema(SQLiteDatabase db) {
         String CREATE_TABLE_ITEMS = "CREATE TABLE " + TABLE_ITEMS + "("
                 + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
                 + COLUMN_NAME + " TEXT,"
@@ -49,124 +196,1532 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
 // implement new user registration
 public void addUser(String username, String password) {
-    SQLiteDatabase db = this.getWritableDatabase();
-    ContentValues values = new ContentValues();
-    values.put(COLUMN_USER_NAME, username);
-    // Hash the password using SHA-256
-    String hashedPassword = SecurityUtils.hashPassword(password);
-    values.put(COLUMN_USER_PASSWORD, hashedPassword);
-    db.insert(TABLE_USERS, null, values);
-    db.close();
+    long callStart = OP_ADD_USER.begin();
+    try {
+        ensureHashCalibrated();
+        SQLiteDatabase db = this.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_USER_NAME, username);
+        // Salted PBKDF2, the iteration count is stored inside the hash
+        String hashedPassword = SecurityUtils.hashPassword(password);
+        values.put(COLUMN_USER_PASSWORD, hashedPassword);
+        db.insert(TABLE_USERS, null, values);
+    } finally {
+        OP_ADD_USER.end(callStart);
+    }
 }
     public boolean checkUser(String username, String password) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        String hashedPassword = SecurityUtils.hashPassword(password);
+        long callStart = OP_CHECK_USER.begin();
+        try {
+            ensureHashCalibrated();
+            SQLiteDatabase db = this.getReadableDatabase();
 
-        Cursor cursor = db.query("users",
-                new String[]{"username"}, // Just need to check existence, not fetch the password
-                "username=? AND password=?",
-                new String[]{username, hashedPassword}, // Use hashed password for comparison
-                null, null, null);
+            long userId;
+            String storedHash;
+            Cursor cursor = db.query(TABLE_USERS,
+                    new String[]{COLUMN_USER_ID, COLUMN_USER_PASSWORD},
+                    COLUMN_USER_NAME + "=?",
+                    new String[]{username},
+                    null, null, null, "1");
+            try {
+                if (!cursor.moveToFirst()) {
+                    return false;
+                }
+                userId = cursor.getLong(0);
+                storedHash = cursor.getString(1);
+            } finally {
+                cursor.close();
+            }
 
-        int cursorCount = cursor.getCount();
-        cursor.close();
-        db.close();
-        return cursorCount > 0;
+            if (!SecurityUtils.verifyPassword(password, storedHash)) {
+                return false;
+            }
+            // Old SHA-256 rows (and hashes from a weaker calibration) are upgraded on a successful login
+            if (SecurityUtils.needsRehash(storedHash)) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_USER_PASSWORD, SecurityUtils.hashPassword(password));
+                getWritableDatabase().update(TABLE_USERS, values,
+                        COLUMN_USER_ID + "=? AND " + COLUMN_USER_PASSWORD + "=?",
+                        new String[]{String.valueOf(userId), storedHash});
+            }
+            return true;
+        } finally {
+            OP_CHECK_USER.end(callStart);
+        }
+    }
+
+    // Loads the device's PBKDF2 iteration count, measuring it once on first use
+    private void ensureHashCalibrated() {
+        if (hashCalibrated) {
+            return;
+        }
+        synchronized (this) {
+            if (hashCalibrated) {
+                return;
+            }
+            SharedPreferences prefs = appContext.getSharedPreferences(SECURITY_PREFS, Context.MODE_PRIVATE);
+            int iterations = prefs.getInt(PREF_HASH_ITERATIONS, 0);
+            if (iterations <= 0) {
+                iterations = SecurityUtils.calibrateIterations(SecurityUtils.TARGET_HASH_MILLIS);
+                prefs.edit().putInt(PREF_HASH_ITERATIONS, iterations).apply();
+                Log.i("DatabaseHelper", "Calibrated password hashing to " + iterations + " iterations");
+            }
+            SecurityUtils.setIterations(iterations);
+            hashCalibrated = true;
+        }
     }
 public boolean checkUserExists(String username){
-        SQLiteDatabase db = this.getReadableDatabase();
-        String query = "SELECT * FROM " + TABLE_USERS + " WHERE " + COLUMN_USER_NAME + " = ?";
-        Cursor cursor = db.rawQuery(query, new String[]{username});
-        boolean exists = cursor.getCount()  > 0;
-        cursor.close();
-        return exists;
+        long callStart = OP_CHECK_USER_EXISTS.begin();
+        try {
+            SQLiteDatabase db = this.getReadableDatabase();
+            String query = "SELECT 1 FROM " + TABLE_USERS + " WHERE " + COLUMN_USER_NAME + " = ? LIMIT 1";
+            Cursor cursor = db.rawQuery(query, new String[]{username});
+            boolean exists = cursor.getCount()  > 0;
+            cursor.close();
+            return exists;
+        } finally {
+            OP_CHECK_USER_EXISTS.end(callStart);
+        }
 }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ITEMS);
-        onCreate(db);
+        // Upgrade step by step so existing stock survives
+        DatabaseMigrations.migrate(db, oldVersion, newVersion);
     }
 
     // Method to add an item Algo
-    public void addItem(String name, int quantity) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_NAME, name);
-        values.put(COLUMN_QUANTITY, quantity);
-        db.insert(TABLE_ITEMS, null, values);
-        db.close();
+    // Returns the new item's id, or -1 if the insert failed
+    public long addItem(String name, int quantity) {
+        long callStart = OP_ADD_ITEM.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_NAME, name);
+            values.put(COLUMN_QUANTITY, quantity);
+            long id = db.insert(TABLE_ITEMS, null, values);
+            if (id != -1) {
+                Item item = new Item();
+                item.setId((int) id);
+                item.setName(name);
+                item.setQuantity(quantity);
+                itemCache.put(item);
+                rows = 1;
+                notifyTableChanged(TABLE_ITEMS);
+            }
+            return id;
+        } finally {
+            OP_ADD_ITEM.end(callStart, rows);
+        }
+    }
+    // Default number of rows committed per transaction by addItems
+    public static final int DEFAULT_BATCH_CHUNK_SIZE = 500;
 
-        Log.d("DatabaseHelper", "Item added: Name=" + name + ", Quantity=" + quantity);
+    public int addItems(Iterable<Item> items) {
+        return addItems(items, DEFAULT_BATCH_CHUNK_SIZE);
+    }
 
+    /**
+     * Bulk insert for receiving whole pallets. Reuses one compiled INSERT statement and
+     * commits every chunkSize rows, so a large import neither holds the write lock for
+     * its whole duration nor pays for a transaction per row. Items are consumed as they
+     * are iterated, so a lazily produced Iterable streams without being materialized.
+     *
+     * @param items     items to insert, ids are ignored
+     * @param chunkSize rows per transaction, at least 1
+     * @return the number of rows inserted
+     */
+    public int addItems(Iterable<Item> items, int chunkSize) {
+        long callStart = OP_ADD_ITEMS.begin();
+        int rows = 0;
+        try {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("chunkSize must be at least 1");
+            }
+            SQLiteDatabase db = this.getWritableDatabase();
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_ITEMS
+                    + " (" + COLUMN_NAME + ", " + COLUMN_QUANTITY + ") VALUES (?, ?)");
+            int inserted = 0;
+            int inChunk = 0;
+            try {
+                db.beginTransactionNonExclusive();
+                try {
+                    for (Item item : items) {
+                        if (item.getName() == null) {
+                            insert.bindNull(1);
+                        } else {
+                            insert.bindString(1, item.getName());
+                        }
+                        insert.bindLong(2, item.getQuantity());
+                        insert.executeInsert();
+                        inserted++;
+                        if (++inChunk == chunkSize) {
+                            db.setTransactionSuccessful();
+                            db.endTransaction();
+                            db.beginTransactionNonExclusive();
+                            inChunk = 0;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } finally {
+                insert.close();
+            }
+            rows = inserted;
+            if (inserted > 0) {
+                notifyTableChanged(TABLE_ITEMS);
+            }
+            return inserted;
+        } finally {
+            OP_ADD_ITEMS.end(callStart, rows);
+        }
     }
+
     // Method to get all items
 // ALGO
     public List<Item> getItems() {
-        List<Item> itemList = new ArrayList<>();
-        String selectQuery = "SELECT  * FROM " + TABLE_ITEMS;
+        long callStart = OP_GET_ITEMS.begin();
+        int rows = 0;
+        try {
+            List<Item> itemList = new ArrayList<>();
+            String selectQuery = "SELECT  * FROM " + TABLE_ITEMS;
 
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery(selectQuery, null);
 
-        if (cursor.moveToFirst()) {
-            do {
-                Item item = new Item();
-                int idIndex = cursor.getColumnIndex(COLUMN_ID);
-                int nameIndex = cursor.getColumnIndex(COLUMN_NAME);
-                int quantityIndex = cursor.getColumnIndex(COLUMN_QUANTITY);
+            if (cursor.moveToFirst()) {
+                do {
+                    Item item = new Item();
+                    int idIndex = cursor.getColumnIndex(COLUMN_ID);
+                    int nameIndex = cursor.getColumnIndex(COLUMN_NAME);
+                    int quantityIndex = cursor.getColumnIndex(COLUMN_QUANTITY);
 
-                if (idIndex != -1) {
-                    item.setId(cursor.getInt(idIndex));
-                }
-                if (nameIndex != -1) {
-                    item.setName(cursor.getString(nameIndex));
-                }
-                if (quantityIndex != -1) {
-                    item.setQuantity(cursor.getInt(quantityIndex));
+                    if (idIndex != -1) {
+                        item.setId(cursor.getInt(idIndex));
+                    }
+                    if (nameIndex != -1) {
+                        item.setName(cursor.getString(nameIndex));
+                    }
+                    if (quantityIndex != -1) {
+                        item.setQuantity(cursor.getInt(quantityIndex));
+                    }
+                    itemList.add(item);
+                } while (cursor.moveToNext());
+            }
+
+            cursor.close();
+            rows = itemList.size();
+            return itemList;
+        } finally {
+            OP_GET_ITEMS.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Writes every item to out as CSV or JSON without loading the table; use instead of
+     * getItems() for full exports. out is flushed but left open.
+     *
+     * @return the number of items written
+     */
+    public int exportItems(OutputStream out, InventoryTransfer.Format format) throws IOException {
+        long callStart = OP_EXPORT_ITEMS.begin();
+        int rows = 0;
+        try {
+            rows = InventoryTransfer.export(getReadableDatabase(), out, format);
+            return rows;
+        } finally {
+            OP_EXPORT_ITEMS.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Upserts the items read from in (matched on guid) in chunks of InventoryTransfer.IMPORT_CHUNK
+     * rows. On an IOException the chunks before the bad record stay committed; importing the
+     * same file again is safe.
+     */
+    public InventoryTransfer.ImportResult importItems(InputStream in, InventoryTransfer.Format format) throws IOException {
+        long callStart = OP_IMPORT_ITEMS.begin();
+        int rows = 0;
+        try {
+            InventoryTransfer.ImportResult result = new InventoryTransfer.ImportResult();
+            try {
+                InventoryTransfer.importItems(getWritableDatabase(), in, format, result);
+            } finally {
+                rows = result.getInserted() + result.getUpdated();
+                if (rows > 0) {
+                    itemCache.clear();
+                    notifyTableChanged(TABLE_ITEMS);
                 }
-                itemList.add(item);
-            } while (cursor.moveToNext());
+            }
+            return result;
+        } finally {
+            OP_IMPORT_ITEMS.end(callStart, rows);
         }
+    }
+
+    // Keyset pagination: page through items in id order without OFFSET scans
+    public int getItemCount() {
+        long callStart = OP_GET_ITEM_COUNT.begin();
+        try {
+            SQLiteDatabase db = this.getReadableDatabase();
+            return (int) DatabaseUtils.queryNumEntries(db, TABLE_ITEMS);
+        } finally {
+            OP_GET_ITEM_COUNT.end(callStart);
+        }
+    }
+
+    // Returns up to limit items with id > afterId, in ascending id order
+    public List<Item> getItemsAfter(int afterId, int limit) {
+        long callStart = OP_GET_ITEMS_AFTER.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_QUANTITY
+                            + ", " + COLUMN_VERSION + " FROM " + TABLE_ITEMS + " WHERE " + COLUMN_ID + " > ?"
+                            + " ORDER BY " + COLUMN_ID + " ASC LIMIT ?",
+                    new String[]{String.valueOf(afterId), String.valueOf(limit)});
+            List<Item> page = readItems(cursor);
+            rows = page.size();
+            cursor.close();
+            return page;
+        } finally {
+            OP_GET_ITEMS_AFTER.end(callStart, rows);
+        }
+    }
+
+    // Returns up to limit items with id < beforeId, still in ascending id order
+    public List<Item> getItemsBefore(int beforeId, int limit) {
+        long callStart = OP_GET_ITEMS_BEFORE.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_QUANTITY
+                            + ", " + COLUMN_VERSION + " FROM " + TABLE_ITEMS + " WHERE " + COLUMN_ID + " < ?"
+                            + " ORDER BY " + COLUMN_ID + " DESC LIMIT ?",
+                    new String[]{String.valueOf(beforeId), String.valueOf(limit)});
+            List<Item> page = readItems(cursor);
+            rows = page.size();
+            cursor.close();
+            Collections.reverse(page);
+            return page;
+        } finally {
+            OP_GET_ITEMS_BEFORE.end(callStart, rows);
+        }
+    }
+
+    // Number of items ordered before id, i.e. the absolute position of id
+    public int countItemsBefore(int id) {
+        long callStart = OP_COUNT_ITEMS_BEFORE.begin();
+        try {
+            SQLiteDatabase db = this.getReadableDatabase();
+            return (int) DatabaseUtils.queryNumEntries(db, TABLE_ITEMS, COLUMN_ID + " < ?",
+                    new String[]{String.valueOf(id)});
+        } finally {
+            OP_COUNT_ITEMS_BEFORE.end(callStart);
+        }
+    }
+
+    /**
+     * Seeks to the first id after afterId and steps skip rows further, used to re-anchor a page
+     * after a jump (e.g. fast scroll) from the nearest row whose id is known. Only the skipped
+     * rows of the primary key are read.
+     *
+     * @return the id, or -1 when that is past the end
+     */
+    public int getItemIdAfter(int afterId, int skip) {
+        long callStart = OP_GET_ITEM_ID_AFTER.begin();
+        try {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + " FROM " + TABLE_ITEMS + " WHERE " + COLUMN_ID + " > ?"
+                            + " ORDER BY " + COLUMN_ID + " ASC LIMIT 1 OFFSET ?",
+                    new String[]{String.valueOf(afterId), String.valueOf(skip)});
+            int id = cursor.moveToFirst() ? cursor.getInt(0) : -1;
+            cursor.close();
+            return id;
+        } finally {
+            OP_GET_ITEM_ID_AFTER.end(callStart);
+        }
+    }
+
+    // Reads rows selected as (id, name, quantity, version)
+    private List<Item> readItems(Cursor cursor) {
+        List<Item> items = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            Item item = new Item();
+            item.setId(cursor.getInt(0));
+            item.setName(cursor.getString(1));
+            item.setQuantity(cursor.getInt(2));
+            item.setVersion(cursor.getInt(3));
+            items.add(item);
+        }
+        return items;
+    }
 
-        cursor.close();
-        db.close();
-        return itemList;
+    /**
+     * Searches item names through the full-text index. Every word in text is matched as a
+     * prefix and all words must match, e.g. "red bo" finds "Red Box" and "Boots, red".
+     * Closest matches come first: shorter names, which the typed words make up more of,
+     * then older items. Only the first limit rows are read from SQLite.
+     *
+     * @param text  what the user typed
+     * @param limit maximum number of results
+     * @return matching items, empty when text has nothing searchable
+     */
+    public List<Item> getItemsFilteredBy(String text, int limit) {
+        return getItemsFilteredBy(text, limit, null);
     }
-    // Additional CRUD methods (update, delete) can be added here as needed
+
+    // Same as getItemsFilteredBy(text, limit); cancelling the signal aborts the query with OperationCanceledException
+    public List<Item> getItemsFilteredBy(String text, int limit, CancellationSignal cancellationSignal) {
+        long callStart = OP_GET_ITEMS_FILTERED_BY.begin();
+        int scanned = 0;
+        int rows = 0;
+        try {
+            String match = ItemSearchIndex.toMatchQuery(text);
+            if (match == null || limit <= 0) {
+                return new ArrayList<>();
+            }
+            SQLiteDatabase db = this.getReadableDatabase();
+            // SQLite keeps only the first `limit` rows while sorting, so only those reach Java
+            Cursor cursor = db.rawQuery("SELECT i." + COLUMN_ID + ", i." + COLUMN_NAME + ", i." + COLUMN_QUANTITY
+                            + ", i." + COLUMN_VERSION
+                            + " FROM " + ItemSearchIndex.TABLE_FTS
+                            + " JOIN " + TABLE_ITEMS + " i ON i." + COLUMN_ID + " = " + ItemSearchIndex.TABLE_FTS + ".docid"
+                            + " WHERE " + ItemSearchIndex.TABLE_FTS + " MATCH ?"
+                            + " ORDER BY length(i." + COLUMN_NAME + "), i." + COLUMN_ID + " LIMIT ?",
+                    new String[]{match, String.valueOf(limit)}, cancellationSignal);
+            try {
+                List<Item> items = readItems(cursor);
+                scanned = items.size();
+                rows = scanned;
+                return items;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            OP_GET_ITEMS_FILTERED_BY.end(callStart, scanned, rows);
+        }
+    }
+
+    // Every column of Item, in the order getItemById and readCurrentItem read them
+    private static final String[] ITEM_COLUMNS = { COLUMN_ID, COLUMN_NAME, COLUMN_QUANTITY, COLUMN_REORDER_THRESHOLD, COLUMN_VERSION, COLUMN_SKU };
+
+    // Returns the item, or null if there is no item with that id (e.g. it was deleted)
     public Item getItemById(int id) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_ITEMS, new String[] { COLUMN_ID, COLUMN_NAME, COLUMN_QUANTITY }, COLUMN_ID + "=?", new String[]{String.valueOf(id)}, null, null, null, null);
+        long callStart = OP_GET_ITEM_BY_ID.begin();
+        int scanned = 0;
+        int rows = 0;
+        try {
+            Item cached = itemCache.get(id);
+            if (cached != null) {
+                rows = 1;
+                return cached;
+            }
+            long stamp = itemCache.readStamp();
+            Item item = readCurrentItem(this.getReadableDatabase(), id);
+            if (item == null) {
+                return null;
+            }
+            itemCache.putIfUnchanged(item, stamp);
+            scanned = 1;
+            rows = 1;
+            return item;
+        } finally {
+            OP_GET_ITEM_BY_ID.end(callStart, scanned, rows);
+        }
+    }
+
+    // Floors the bound quantity at the units the item holds in locations (see Locations)
+    private static final String FLOORED_QUANTITY = "MAX(?, " + Locations.locatedQuantity(TABLE_ITEMS + "." + COLUMN_ID) + ")";
+
+    /**
+     * Overwrites name and quantity whatever was written in between (last writer wins).
+     * Prefer the expectedVersion overload or updateItemWithRetry, which cannot lose a
+     * concurrent update. The quantity is floored at the units held in locations.
+     */
+    public void updateItem(int id, String name, int quantity) {
+        long callStart = OP_UPDATE_ITEM.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getWritableDatabase();
+            SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_ITEMS + " SET " + COLUMN_NAME + " = ?, "
+                    + COLUMN_QUANTITY + " = " + FLOORED_QUANTITY + " WHERE " + COLUMN_ID + " = ?");
+            int updated;
+            try {
+                if (name == null) {
+                    update.bindNull(1);
+                } else {
+                    update.bindString(1, name);
+                }
+                update.bindLong(2, quantity);
+                update.bindLong(3, id);
+                updated = update.executeUpdateDelete();
+            } finally {
+                update.close();
+            }
+            // The new version is assigned by a trigger, so drop the row rather than guess it
+            itemCache.remove(id);
+            rows = updated;
+            if (updated > 0) {
+                notifyTableChanged(TABLE_ITEMS);
+            }
+        } finally {
+            OP_UPDATE_ITEM.end(callStart, rows);
+        }
+    }
 
-        if (cursor != null)
-            cursor.moveToFirst();
+    /**
+     * Optimistic update: writes name and quantity only if the row is still at
+     * expectedVersion (the version of the Item the new values were based on), and
+     * bumps the version. No lock is held between reading and writing. The quantity is
+     * floored at the units held in locations.
+     *
+     * @return UPDATED with the new version, CONFLICT with the row as it is now, or NOT_FOUND
+     */
+    public UpdateResult updateItem(int id, String name, int quantity, int expectedVersion) {
+        long callStart = OP_UPDATE_ITEM_IF_VERSION.begin();
+        int rows = 0;
+        try {
+            UpdateResult result = writeIfVersion(id, name, quantity, expectedVersion);
+            rows = result.status == UpdateResult.Status.UPDATED ? 1 : 0;
+            return result;
+        } finally {
+            OP_UPDATE_ITEM_IF_VERSION.end(callStart, rows);
+        }
+    }
 
+    // The optimistic updateItem without its metric, for callers that time the whole call themselves
+    private UpdateResult writeIfVersion(int id, String name, int quantity, int expectedVersion) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_ITEMS + " SET " + COLUMN_NAME + " = ?, "
+                + COLUMN_QUANTITY + " = " + FLOORED_QUANTITY + ", " + COLUMN_VERSION + " = " + COLUMN_VERSION + " + 1"
+                + " WHERE " + COLUMN_ID + " = ? AND " + COLUMN_VERSION + " = ?");
+        int updated;
+        try {
+            if (name == null) {
+                update.bindNull(1);
+            } else {
+                update.bindString(1, name);
+            }
+            update.bindLong(2, quantity);
+            update.bindLong(3, id);
+            update.bindLong(4, expectedVersion);
+            updated = update.executeUpdateDelete();
+        } finally {
+            update.close();
+        }
+        itemCache.remove(id);
+        if (updated > 0) {
+            notifyTableChanged(TABLE_ITEMS);
+            return UpdateResult.updated(expectedVersion + 1);
+        }
+        Item current = readCurrentItem(db, id);
+        return current == null ? UpdateResult.notFound() : UpdateResult.conflict(current);
+    }
+
+    // Computes the values to write from the row as it currently is, or null to give up with CONFLICT
+    public interface ItemMerger {
+        Item merge(Item current);
+    }
+
+    // Outcome of an optimistic update
+    public static final class UpdateResult {
+        public enum Status { UPDATED, CONFLICT, NOT_FOUND }
+
+        public final Status status;
+        // The row's version now: after the write, or that of the winning row on CONFLICT
+        public final int newVersion;
+        // The row that won, read after the failed write; only set on CONFLICT
+        public final Item current;
+
+        private UpdateResult(Status status, int newVersion, Item current) {
+            this.status = status;
+            this.newVersion = newVersion;
+            this.current = current;
+        }
+
+        static UpdateResult updated(int newVersion) {
+            return new UpdateResult(Status.UPDATED, newVersion, null);
+        }
+
+        static UpdateResult conflict(Item current) {
+            return new UpdateResult(Status.CONFLICT, current.getVersion(), current);
+        }
+
+        static UpdateResult notFound() {
+            return new UpdateResult(Status.NOT_FOUND, -1, null);
+        }
+    }
+
+    /**
+     * Read-merge-write loop on top of the optimistic updateItem: on a conflict the merger
+     * runs again on the row that won, so its change is applied on top instead of lost.
+     * The merger may run several times and must not have side effects. It returns null
+     * when the change cannot be merged into the current row, which ends in CONFLICT.
+     *
+     * @param maxAttempts how many conflicts to tolerate before giving up with CONFLICT
+     */
+    public UpdateResult updateItemWithRetry(int id, ItemMerger merger, int maxAttempts) {
+        long callStart = OP_UPDATE_ITEM_WITH_RETRY.begin();
+        int rows = 0;
+        try {
+            Item current = readCurrentItem(getReadableDatabase(), id);
+            UpdateResult result = current == null ? UpdateResult.notFound() : UpdateResult.conflict(current);
+            for (int attempt = 0; attempt < maxAttempts && result.status == UpdateResult.Status.CONFLICT; attempt++) {
+                current = result.current;
+                Item wanted = merger.merge(copyOf(current));
+                if (wanted == null) {
+                    return UpdateResult.conflict(current);
+                }
+                result = writeIfVersion(id, wanted.getName(), wanted.getQuantity(), current.getVersion());
+            }
+            rows = result.status == UpdateResult.Status.UPDATED ? 1 : 0;
+            return result;
+        } finally {
+            OP_UPDATE_ITEM_WITH_RETRY.end(callStart, rows);
+        }
+    }
+
+    // Straight from the database, bypassing the cache; null if the row does not exist
+    private Item readCurrentItem(SQLiteDatabase db, int id) {
+        Cursor cursor = db.query(TABLE_ITEMS, ITEM_COLUMNS, COLUMN_ID + "=?", new String[]{String.valueOf(id)}, null, null, null, null);
+        try {
+            return cursor.moveToFirst() ? readItem(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The cursor's current row, which must have ITEM_COLUMNS in that order
+    private static Item readItem(Cursor cursor) {
         Item item = new Item();
         item.setId(cursor.getInt(0));
         item.setName(cursor.getString(1));
         item.setQuantity(cursor.getInt(2));
-        cursor.close();
-
+        item.setReorderThreshold(cursor.getInt(3));
+        item.setVersion(cursor.getInt(4));
+        item.setSku(cursor.getString(5));
         return item;
     }
 
-    public void updateItem(int id, String name, int quantity) {
+    private static Item copyOf(Item item) {
+        Item copy = new Item();
+        copy.setId(item.getId());
+        copy.setName(item.getName());
+        copy.setQuantity(item.getQuantity());
+        copy.setReorderThreshold(item.getReorderThreshold());
+        copy.setVersion(item.getVersion());
+        copy.setSku(item.getSku());
+        return copy;
+    }
+
+    // Renames an item without touching its quantity (quantity changes go through adjustQuantity)
+    public void updateItemName(int id, String name) {
+        long callStart = OP_UPDATE_ITEM_NAME.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_NAME, name);
+            int updated = db.update(TABLE_ITEMS, values, COLUMN_ID + " = ?", new String[] { String.valueOf(id) });
+            // Only the name is known here, so drop the row rather than guess its quantity
+            itemCache.remove(id);
+            rows = updated;
+            if (updated > 0) {
+                notifyTableChanged(TABLE_ITEMS);
+            }
+        } finally {
+            OP_UPDATE_ITEM_NAME.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Atomically adds delta to an item's quantity in SQL (quantity = quantity + delta),
+     * so concurrent adjustments from several screens or devices never overwrite each
+     * other. The result is floored at the units held in locations (zero for an item in
+     * none), so a decrement only takes unassigned units.
+     *
+     * @return the new quantity, or -1 if the item does not exist
+     */
+    public int adjustQuantity(int id, int delta) {
+        long callStart = OP_ADJUST_QUANTITY.begin();
+        int rows = 0;
+        try {
+            SparseIntArray deltas = new SparseIntArray(1);
+            deltas.put(id, delta);
+            SparseIntArray quantities = commitQuantityDeltas(deltas);
+            rows = quantities.size();
+            return quantities.get(id, -1);
+        } finally {
+            OP_ADJUST_QUANTITY.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Applies several quantity deltas (item id -> delta) in one transaction, as
+     * adjustQuantity does for one.
+     *
+     * @return item id -> new quantity for the items that exist
+     */
+    public SparseIntArray adjustQuantities(SparseIntArray deltas) {
+        long callStart = OP_ADJUST_QUANTITIES.begin();
+        int rows = 0;
+        try {
+            SparseIntArray quantities = commitQuantityDeltas(deltas);
+            rows = quantities.size();
+            return quantities;
+        } finally {
+            OP_ADJUST_QUANTITIES.end(callStart, rows);
+        }
+    }
+
+    // adjustQuantities without its metric, so adjustQuantity records one sample per call
+    private SparseIntArray commitQuantityDeltas(SparseIntArray deltas) {
         SQLiteDatabase db = this.getWritableDatabase();
+        SparseIntArray quantities;
+        db.beginTransactionNonExclusive();
+        try {
+            quantities = applyQuantityDeltas(db, deltas);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Invalidate rather than patch cached rows: another adjustment may already have committed after ours
+        for (int i = 0; i < deltas.size(); i++) {
+            itemCache.remove(deltas.keyAt(i));
+        }
+        if (quantities.size() > 0) {
+            notifyTableChanged(TABLE_ITEMS);
+        }
+        return quantities;
+    }
+
+    // Adds each delta (item id -> delta) to its item, floored at its located units; the caller holds the transaction
+    private static SparseIntArray applyQuantityDeltas(SQLiteDatabase db, SparseIntArray deltas) {
+        SparseIntArray quantities = new SparseIntArray(deltas.size());
+        SQLiteStatement adjust = db.compileStatement("UPDATE " + TABLE_ITEMS + " SET " + COLUMN_QUANTITY
+                + " = MAX(" + COLUMN_QUANTITY + " + ?, " + Locations.locatedQuantity(TABLE_ITEMS + "." + COLUMN_ID)
+                + ") WHERE " + COLUMN_ID + " = ?");
+        SQLiteStatement read = db.compileStatement("SELECT " + COLUMN_QUANTITY + " FROM " + TABLE_ITEMS
+                + " WHERE " + COLUMN_ID + " = ?");
+        try {
+            for (int i = 0; i < deltas.size(); i++) {
+                int id = deltas.keyAt(i);
+                adjust.bindLong(1, deltas.valueAt(i));
+                adjust.bindLong(2, id);
+                if (adjust.executeUpdateDelete() == 0) {
+                    continue;
+                }
+                read.bindLong(1, id);
+                quantities.put(id, (int) read.simpleQueryForLong());
+            }
+        } finally {
+            adjust.close();
+            read.close();
+        }
+        return quantities;
+    }
+
+    // Sets the quantity below which an item counts as low stock (0 turns it off)
+    public void setReorderThreshold(int id, int threshold) {
+        long callStart = OP_SET_REORDER_THRESHOLD.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_REORDER_THRESHOLD, Math.max(0, threshold));
+            int updated = db.update(TABLE_ITEMS, values, COLUMN_ID + " = ?", new String[] { String.valueOf(id) });
+            itemCache.remove(id);
+            rows = updated;
+            if (updated > 0) {
+                notifyTableChanged(TABLE_ITEMS);
+            }
+        } finally {
+            OP_SET_REORDER_THRESHOLD.end(callStart, rows);
+        }
+    }
+
+    // Barcodes are compared as scanned, minus surrounding whitespace; blank means no SKU
+    static String normalizeSku(String sku) {
+        if (sku == null) {
+            return null;
+        }
+        sku = sku.trim();
+        return sku.isEmpty() ? null : sku;
+    }
+
+    /**
+     * Sets an item's SKU (barcode); null or blank removes it.
+     *
+     * @return false if the item does not exist or another item already has that SKU,
+     *         in which case nothing was changed
+     */
+    public boolean setSku(int id, String sku) {
+        long callStart = OP_SET_SKU.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_SKU, normalizeSku(sku));
+            try {
+                rows = db.update(TABLE_ITEMS, values, COLUMN_ID + " = ?", new String[] { String.valueOf(id) });
+            } catch (SQLiteConstraintException e) {
+                return false;
+            }
+            itemCache.remove(id);
+            if (rows > 0) {
+                notifyTableChanged(TABLE_ITEMS);
+            }
+            return rows > 0;
+        } finally {
+            OP_SET_SKU.end(callStart, rows);
+        }
+    }
+
+    // The item with this SKU, or null; one probe of the unique SKU index
+    public Item getItemBySku(String sku) {
+        long callStart = OP_GET_ITEM_BY_SKU.begin();
+        int rows = 0;
+        try {
+            sku = normalizeSku(sku);
+            if (sku == null) {
+                return null;
+            }
+            long stamp = itemCache.readStamp();
+            Cursor cursor = this.getReadableDatabase().query(TABLE_ITEMS, ITEM_COLUMNS, COLUMN_SKU + " = ?",
+                    new String[] { sku }, null, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return null;
+                }
+                Item item = readItem(cursor);
+                itemCache.putIfUnchanged(item, stamp);
+                rows = 1;
+                return item;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            OP_GET_ITEM_BY_SKU.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Resolves a batch of scanned SKUs with one query (one per MAX_SQL_VARIABLES SKUs)
+     * instead of a round trip each. Duplicates and blanks are ignored.
+     *
+     * @return SKU (trimmed) -> item, for the SKUs that belong to an item
+     */
+    public Map<String, Item> getItemsBySkus(Collection<String> skus) {
+        long callStart = OP_GET_ITEMS_BY_SKUS.begin();
+        int rows = 0;
+        try {
+            Map<String, Item> items = new HashMap<>();
+            SQLiteDatabase db = this.getReadableDatabase();
+            long stamp = itemCache.readStamp();
+            for (String[] chunk : skuChunks(skus)) {
+                Cursor cursor = db.query(TABLE_ITEMS, ITEM_COLUMNS, COLUMN_SKU + " IN (" + placeholders(chunk.length) + ")",
+                        chunk, null, null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        Item item = readItem(cursor);
+                        items.put(item.getSku(), item);
+                        itemCache.putIfUnchanged(item, stamp);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            rows = items.size();
+            return items;
+        } finally {
+            OP_GET_ITEMS_BY_SKUS.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Adds each delta (SKU -> delta) to the item with that SKU, floored as adjustQuantity is, in one
+     * transaction: the SKUs are resolved with getItemsBySkus' batched query and the
+     * deltas applied as adjustQuantities does. Used by ScanSession.
+     *
+     * @return SKU (trimmed) -> new quantity, for the SKUs that belong to an item
+     */
+    public Map<String, Integer> adjustQuantitiesBySku(Map<String, Integer> deltas) {
+        long callStart = OP_ADJUST_QUANTITIES_BY_SKU.begin();
+        int rows = 0;
+        try {
+            Map<String, Integer> quantities = new HashMap<>();
+            SQLiteDatabase db = this.getWritableDatabase();
+            SparseIntArray idDeltas = new SparseIntArray(deltas.size());
+            Map<String, Integer> ids = new HashMap<>();
+            db.beginTransactionNonExclusive();
+            try {
+                for (String[] chunk : skuChunks(deltas.keySet())) {
+                    Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_SKU + " FROM " + TABLE_ITEMS
+                            + " WHERE " + COLUMN_SKU + " IN (" + placeholders(chunk.length) + ")", chunk);
+                    try {
+                        while (cursor.moveToNext()) {
+                            ids.put(cursor.getString(1), cursor.getInt(0));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+                for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                    Integer id = ids.get(normalizeSku(delta.getKey()));
+                    if (id != null) {
+                        // Raw and trimmed spellings of one SKU add up
+                        idDeltas.put(id, idDeltas.get(id) + delta.getValue());
+                    }
+                }
+                SparseIntArray byId = applyQuantityDeltas(db, idDeltas);
+                for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                    int index = byId.indexOfKey(entry.getValue());
+                    if (index >= 0) {
+                        quantities.put(entry.getKey(), byId.valueAt(index));
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            for (int i = 0; i < idDeltas.size(); i++) {
+                itemCache.remove(idDeltas.keyAt(i));
+            }
+            rows = quantities.size();
+            if (rows > 0) {
+                notifyTableChanged(TABLE_ITEMS);
+            }
+            return quantities;
+        } finally {
+            OP_ADJUST_QUANTITIES_BY_SKU.end(callStart, rows);
+        }
+    }
+
+    // Distinct non-blank SKUs, trimmed, in arrays of at most MAX_SQL_VARIABLES for IN (...) lists
+    private static List<String[]> skuChunks(Collection<String> skus) {
+        Set<String> distinct = new LinkedHashSet<>();
+        for (String sku : skus) {
+            sku = normalizeSku(sku);
+            if (sku != null) {
+                distinct.add(sku);
+            }
+        }
+        List<String[]> chunks = new ArrayList<>();
+        String[] chunk = null;
+        int filled = 0;
+        int remaining = distinct.size();
+        for (String sku : distinct) {
+            if (chunk == null) {
+                chunk = new String[Math.min(remaining, MAX_SQL_VARIABLES)];
+                filled = 0;
+            }
+            chunk[filled++] = sku;
+            remaining--;
+            if (filled == chunk.length) {
+                chunks.add(chunk);
+                chunk = null;
+            }
+        }
+        return chunks;
+    }
+
+    // "?,?,...,?" with count placeholders
+    private static String placeholders(int count) {
+        StringBuilder sql = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append('?');
+        }
+        return sql.toString();
+    }
+
+    // Adds a site (parentId Locations.NO_PARENT) or a bin in one; returns its id, or -1 if the name is taken there
+    public long addLocation(String name, int parentId) {
+        long callStart = OP_ADD_LOCATION.begin();
+        int rows = 0;
+        try {
+            ContentValues values = new ContentValues();
+            values.put(Locations.COLUMN_LOCATION_NAME, name);
+            values.put(Locations.COLUMN_PARENT_ID, parentId);
+            long id = this.getWritableDatabase().insert(Locations.TABLE_LOCATIONS, null, values);
+            if (id != -1) {
+                rows = 1;
+                notifyTableChanged(Locations.TABLE_LOCATIONS);
+            }
+            return id;
+        } finally {
+            OP_ADD_LOCATION.end(callStart, rows);
+        }
+    }
+
+    // Every site and bin, each site's bins right after it in name order
+    public List<Locations.Location> getLocations() {
+        long callStart = OP_GET_LOCATIONS.begin();
+        int rows = 0;
+        try {
+            Cursor cursor = this.getReadableDatabase().rawQuery("SELECT " + Locations.COLUMN_LOCATION_ID + ", "
+                    + Locations.COLUMN_LOCATION_NAME + ", " + Locations.COLUMN_PARENT_ID + " FROM " + Locations.TABLE_LOCATIONS
+                    + " ORDER BY CASE " + Locations.COLUMN_PARENT_ID + " WHEN " + Locations.NO_PARENT + " THEN "
+                    + Locations.COLUMN_LOCATION_ID + " ELSE " + Locations.COLUMN_PARENT_ID + " END, "
+                    + Locations.COLUMN_PARENT_ID + " != " + Locations.NO_PARENT + ", " + Locations.COLUMN_LOCATION_NAME, null);
+            try {
+                List<Locations.Location> locations = new ArrayList<>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    locations.add(new Locations.Location(cursor.getInt(0), cursor.getString(1), cursor.getInt(2)));
+                }
+                rows = locations.size();
+                return locations;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            OP_GET_LOCATIONS.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Adds delta units of an item at a location (receiving, picking, a count correction)
+     * and to the item's total, in one transaction. Stock at the location is floored at
+     * zero, and the total only moves by the units that were really added or taken there.
+     *
+     * @return the units now at the location, or -1 if the item or the location does not exist
+     */
+    public int adjustStock(int locationId, int itemId, int delta) {
+        long callStart = OP_ADJUST_STOCK.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getWritableDatabase();
+            int current;
+            int updated;
+            db.beginTransactionNonExclusive();
+            try {
+                if (!locationExists(db, locationId) || !itemExists(db, itemId)) {
+                    return -1;
+                }
+                current = readStock(db, locationId, itemId);
+                updated = Math.max(0, current + delta);
+                writeStock(db, locationId, itemId, updated);
+                if (updated != current) {
+                    db.execSQL("UPDATE " + TABLE_ITEMS + " SET " + COLUMN_QUANTITY + " = MAX(0, " + COLUMN_QUANTITY
+                            + " + ?) WHERE " + COLUMN_ID + " = ?", new Object[]{updated - current, itemId});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            rows = 1;
+            if (updated != current) {
+                itemCache.remove(itemId);
+                notifyTableChanged(Locations.TABLE_STOCK);
+                notifyTableChanged(TABLE_ITEMS);
+            }
+            return updated;
+        } finally {
+            OP_ADJUST_STOCK.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Moves quantity units of an item between two locations in one transaction, so the
+     * units are never in both places or in neither. Either side may be
+     * Locations.UNASSIGNED (units in no location). The item's total does not change.
+     *
+     * @return false, having changed nothing, if the source holds fewer than quantity
+     *         units or the item or a location does not exist
+     */
+    public boolean transferStock(int itemId, int fromLocationId, int toLocationId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("quantity must be positive");
+        }
+        if (fromLocationId == toLocationId) {
+            throw new IllegalArgumentException("source and destination are the same location");
+        }
+        long callStart = OP_TRANSFER_STOCK.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getWritableDatabase();
+            db.beginTransactionNonExclusive();
+            try {
+                if (!itemExists(db, itemId)
+                        || (fromLocationId != Locations.UNASSIGNED && !locationExists(db, fromLocationId))
+                        || (toLocationId != Locations.UNASSIGNED && !locationExists(db, toLocationId))) {
+                    return false;
+                }
+                int available = fromLocationId == Locations.UNASSIGNED
+                        ? readUnassigned(db, itemId) : readStock(db, fromLocationId, itemId);
+                if (available < quantity) {
+                    return false;
+                }
+                if (fromLocationId != Locations.UNASSIGNED) {
+                    writeStock(db, fromLocationId, itemId, available - quantity);
+                }
+                if (toLocationId != Locations.UNASSIGNED) {
+                    writeStock(db, toLocationId, itemId, readStock(db, toLocationId, itemId) + quantity);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            rows = 1;
+            notifyTableChanged(Locations.TABLE_STOCK);
+            return true;
+        } finally {
+            OP_TRANSFER_STOCK.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Where an item is: location id -> units there, with Locations.UNASSIGNED for units in
+     * no location, so the values add up to the item's quantity (no writer lets the total
+     * drop below what locations hold). Empty if the item does not exist.
+     */
+    public SparseIntArray getItemStock(int itemId) {
+        long callStart = OP_GET_ITEM_STOCK.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getReadableDatabase();
+            SparseIntArray stock = new SparseIntArray();
+            Cursor cursor = db.rawQuery("SELECT " + Locations.COLUMN_STOCK_LOCATION + ", " + Locations.COLUMN_STOCK_QUANTITY
+                            + " FROM " + Locations.TABLE_STOCK + " WHERE " + Locations.COLUMN_STOCK_ITEM + " = ?",
+                    new String[]{String.valueOf(itemId)});
+            try {
+                while (cursor.moveToNext()) {
+                    stock.put(cursor.getInt(0), cursor.getInt(1));
+                }
+            } finally {
+                cursor.close();
+            }
+            int unassigned = readUnassigned(db, itemId);
+            if (unassigned > 0) {
+                stock.put(Locations.UNASSIGNED, unassigned);
+            }
+            rows = stock.size();
+            return stock;
+        } finally {
+            OP_GET_ITEM_STOCK.end(callStart, rows);
+        }
+    }
+
+    // Items held and units on hand per location, for every location that holds something
+    public List<Locations.Totals> getLocationTotals() {
+        long callStart = OP_GET_LOCATION_TOTALS.begin();
+        int rows = 0;
+        try {
+            // Grouped in primary key order, so this is one pass over stock with no sort
+            Cursor cursor = this.getReadableDatabase().rawQuery("SELECT " + Locations.COLUMN_STOCK_LOCATION
+                    + ", COUNT(*), SUM(" + Locations.COLUMN_STOCK_QUANTITY + ") FROM " + Locations.TABLE_STOCK
+                    + " GROUP BY " + Locations.COLUMN_STOCK_LOCATION, null);
+            try {
+                List<Locations.Totals> totals = new ArrayList<>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    totals.add(new Locations.Totals(cursor.getInt(0), cursor.getInt(1), cursor.getLong(2)));
+                }
+                rows = totals.size();
+                return totals;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            OP_GET_LOCATION_TOTALS.end(callStart, rows);
+        }
+    }
+
+    // Location-scoped keyset pagination: as getItemCount(), getItemsAfter() and friends, over
+    // the items held at one location, with Item quantity the units there. Each reads one
+    // range of the stock primary key, so other locations' rows are never touched.
+
+    public int getStockCount(int locationId) {
+        long callStart = OP_GET_STOCK_COUNT.begin();
+        try {
+            return (int) DatabaseUtils.queryNumEntries(this.getReadableDatabase(), Locations.TABLE_STOCK,
+                    Locations.COLUMN_STOCK_LOCATION + " = ?", new String[]{String.valueOf(locationId)});
+        } finally {
+            OP_GET_STOCK_COUNT.end(callStart);
+        }
+    }
+
+    public List<Item> getStockAfter(int locationId, int afterItemId, int limit) {
+        long callStart = OP_GET_STOCK_AFTER.begin();
+        int rows = 0;
+        try {
+            Cursor cursor = this.getReadableDatabase().rawQuery(STOCK_PAGE + " AND s." + Locations.COLUMN_STOCK_ITEM
+                            + " > ? ORDER BY s." + Locations.COLUMN_STOCK_ITEM + " ASC LIMIT ?",
+                    new String[]{String.valueOf(locationId), String.valueOf(afterItemId), String.valueOf(limit)});
+            List<Item> page = readItems(cursor);
+            rows = page.size();
+            cursor.close();
+            return page;
+        } finally {
+            OP_GET_STOCK_AFTER.end(callStart, rows);
+        }
+    }
+
+    public List<Item> getStockBefore(int locationId, int beforeItemId, int limit) {
+        long callStart = OP_GET_STOCK_BEFORE.begin();
+        int rows = 0;
+        try {
+            Cursor cursor = this.getReadableDatabase().rawQuery(STOCK_PAGE + " AND s." + Locations.COLUMN_STOCK_ITEM
+                            + " < ? ORDER BY s." + Locations.COLUMN_STOCK_ITEM + " DESC LIMIT ?",
+                    new String[]{String.valueOf(locationId), String.valueOf(beforeItemId), String.valueOf(limit)});
+            List<Item> page = readItems(cursor);
+            rows = page.size();
+            cursor.close();
+            Collections.reverse(page);
+            return page;
+        } finally {
+            OP_GET_STOCK_BEFORE.end(callStart, rows);
+        }
+    }
+
+    public int countStockBefore(int locationId, int itemId) {
+        long callStart = OP_COUNT_STOCK_BEFORE.begin();
+        try {
+            return (int) DatabaseUtils.queryNumEntries(this.getReadableDatabase(), Locations.TABLE_STOCK,
+                    Locations.COLUMN_STOCK_LOCATION + " = ? AND " + Locations.COLUMN_STOCK_ITEM + " < ?",
+                    new String[]{String.valueOf(locationId), String.valueOf(itemId)});
+        } finally {
+            OP_COUNT_STOCK_BEFORE.end(callStart);
+        }
+    }
+
+    // getItemIdAfter within one location's stock, or -1 past the end
+    public int getStockItemIdAfter(int locationId, int afterItemId, int skip) {
+        long callStart = OP_GET_STOCK_ITEM_ID_AFTER.begin();
+        try {
+            Cursor cursor = this.getReadableDatabase().rawQuery("SELECT " + Locations.COLUMN_STOCK_ITEM + " FROM "
+                            + Locations.TABLE_STOCK + " WHERE " + Locations.COLUMN_STOCK_LOCATION + " = ?"
+                            + " AND " + Locations.COLUMN_STOCK_ITEM + " > ?"
+                            + " ORDER BY " + Locations.COLUMN_STOCK_ITEM + " ASC LIMIT 1 OFFSET ?",
+                    new String[]{String.valueOf(locationId), String.valueOf(afterItemId), String.valueOf(skip)});
+            int id = cursor.moveToFirst() ? cursor.getInt(0) : -1;
+            cursor.close();
+            return id;
+        } finally {
+            OP_GET_STOCK_ITEM_ID_AFTER.end(callStart);
+        }
+    }
+
+    // One location's rows as (id, name, quantity, version) for readItems; binds location_id first
+    private static final String STOCK_PAGE = "SELECT s." + Locations.COLUMN_STOCK_ITEM + ", i." + COLUMN_NAME
+            + ", s." + Locations.COLUMN_STOCK_QUANTITY + ", i." + COLUMN_VERSION + " FROM " + Locations.TABLE_STOCK
+            + " s JOIN " + TABLE_ITEMS + " i ON i." + COLUMN_ID + " = s." + Locations.COLUMN_STOCK_ITEM
+            + " WHERE s." + Locations.COLUMN_STOCK_LOCATION + " = ?";
+
+    private static boolean itemExists(SQLiteDatabase db, int itemId) {
+        return DatabaseUtils.queryNumEntries(db, TABLE_ITEMS, COLUMN_ID + " = ?",
+                new String[]{String.valueOf(itemId)}) > 0;
+    }
+
+    private static boolean locationExists(SQLiteDatabase db, int locationId) {
+        return DatabaseUtils.queryNumEntries(db, Locations.TABLE_LOCATIONS, Locations.COLUMN_LOCATION_ID + " = ?",
+                new String[]{String.valueOf(locationId)}) > 0;
+    }
+
+    // Units of an item at a location, 0 if it has none there
+    private static int readStock(SQLiteDatabase db, int locationId, int itemId) {
+        return (int) DatabaseUtils.longForQuery(db, "SELECT IFNULL((SELECT " + Locations.COLUMN_STOCK_QUANTITY
+                        + " FROM " + Locations.TABLE_STOCK + " WHERE " + Locations.COLUMN_STOCK_LOCATION + " = ? AND "
+                        + Locations.COLUMN_STOCK_ITEM + " = ?), 0)",
+                new String[]{String.valueOf(locationId), String.valueOf(itemId)});
+    }
+
+    // Units of an item held in no location: its total minus what locations hold, which every writer keeps >= 0
+    private static int readUnassigned(SQLiteDatabase db, int itemId) {
+        return (int) DatabaseUtils.longForQuery(db, "SELECT IFNULL((SELECT " + COLUMN_QUANTITY + " FROM "
+                        + TABLE_ITEMS + " WHERE " + COLUMN_ID + " = ?1), 0) - " + Locations.locatedQuantity("?1"),
+                new String[]{String.valueOf(itemId)});
+    }
+
+    // Sets the units of an item at a location; a location holding none has no row
+    private static void writeStock(SQLiteDatabase db, int locationId, int itemId, int quantity) {
+        String where = Locations.COLUMN_STOCK_LOCATION + " = ? AND " + Locations.COLUMN_STOCK_ITEM + " = ?";
+        String[] args = {String.valueOf(locationId), String.valueOf(itemId)};
+        if (quantity <= 0) {
+            db.delete(Locations.TABLE_STOCK, where, args);
+            return;
+        }
         ContentValues values = new ContentValues();
-        values.put(COLUMN_NAME, name);
-        values.put(COLUMN_QUANTITY, quantity);
+        values.put(Locations.COLUMN_STOCK_QUANTITY, quantity);
+        if (db.update(Locations.TABLE_STOCK, values, where, args) == 0) {
+            values.put(Locations.COLUMN_STOCK_LOCATION, locationId);
+            values.put(Locations.COLUMN_STOCK_ITEM, itemId);
+            db.insertOrThrow(Locations.TABLE_STOCK, null, values);
+        }
+    }
 
-        db.update(TABLE_ITEMS, values, COLUMN_ID + " = ?", new String[] { String.valueOf(id) });
-        db.close();
+    // Item count, units on hand and low-stock count, read from the trigger-maintained row in O(1)
+    public InventoryStats.Totals getInventoryTotals() {
+        long callStart = OP_GET_INVENTORY_TOTALS.begin();
+        try {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT " + InventoryStats.COLUMN_ITEM_COUNT + ", "
+                    + InventoryStats.COLUMN_TOTAL_QUANTITY + ", " + InventoryStats.COLUMN_LOW_STOCK_COUNT
+                    + " FROM " + InventoryStats.TABLE_STATS + " WHERE id = 1", null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return new InventoryStats.Totals(0, 0, 0);
+                }
+                return new InventoryStats.Totals(cursor.getInt(0), cursor.getLong(1), cursor.getInt(2));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            OP_GET_INVENTORY_TOTALS.end(callStart);
+        }
+    }
+
+    /**
+     * Returns up to limit items with quantity below their reorder threshold and id > afterId,
+     * in id order. Only the partial low-stock index is read, so the cost follows the number
+     * of low-stock items rather than the catalogue size.
+     */
+    public List<Item> getLowStockItems(int afterId, int limit) {
+        long callStart = OP_GET_LOW_STOCK_ITEMS.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_QUANTITY
+                            + ", " + COLUMN_REORDER_THRESHOLD + " FROM " + TABLE_ITEMS
+                            + " WHERE " + InventoryStats.LOW_STOCK + " AND " + COLUMN_ID + " > ?"
+                            + " ORDER BY " + COLUMN_ID + " LIMIT ?",
+                    new String[]{String.valueOf(afterId), String.valueOf(limit)});
+            try {
+                List<Item> items = new ArrayList<>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    Item item = new Item();
+                    item.setId(cursor.getInt(0));
+                    item.setName(cursor.getString(1));
+                    item.setQuantity(cursor.getInt(2));
+                    item.setReorderThreshold(cursor.getInt(3));
+                    items.add(item);
+                }
+                rows = items.size();
+                return items;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            OP_GET_LOW_STOCK_ITEMS.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Reads the whole catalogue into a columnar InventorySnapshot, for sorting, filtering
+     * and totals in memory without an Item per row. Runs a full table scan, so call it off
+     * the main thread.
+     */
+    public InventorySnapshot getInventorySnapshot() {
+        long callStart = OP_GET_INVENTORY_SNAPSHOT.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_QUANTITY
+                    + ", " + COLUMN_REORDER_THRESHOLD + " FROM " + TABLE_ITEMS + " ORDER BY " + COLUMN_ID, null);
+            try {
+                InventorySnapshot snapshot = InventorySnapshot.read(cursor);
+                rows = snapshot.size();
+                return snapshot;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            OP_GET_INVENTORY_SNAPSHOT.end(callStart, rows);
+        }
+    }
+
+    // Stock movement history, see StockJournal
+
+    /**
+     * Folds the movements journaled since the last rollup into the hourly and daily
+     * rollups and compacts raw movements older than StockJournal.RAW_RETENTION_SECONDS.
+     * Runs on its own in the background every ROLLUP_EVERY_WRITES item writes.
+     *
+     * @return the number of movements rolled up
+     */
+    public int rollUpMovements() {
+        long callStart = OP_ROLL_UP_MOVEMENTS.begin();
+        int rows = 0;
+        try {
+            rows = StockJournal.rollUp(getWritableDatabase(), System.currentTimeMillis() / 1000,
+                    StockJournal.RAW_RETENTION_SECONDS);
+            return rows;
+        } finally {
+            OP_ROLL_UP_MOVEMENTS.end(callStart, rows);
+        }
+    }
+
+    /**
+     * Units moved in and out of one item (StockJournal.ALL_ITEMS for the whole catalogue)
+     * per hour or day (StockJournal.HOUR or DAY), for the UTC buckets overlapping
+     * [fromSeconds, toSeconds), oldest first; buckets without movements are left out.
+     * Reads one key range of the rollups, so 90 days is at most 90 daily rows however
+     * many movements they hold, plus the movements not rolled up yet; it never writes.
+     * Hourly rollups only go back HOURLY_RETENTION_SECONDS.
+     */
+    public List<StockJournal.Bucket> getMovementHistory(int itemId, int resolution, long fromSeconds, long toSeconds) {
+        if (resolution != StockJournal.HOUR && resolution != StockJournal.DAY) {
+            throw new IllegalArgumentException("Unsupported resolution " + resolution);
+        }
+        long callStart = OP_GET_MOVEMENT_HISTORY.begin();
+        int rows = 0;
+        try {
+            List<StockJournal.Bucket> buckets = StockJournal.readBuckets(getReadableDatabase(), itemId, resolution,
+                    fromSeconds, toSeconds);
+            rows = buckets.size();
+            return buckets;
+        } finally {
+            OP_GET_MOVEMENT_HISTORY.end(callStart, rows);
+        }
+    }
+
+    // Rolls the journal up in the background once enough item writes have piled up
+    private void maybeScheduleRollup() {
+        if (writesSinceRollup.incrementAndGet() < ROLLUP_EVERY_WRITES) {
+            return;
+        }
+        writesSinceRollup.set(0);
+        // If the pool is busy this is skipped; the next batch of writes rolls these up too, and reads
+        // merge whatever is not rolled up yet
+        DatabaseExecutor.execute(this::rollUpMovements);
     }
 
     // Method to delete an item
     public void deleteItem(int id) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_ITEMS, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
-        db.close();
+        long callStart = OP_DELETE_ITEM.begin();
+        int rows = 0;
+        try {
+            SQLiteDatabase db = this.getWritableDatabase();
+            int deleted = db.delete(TABLE_ITEMS, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+            itemCache.remove(id);
+            rows = deleted;
+            if (deleted > 0) {
+                notifyTableChanged(TABLE_ITEMS);
+            }
+        } finally {
+            OP_DELETE_ITEM.end(callStart, rows);
+        }
     }
 
+    // Sync support, see SyncEngine and ChangeLog
+
+    public String getSyncClientId() {
+        long callStart = OP_GET_SYNC_CLIENT_ID.begin();
+        try {
+            return ChangeLog.readClientId(getReadableDatabase());
+        } finally {
+            OP_GET_SYNC_CLIENT_ID.end(callStart);
+        }
+    }
+
+    public String getSyncToken() {
+        long callStart = OP_GET_SYNC_TOKEN.begin();
+        try {
+            return ChangeLog.readSyncToken(getReadableDatabase());
+        } finally {
+            OP_GET_SYNC_TOKEN.end(callStart);
+        }
+    }
+
+    public int getPendingChangeCount() {
+        long callStart = OP_GET_PENDING_CHANGE_COUNT.begin();
+        try {
+            return ChangeLog.countPending(getReadableDatabase());
+        } finally {
+            OP_GET_PENDING_CHANGE_COUNT.end(callStart);
+        }
+    }
+
+    // Oldest unacknowledged local changes, at most limit
+    public List<SyncApi.Change> getPendingChanges(int limit) {
+        long callStart = OP_GET_PENDING_CHANGES.begin();
+        int rows = 0;
+        try {
+            List<SyncApi.Change> changes = ChangeLog.readPending(getReadableDatabase(), limit);
+            rows = changes.size();
+            return changes;
+        } finally {
+            OP_GET_PENDING_CHANGES.end(callStart, rows);
+        }
+    }
+
+    // The server stored every change up to and including seq
+    public void acknowledgeChanges(long seq) {
+        long callStart = OP_ACKNOWLEDGE_CHANGES.begin();
+        try {
+            ChangeLog.acknowledge(getWritableDatabase(), seq);
+        } finally {
+            OP_ACKNOWLEDGE_CHANGES.end(callStart);
+        }
+    }
+
+    // Merges one page of server deltas into items and stores the token to resume from
+    public void applyRemoteChanges(List<SyncApi.RemoteItem> items, String token) {
+        long callStart = OP_APPLY_REMOTE_CHANGES.begin();
+        int rows = 0;
+        try {
+            List<Integer> touched = ChangeLog.applyRemote(getWritableDatabase(), items, token);
+            rows = touched.size();
+            for (int id : touched) {
+                itemCache.remove(id);
+            }
+            if (!touched.isEmpty()) {
+                notifyTableChanged(TABLE_ITEMS);
+            }
+        } finally {
+            OP_APPLY_REMOTE_CHANGES.end(callStart, rows);
+        }
+    }
+
+    public void addOnTableChangedListener(OnTableChangedListener listener) {
+        tableListeners.addIfAbsent(listener);
+    }
+
+    public void removeOnTableChangedListener(OnTableChangedListener listener) {
+        tableListeners.remove(listener);
+    }
+
+    // Called once per committed write, after the item cache has been updated
+    private void notifyTableChanged(String table) {
+        if (TABLE_ITEMS.equals(table)) {
+            maybeScheduleRollup();
+        }
+        for (OnTableChangedListener listener : tableListeners) {
+            listener.onTableChanged(table);
+        }
+    }
+
+    // Hit/miss/eviction counters and resize() for tuning the item cache
+    public ItemCache getItemCache() {
+        return itemCache;
+    }
+
+    // Gives SQLite's page cache back to the system when the app is under memory pressure,
+    // without closing the shared connection
+    private static class MemoryTrimCallbacks implements ComponentCallbacks2 {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_BACKGROUND) {
+                SQLiteDatabase.releaseMemory();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            SQLiteDatabase.releaseMemory();
+        }
+    }
 }
 
 // Item class to represent each item
@@ -174,6 +1729,9 @@ class Item {
     private int id;
     private String name;
     private int quantity;
+    private int reorderThreshold;
+    private int version;
+    private String sku;
 
     // Getters and setters
     public int getId() { return id; }
@@ -182,4 +1740,10 @@ class Item {
     public void setName(String name) { this.name = name; }
     public int getQuantity() { return quantity; }
     public void setQuantity(int quantity) { this.quantity = quantity; }
+    public int getReorderThreshold() { return reorderThreshold; }
+    public void setReorderThreshold(int reorderThreshold) { this.reorderThreshold = reorderThreshold; }
+    public int getVersion() { return version; }
+    public void setVersion(int version) { this.version = version; }
+    public String getSku() { return sku; }
+    public void setSku(String sku) { this.sku = sku; }
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+package com.semonin.jjwarehouse;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Non-destructive schema migrations. Each step upgrades the schema by exactly one
+ * version and must keep existing rows. DatabaseHelper runs every step between the
+ * installed version and DATABASE_VERSION, in order, inside the upgrade transaction;
+ * fresh installs run all of them on top of the version 1 schema.
+ *
+ * To change the schema, append a step; LATEST_VERSION follows from the number of
+ * steps. Never edit a step that has shipped.
+ */
+final class DatabaseMigrations {
+
+    private static final String TAG = "DatabaseMigrations";
+
+    abstract static class Migration {
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // MIGRATIONS[i] upgrades from version i + 1 to i + 2
+    private static final Migration[] MIGRATIONS = {
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Full-text search over item names
+                    ItemSearchIndex.create(db);
+                }
+            },
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Usernames must be unique for the index
+                    renameDuplicateUsers(db);
+                    db.execSQL("CREATE UNIQUE INDEX idx_users_username ON " + DatabaseHelper.TABLE_USERS
+                            + "(" + DatabaseHelper.COLUMN_USER_NAME + ")");
+                    db.execSQL("CREATE INDEX idx_items_name ON " + DatabaseHelper.TABLE_ITEMS
+                            + "(" + DatabaseHelper.COLUMN_NAME + ")");
+                }
+            },
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Existing items start with no threshold, so nothing is low stock until one is set
+                    db.execSQL("ALTER TABLE " + DatabaseHelper.TABLE_ITEMS + " ADD COLUMN "
+                            + DatabaseHelper.COLUMN_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT 0");
+                    InventoryStats.create(db);
+                }
+            },
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Change log for SyncEngine; existing items are queued for the first upload
+                    ChangeLog.create(db);
+                }
+            },
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + DatabaseHelper.TABLE_ITEMS + " ADD COLUMN "
+                            + DatabaseHelper.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0");
+                    // Writers that do not set the version themselves (adjustQuantities, sync, plain
+                    // updateItem) still move it, so an optimistic update based on an older read fails
+                    db.execSQL("CREATE TRIGGER items_version_au AFTER UPDATE OF name, quantity, reorder_threshold ON "
+                            + DatabaseHelper.TABLE_ITEMS + " WHEN new.version = old.version BEGIN "
+                            + "UPDATE " + DatabaseHelper.TABLE_ITEMS + " SET version = old.version + 1 WHERE id = new.id; END");
+                }
+            },
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Existing items have no SKU; the index only holds items that do, and keeps them unique
+                    db.execSQL("ALTER TABLE " + DatabaseHelper.TABLE_ITEMS + " ADD COLUMN " + DatabaseHelper.COLUMN_SKU + " TEXT");
+                    db.execSQL("CREATE UNIQUE INDEX idx_items_sku ON " + DatabaseHelper.TABLE_ITEMS
+                            + "(" + DatabaseHelper.COLUMN_SKU + ") WHERE " + DatabaseHelper.COLUMN_SKU + " IS NOT NULL");
+                    // Relabelling an item is a change too, so optimistic updates must see it
+                    db.execSQL("DROP TRIGGER items_version_au");
+                    db.execSQL("CREATE TRIGGER items_version_au AFTER UPDATE OF name, quantity, reorder_threshold, sku ON "
+                            + DatabaseHelper.TABLE_ITEMS + " WHEN new.version = old.version BEGIN "
+                            + "UPDATE " + DatabaseHelper.TABLE_ITEMS + " SET version = old.version + 1 WHERE id = new.id; END");
+                }
+            },
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Sites, bins and stock per location; existing units start out unassigned
+                    Locations.create(db);
+                }
+            },
+            new Migration(9) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Movement journal and its rollups; history starts from the upgrade
+                    StockJournal.create(db);
+                }
+            },
+            new Migration(10) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Sync SKUs too; items that already have one are queued for upload
+                    ChangeLog.addSku(db);
+                }
+            },
+    };
+
+    static final int LATEST_VERSION = MIGRATIONS.length + 1;
+
+    private DatabaseMigrations() {
+    }
+
+    /**
+     * If a race let several accounts share a username, the oldest keeps it and each
+     * later one is renamed to "username#id" (with a further suffix if that is taken
+     * too). No account is dropped; the renames are logged so support can tell users.
+     */
+    private static void renameDuplicateUsers(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT " + DatabaseHelper.COLUMN_USER_ID + ", " + DatabaseHelper.COLUMN_USER_NAME
+                + " FROM " + DatabaseHelper.TABLE_USERS + " WHERE " + DatabaseHelper.COLUMN_USER_ID
+                + " NOT IN (SELECT MIN(" + DatabaseHelper.COLUMN_USER_ID + ") FROM " + DatabaseHelper.TABLE_USERS
+                + " GROUP BY " + DatabaseHelper.COLUMN_USER_NAME + ") ORDER BY " + DatabaseHelper.COLUMN_USER_ID, null);
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                String username = cursor.getString(1);
+                String renamed = username + "#" + id;
+                for (int suffix = 2; usernameTaken(db, renamed); suffix++) {
+                    renamed = username + "#" + id + "-" + suffix;
+                }
+                db.execSQL("UPDATE " + DatabaseHelper.TABLE_USERS + " SET " + DatabaseHelper.COLUMN_USER_NAME
+                        + " = ? WHERE " + DatabaseHelper.COLUMN_USER_ID + " = ?", new Object[]{renamed, id});
+                Log.w(TAG, "Duplicate account " + id + " for username '" + username + "' renamed to '" + renamed + "'");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean usernameTaken(SQLiteDatabase db, String username) {
+        return DatabaseUtils.queryNumEntries(db, DatabaseHelper.TABLE_USERS,
+                DatabaseHelper.COLUMN_USER_NAME + " = ?", new String[]{username}) > 0;
+    }
+
+    // Applies every step after fromVersion up to and including toVersion
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion > fromVersion && migration.toVersion <= toVersion) {
+                Log.i(TAG, "Migrating database to version " + migration.toVersion);
+                migration.migrate(db);
+            }
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.semonin.jjwarehouse;
+
+import android.util.JsonWriter;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide instrumentation for the data layer. Each operation is a static Op; a call
+ * is timed with
+ *
+ *     long start = OP.begin();
+ *     try { ... } finally { OP.end(start, rowsScanned, rowsReturned); }
+ *
+ * which records the call count, a latency histogram with fixed buckets, rows read from
+ * SQLite, rows returned (or written), and main thread calls. Recording is a few atomic
+ * increments and no allocation. Calls slower than the slow-call threshold also go to a
+ * small ring buffer and to logcat. snapshot() copies everything for a debug screen or
+ * export; counters of one operation may be a call apart, nothing is locked.
+ */
+public final class DbMetrics {
+
+    private static final String TAG = "DbMetrics";
+
+    // Upper bounds of the latency buckets in microseconds; the last bucket is everything slower
+    static final long[] BUCKET_BOUNDS_MICROS = {
+            50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 1_000_000};
+
+    public static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 50;
+    static final int SLOW_LOG_SIZE = 64;
+
+    private static final List<Op> ops = new CopyOnWriteArrayList<>();
+
+    private static volatile boolean enabled = true;
+    private static volatile long slowThresholdNanos = DEFAULT_SLOW_THRESHOLD_MILLIS * 1_000_000L;
+
+    private static final SlowCall[] slowCalls = new SlowCall[SLOW_LOG_SIZE];
+    private static int nextSlowCall;
+
+    private DbMetrics() {
+    }
+
+    // One instrumented operation; create once per operation name and keep it in a static field
+    public static final class Op {
+        final String name;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong mainThreadCalls = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong rowsScanned = new AtomicLong();
+        private final AtomicLong rowsReturned = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MICROS.length + 1);
+
+        private Op(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Starts a call: reports it to MainThreadGuard and counts it if on the main thread.
+         *
+         * @return the start time to hand to end()
+         */
+        public long begin() {
+            if (MainThreadGuard.check(name) && enabled) {
+                mainThreadCalls.incrementAndGet();
+            }
+            return System.nanoTime();
+        }
+
+        public void end(long start) {
+            end(start, 0, 0);
+        }
+
+        // For calls that return (or write) every row they read
+        public void end(long start, int rows) {
+            end(start, rows, rows);
+        }
+
+        /**
+         * @param scanned  rows read from SQLite cursors or statements
+         * @param returned rows handed back to the caller, or written by a write
+         */
+        public void end(long start, int scanned, int returned) {
+            if (!enabled) {
+                return;
+            }
+            long nanos = System.nanoTime() - start;
+            calls.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            rowsScanned.addAndGet(scanned);
+            rowsReturned.addAndGet(returned);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+            buckets.incrementAndGet(bucketOf(nanos));
+            if (nanos >= slowThresholdNanos) {
+                recordSlowCall(this, nanos, scanned, returned);
+            }
+        }
+
+        void reset() {
+            calls.set(0);
+            mainThreadCalls.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            rowsScanned.set(0);
+            rowsReturned.set(0);
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+        }
+    }
+
+    // Registers an operation; names should be unique, they are the keys in snapshots
+    public static Op op(String name) {
+        Op op = new Op(name);
+        ops.add(op);
+        return op;
+    }
+
+    static int bucketOf(long nanos) {
+        long micros = nanos / 1_000;
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            if (micros < BUCKET_BOUNDS_MICROS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MICROS.length;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static void setSlowThresholdMillis(long millis) {
+        slowThresholdNanos = millis * 1_000_000L;
+    }
+
+    public static long getSlowThresholdMillis() {
+        return slowThresholdNanos / 1_000_000L;
+    }
+
+    // Clears every counter and the slow-call log, e.g. before measuring one screen
+    public static void reset() {
+        for (Op op : ops) {
+            op.reset();
+        }
+        synchronized (slowCalls) {
+            Arrays.fill(slowCalls, null);
+            nextSlowCall = 0;
+        }
+    }
+
+    // A call over the slow threshold
+    public static final class SlowCall {
+        public final String operation;
+        public final long nanos;
+        public final int rowsScanned;
+        public final int rowsReturned;
+        public final boolean mainThread;
+        public final String thread;
+        public final long timestampMillis;
+
+        SlowCall(String operation, long nanos, int rowsScanned, int rowsReturned, boolean mainThread, String thread,
+                long timestampMillis) {
+            this.operation = operation;
+            this.nanos = nanos;
+            this.rowsScanned = rowsScanned;
+            this.rowsReturned = rowsReturned;
+            this.mainThread = mainThread;
+            this.thread = thread;
+            this.timestampMillis = timestampMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s %.1fms scanned=%d returned=%d thread=%s%s",
+                    operation, nanos / 1e6, rowsScanned, rowsReturned, thread, mainThread ? " (main)" : "");
+        }
+    }
+
+    private static void recordSlowCall(Op op, long nanos, int scanned, int returned) {
+        boolean main = DatabaseExecutor.isMainThread();
+        SlowCall call = new SlowCall(op.name, nanos, scanned, returned, main, Thread.currentThread().getName(),
+                System.currentTimeMillis());
+        synchronized (slowCalls) {
+            slowCalls[nextSlowCall % SLOW_LOG_SIZE] = call;
+            nextSlowCall++;
+        }
+        Log.w(TAG, "Slow call: " + call);
+    }
+
+    // Counters of one operation at the time of the snapshot
+    public static final class OpSnapshot {
+        public final String name;
+        public final long calls;
+        public final long mainThreadCalls;
+        public final long totalNanos;
+        public final long maxNanos;
+        public final long rowsScanned;
+        public final long rowsReturned;
+        // Counts per bucket, see BUCKET_BOUNDS_MICROS
+        public final long[] buckets;
+
+        OpSnapshot(Op op) {
+            name = op.name;
+            calls = op.calls.get();
+            mainThreadCalls = op.mainThreadCalls.get();
+            totalNanos = op.totalNanos.get();
+            maxNanos = op.maxNanos.get();
+            rowsScanned = op.rowsScanned.get();
+            rowsReturned = op.rowsReturned.get();
+            buckets = new long[op.buckets.length()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = op.buckets.get(i);
+            }
+        }
+
+        public long meanNanos() {
+            return calls == 0 ? 0 : totalNanos / calls;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, in nanoseconds; the
+         * histogram cannot be more precise. Long.MAX_VALUE if it falls past the last bound.
+         */
+        public long percentileNanos(double percentile) {
+            long seen = 0;
+            long total = 0;
+            for (long count : buckets) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long wanted = (long) Math.ceil(percentile * total);
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= wanted) {
+                    return i < BUCKET_BOUNDS_MICROS.length ? BUCKET_BOUNDS_MICROS[i] * 1_000 : Long.MAX_VALUE;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public static final class Snapshot {
+        public final long timestampMillis;
+        public final long slowThresholdMillis;
+        // Operations that were called at least once, busiest (by total time) first
+        public final List<OpSnapshot> operations;
+        // Oldest first
+        public final List<SlowCall> slowCalls;
+
+        Snapshot(long timestampMillis, long slowThresholdMillis, List<OpSnapshot> operations, List<SlowCall> slowCalls) {
+            this.timestampMillis = timestampMillis;
+            this.slowThresholdMillis = slowThresholdMillis;
+            this.operations = operations;
+            this.slowCalls = slowCalls;
+        }
+
+        public OpSnapshot get(String name) {
+            for (OpSnapshot op : operations) {
+                if (op.name.equals(name)) {
+                    return op;
+                }
+            }
+            return null;
+        }
+
+        // Plain text table for logcat or a debug screen
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format(Locale.ROOT, "%-24s %8s %6s %9s %9s %9s %10s %10s%n",
+                    "operation", "calls", "main", "mean ms", "p99 ms<=", "max ms", "scanned", "returned"));
+            for (OpSnapshot op : operations) {
+                long p99 = op.percentileNanos(0.99);
+                text.append(String.format(Locale.ROOT, "%-24s %8d %6d %9.2f %9s %9.2f %10d %10d%n",
+                        op.name, op.calls, op.mainThreadCalls, op.meanNanos() / 1e6,
+                        p99 == Long.MAX_VALUE ? "slower" : String.format(Locale.ROOT, "%.2f", p99 / 1e6),
+                        op.maxNanos / 1e6, op.rowsScanned, op.rowsReturned));
+            }
+            text.append("slow calls (>= ").append(slowThresholdMillis).append("ms): ").append(slowCalls.size()).append('\n');
+            for (SlowCall call : slowCalls) {
+                text.append("  ").append(call).append('\n');
+            }
+            return text.toString();
+        }
+
+        // The same data as JSON, for exporting; out is flushed, not closed
+        public void writeJson(Writer out) throws IOException {
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject();
+            json.name("timestamp").value(timestampMillis);
+            json.name("slow_threshold_ms").value(slowThresholdMillis);
+            json.name("bucket_bounds_us").beginArray();
+            for (long bound : BUCKET_BOUNDS_MICROS) {
+                json.value(bound);
+            }
+            json.endArray();
+            json.name("operations").beginArray();
+            for (OpSnapshot op : operations) {
+                json.beginObject();
+                json.name("name").value(op.name);
+                json.name("calls").value(op.calls);
+                json.name("main_thread_calls").value(op.mainThreadCalls);
+                json.name("total_ns").value(op.totalNanos);
+                json.name("max_ns").value(op.maxNanos);
+                json.name("rows_scanned").value(op.rowsScanned);
+                json.name("rows_returned").value(op.rowsReturned);
+                json.name("buckets").beginArray();
+                for (long count : op.buckets) {
+                    json.value(count);
+                }
+                json.endArray();
+                json.endObject();
+            }
+            json.endArray();
+            json.name("slow_calls").beginArray();
+            for (SlowCall call : slowCalls) {
+                json.beginObject();
+                json.name("operation").value(call.operation);
+                json.name("ns").value(call.nanos);
+                json.name("rows_scanned").value(call.rowsScanned);
+                json.name("rows_returned").value(call.rowsReturned);
+                json.name("main_thread").value(call.mainThread);
+                json.name("thread").value(call.thread);
+                json.name("timestamp").value(call.timestampMillis);
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+            json.flush();
+        }
+    }
+
+    public static Snapshot snapshot() {
+        List<OpSnapshot> operations = new ArrayList<>();
+        for (Op op : ops) {
+            OpSnapshot snapshot = new OpSnapshot(op);
+            if (snapshot.calls > 0) {
+                operations.add(snapshot);
+            }
+        }
+        Collections.sort(operations, (a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+
+        List<SlowCall> slow = new ArrayList<>();
+        synchronized (slowCalls) {
+            int first = Math.max(0, nextSlowCall - SLOW_LOG_SIZE);
+            for (int i = first; i < nextSlowCall; i++) {
+                slow.add(slowCalls[i % SLOW_LOG_SIZE]);
+            }
+        }
+        return new Snapshot(System.currentTimeMillis(), getSlowThresholdMillis(), operations, slow);
+    }
+}
@@ -1,41 +1,99 @@
 package com.semonin.jjwarehouse;
 
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProvider;
 
 public class GridItem extends Fragment {
 
+    private static final String TAG = "GridItem";
+
+    // Navigation arguments: the row as the grid showed it, and when it was tapped (elapsedRealtimeNanos)
+    static final String ARG_ITEM_ID = "itemId";
+    static final String ARG_ITEM_NAME = "itemName";
+    static final String ARG_ITEM_QUANTITY = "itemQuantity";
+    static final String ARG_ITEM_VERSION = "itemVersion";
+    static final String ARG_OPENED_AT = "openedAtNanos";
+
+    private static final String STATE_SHOWN_NAME = "shownName";
+    private static final String STATE_SHOWN_QUANTITY = "shownQuantity";
+    private static final String STATE_SHOWN_VERSION = "shownVersion";
+
+    // Merges onto a row that changed underneath before giving up; only a concurrent rename stops it
+    private static final int SAVE_ATTEMPTS = 5;
+
+    // Tap to first drawn frame with the form filled, and tap to values confirmed by the database.
+    // Before the screen rendered from its arguments, the first frame with content came at the second.
+    static final LatencyRecorder FIRST_FRAME_LATENCY = new LatencyRecorder(128);
+    static final LatencyRecorder RECONCILE_LATENCY = new LatencyRecorder(128);
+
     private EditText itemNameInput, itemQtyInput;
     private int itemId = -1; // Default to -1, indicating a new item
+    // Quantity on screen after the last load or +/- tap; a different value on save was typed by hand
+    private int shownQuantity;
+    // Merges rapid +/- taps on an existing item into one quantity = quantity + delta write
+    private QuantityAdjuster quantityAdjuster;
+    // Name as last loaded; the field follows the database only while it still shows this
+    private String shownName;
+    // Row version the form is based on; an older value from the shared stream is ignored
+    private int shownVersion;
+    private boolean detailsLoaded;
+    // Set once the database has answered for this screen, for RECONCILE_LATENCY
+    private boolean reconciled;
+    // Set when this screen deletes the item, so the deletion is not reported back to the user
+    private boolean deleting;
+    // Set while a save is in flight; its delta is neither in the database nor in quantityAdjuster yet
+    private boolean saving;
+    private long openedAtNanos;
+    private TextView removeItemLink;
 
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_grid_item, container, false);
+        quantityAdjuster = new QuantityAdjuster(DatabaseHelper.getInstance(getContext()));
 
         itemNameInput = view.findViewById(R.id.item_name_input);
         itemQtyInput = view.findViewById(R.id.item_qty_input);
 
         ImageView decreaseQtyButton = view.findViewById(R.id.item_qty_decrease);
         ImageView increaseQtyButton = view.findViewById(R.id.item_qty_increase);
-        TextView removeItemLink = view.findViewById(R.id.remove_item_link);
+        removeItemLink = view.findViewById(R.id.remove_item_link);
         Button saveItemButton = view.findViewById(R.id.save_item);
 
         // Check if editing an existing item
-        if (getArguments() != null && getArguments().containsKey("itemId")) {
-            itemId = getArguments().getInt("itemId", -1); // Default value as -1
-            if (itemId != -1) {
-                loadItemDetails(itemId);
+        Bundle args = getArguments();
+        if (args != null && args.containsKey(ARG_ITEM_ID)) {
+            itemId = args.getInt(ARG_ITEM_ID, -1); // Default value as -1
+        }
+        // A restored screen's tap time belongs to another process, or to long ago
+        if (args != null && savedInstanceState == null) {
+            openedAtNanos = args.getLong(ARG_OPENED_AT, 0);
+        }
+
+        if (itemId != -1) {
+            if (savedInstanceState != null && savedInstanceState.containsKey(STATE_SHOWN_NAME)) {
+                // The fields restored their own (possibly edited) text; just remember what they were based on
+                shownName = savedInstanceState.getString(STATE_SHOWN_NAME);
+                shownQuantity = savedInstanceState.getInt(STATE_SHOWN_QUANTITY);
+                shownVersion = savedInstanceState.getInt(STATE_SHOWN_VERSION);
+                detailsLoaded = true;
+            } else {
+                showSnapshot(args);
             }
         }
 
@@ -80,28 +138,123 @@ public class GridItem extends Fragment {
         return view;
     }
 
+    /**
+     * Fills the form before the first frame without touching the database: from the item
+     * cache when it holds the row (it follows every write), else from the row the grid
+     * passed in. Leaves the form empty if neither is available.
+     */
+    private void showSnapshot(@Nullable Bundle args) {
+        Item cached = DatabaseHelper.getInstance(requireContext()).getItemCache().peek(itemId);
+        if (cached != null) {
+            fillForm(cached.getName(), cached.getQuantity(), cached.getVersion());
+        } else if (args != null && args.containsKey(ARG_ITEM_QUANTITY)) {
+            fillForm(args.getString(ARG_ITEM_NAME), args.getInt(ARG_ITEM_QUANTITY), args.getInt(ARG_ITEM_VERSION));
+        }
+    }
+
+    private void fillForm(String name, int quantity, int version) {
+        shownName = name == null ? "" : name;
+        shownQuantity = quantity;
+        shownVersion = version;
+        itemNameInput.setText(shownName);
+        itemQtyInput.setText(String.valueOf(quantity));
+        detailsLoaded = true;
+    }
+
+    @Override
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        if (openedAtNanos != 0) {
+            view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    view.getViewTreeObserver().removeOnPreDrawListener(this);
+                    FIRST_FRAME_LATENCY.record(SystemClock.elapsedRealtimeNanos() - openedAtNanos);
+                    return true;
+                }
+            });
+        }
+        if (itemId != -1) {
+            loadItemDetails(itemId);
+        }
+    }
+
     private void loadItemDetails(int itemId) {
-        // Load item details from the database and set them to the views
-        // Implement this based on how  data is retrieved from the database
+        // Reconciles in the background; reopening an item that was not written since is served without a query
+        ItemViewModel viewModel = new ViewModelProvider(requireActivity()).get(ItemViewModel.class);
+        viewModel.getItem(itemId).observe(getViewLifecycleOwner(), this::showItemDetails);
+    }
+
+    // Later values (the reconciling read, writes from other screens) only touch fields that
+    // changed and that the user has not edited
+    private void showItemDetails(Item item) {
+        if (item != null && detailsLoaded && item.getVersion() < shownVersion) {
+            // A stream kept from an earlier visit first replays what it held then, before its reload lands
+            return;
+        }
+        if (!reconciled && openedAtNanos != 0) {
+            RECONCILE_LATENCY.record(SystemClock.elapsedRealtimeNanos() - openedAtNanos);
+        }
+        reconciled = true;
+        if (item == null) {
+            onItemDeleted();
+            return;
+        }
+        if (!detailsLoaded) {
+            fillForm(item.getName(), item.getQuantity(), item.getVersion());
+            return;
+        }
+        shownVersion = item.getVersion();
 
-        DatabaseHelper db = new DatabaseHelper(getContext());
-        Item item = db.getItemById(itemId);
+        String name = item.getName() == null ? "" : item.getName();
+        if (!name.equals(shownName) && itemNameInput.getText().toString().equals(shownName)) {
+            itemNameInput.setText(name);
+        }
+        shownName = name;
 
-        if (item != null) {
-            itemNameInput.setText(item.getName());
+        boolean quantityUntouched = String.valueOf(shownQuantity).equals(itemQtyInput.getText().toString());
+        if (item.getQuantity() != shownQuantity && quantityUntouched && !quantityAdjuster.hasPending() && !saving) {
             itemQtyInput.setText(String.valueOf(item.getQuantity()));
+            shownQuantity = item.getQuantity();
+        }
+    }
+
+    // Deleted elsewhere (another screen, a sync): keep what is on screen, saving adds it back as a new item
+    private void onItemDeleted() {
+        if (deleting || itemId == -1) {
+            return;
+        }
+        itemId = -1;
+        // Adjustments to a row that no longer exists would go nowhere
+        quantityAdjuster.takePending();
+        removeItemLink.setVisibility(View.GONE);
+        Toast.makeText(getContext(), R.string.item_deleted, Toast.LENGTH_LONG).show();
+    }
+
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (itemId != -1 && detailsLoaded) {
+            outState.putString(STATE_SHOWN_NAME, shownName);
+            outState.putInt(STATE_SHOWN_QUANTITY, shownQuantity);
+            outState.putInt(STATE_SHOWN_VERSION, shownVersion);
         }
     }
 
     private void deleteItem() {
         if (itemId != -1) {
-            DatabaseHelper db = new DatabaseHelper(getContext());
-            db.deleteItem(itemId);
-
-            // Navigate back to DataGridFragment or update UI
-            if (isAdded()) {
-                getActivity().getSupportFragmentManager().popBackStack();
-            }
+            deleting = true;
+            final DatabaseHelper db = DatabaseHelper.getInstance(getContext());
+            final int id = itemId;
+            DatabaseExecutor.submit(() -> {
+                db.deleteItem(id);
+                return null;
+            }, ignored -> {
+                // Navigate back to DataGridFragment or update UI
+                if (isAdded()) {
+                    getActivity().getSupportFragmentManager().popBackStack();
+                }
+            });
         }
     }
 
@@ -109,32 +262,130 @@ public class GridItem extends Fragment {
 
 
     private void adjustItemQuantity(int adjustment) {
+        int currentQty;
         try {
-            int currentQty = Integer.parseInt(itemQtyInput.getText().toString());
-            int newQty = currentQty + adjustment;
-            itemQtyInput.setText(String.valueOf(newQty > 0 ? newQty : 0));
+            currentQty = Integer.parseInt(itemQtyInput.getText().toString());
         } catch (NumberFormatException e) {
-            itemQtyInput.setText(String.valueOf(0));
+            currentQty = 0;
+        }
+        int newQty = Math.max(0, currentQty + adjustment);
+        itemQtyInput.setText(String.valueOf(newQty));
+
+        if (itemId != -1) {
+            // Existing item: record the change as a delta, not an absolute value, so other writers are not overwritten
+            quantityAdjuster.add(itemId, newQty - shownQuantity);
+            shownQuantity = newQty;
         }
     }
 
     private void saveItem() {
-        String itemName = itemNameInput.getText().toString();
-        int itemQuantity = Integer.parseInt(itemQtyInput.getText().toString());
-        DatabaseHelper db = new DatabaseHelper(getContext());
+        final String itemName = itemNameInput.getText().toString();
+        final int itemQuantity = Integer.parseInt(itemQtyInput.getText().toString());
+        final DatabaseHelper db = DatabaseHelper.getInstance(getContext());
+        final int id = itemId;
 
-        if (itemId != -1) {
-            // Update existing item
-            db.updateItem(itemId, itemName, itemQuantity);
-        } else {
-            // Add new item
-            db.addItem(itemName, itemQuantity);
+        if (id == -1) {
+            // Add new item; on failure the form still holds everything, so the user can save again
+            DatabaseExecutor.submit(() -> db.addItem(itemName, itemQuantity), new DatabaseExecutor.Callback<Long>() {
+                @Override
+                public void onResult(Long ignored) {
+                    close();
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    DatabaseExecutor.Callback.super.onError(e);
+                    showSaveFailed();
+                }
+            });
+            return;
+        }
+
+        // Taps not yet written, plus any quantity typed by hand, go out as one delta with the rename,
+        // in one UPDATE, so a save is never half applied
+        final int delta = quantityAdjuster.takePending().get(id) + itemQuantity - shownQuantity;
+        shownQuantity = itemQuantity;
+        final String baseName = shownName;
+        saving = true;
+        DatabaseExecutor.submit(() -> db.updateItemWithRetry(id, current -> {
+            String currentName = current.getName() == null ? "" : current.getName();
+            if (!itemName.equals(baseName)) {
+                // Renamed here and, differently, somewhere else since the form loaded: the user decides
+                if (!currentName.equals(baseName) && !currentName.equals(itemName)) {
+                    return null;
+                }
+                current.setName(itemName);
+            }
+            current.setQuantity(current.getQuantity() + delta);
+            return current;
+        }, SAVE_ATTEMPTS), new DatabaseExecutor.Callback<DatabaseHelper.UpdateResult>() {
+            @Override
+            public void onResult(DatabaseHelper.UpdateResult result) {
+                saving = false;
+                switch (result.status) {
+                    case UPDATED:
+                        close();
+                        break;
+                    case CONFLICT:
+                        onSaveConflict(result.current, id, delta);
+                        break;
+                    case NOT_FOUND:
+                        onItemDeleted();
+                        break;
+                }
+            }
+
+            // Rejected by a full queue or failed in the database: nothing was written
+            @Override
+            public void onError(Exception e) {
+                DatabaseExecutor.Callback.super.onError(e);
+                saving = false;
+                // Hand the delta back so the taps are not lost; the name stays in the field for another save
+                quantityAdjuster.add(id, delta);
+                showSaveFailed();
+            }
+        });
+    }
+
+    private void showSaveFailed() {
+        if (isAdded()) {
+            Toast.makeText(getContext(), R.string.item_save_failed, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    // Nothing was written: keep the user's text, rebase the form on the winning row and let them save again
+    private void onSaveConflict(@Nullable Item current, int id, int delta) {
+        // The quantity change does not conflict with anything, so it still goes out on its own
+        quantityAdjuster.add(id, delta);
+        if (current == null || !isAdded()) {
+            return;
         }
+        shownName = current.getName() == null ? "" : current.getName();
+        shownVersion = current.getVersion();
+        Toast.makeText(getContext(), getString(R.string.item_rename_conflict, shownName), Toast.LENGTH_LONG).show();
+    }
 
+    private void close() {
         if (isAdded()) {
             getActivity().getSupportFragmentManager().popBackStack();
         }
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        // Leaving the screen (back, home) must not lose taps still in the coalescing window
+        quantityAdjuster.flush();
+        if (FIRST_FRAME_LATENCY.getCount() > 0) {
+            Log.i(TAG, "Edit screen time-to-interactive: first frame p50=" + millis(FIRST_FRAME_LATENCY, 0.5)
+                    + "ms p99=" + millis(FIRST_FRAME_LATENCY, 0.99) + "ms, database confirmed p50="
+                    + millis(RECONCILE_LATENCY, 0.5) + "ms p99=" + millis(RECONCILE_LATENCY, 0.99) + "ms");
+        }
+    }
+
+    private static double millis(LatencyRecorder recorder, double percentile) {
+        return recorder.getPercentile(percentile) / 1e6;
+    }
+
     // Other methods...
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+package com.semonin.jjwarehouse;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * SyncApi over HTTP with gzip-compressed JSON. Bodies are written and parsed with the
+ * streaming JsonWriter/JsonReader, so a batch is never held as one big string.
+ *
+ * POST {baseUrl}/changes  {"client": id, "changes": [{"seq", "guid", "op", "name"?,
+ *                          "quantity_delta"?, "reorder_threshold"?, "sku"?}]}  ->  {"ack": seq}
+ * GET  {baseUrl}/changes?client=id&since=token&limit=n
+ *                     ->  {"token", "has_more", "items": [{"guid", "deleted", "name"?,
+ *                          "quantity"?, "reorder_threshold"?, "sku"?}]}
+ * Optional keys are present only for the fields that changed.
+ */
+public class HttpSyncApi implements SyncApi {
+
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    private static final String[] OPS = {"insert", "update", "delete"};
+
+    private final String baseUrl;
+
+    public HttpSyncApi(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    @Override
+    public long upload(String clientId, List<Change> changes) throws IOException {
+        HttpURLConnection connection = open(baseUrl + "/changes");
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+
+            OutputStream body = new GZIPOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+            try {
+                writer.beginObject();
+                writer.name("client").value(clientId);
+                writer.name("changes").beginArray();
+                for (Change change : changes) {
+                    writeChange(writer, change);
+                }
+                writer.endArray();
+                writer.endObject();
+            } finally {
+                writer.close();
+            }
+
+            JsonReader reader = readResponse(connection);
+            try {
+                long ack = -1;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("ack".equals(reader.nextName())) {
+                        ack = reader.nextLong();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (ack < 0) {
+                    throw new IOException("Upload response has no ack");
+                }
+                return ack;
+            } finally {
+                reader.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void writeChange(JsonWriter writer, Change change) throws IOException {
+        writer.beginObject();
+        writer.name("seq").value(change.seq);
+        writer.name("guid").value(change.guid);
+        writer.name("op").value(OPS[change.op]);
+        if ((change.fields & ChangeLog.FIELD_NAME) != 0) {
+            writer.name("name").value(change.name);
+        }
+        if ((change.fields & ChangeLog.FIELD_QUANTITY) != 0) {
+            writer.name("quantity_delta").value(change.quantityDelta);
+        }
+        if ((change.fields & ChangeLog.FIELD_REORDER_THRESHOLD) != 0) {
+            writer.name("reorder_threshold").value(change.reorderThreshold);
+        }
+        if ((change.fields & ChangeLog.FIELD_SKU) != 0) {
+            writer.name("sku").value(change.sku);
+        }
+        writer.endObject();
+    }
+
+    @Override
+    public Delta download(String clientId, String token, int limit) throws IOException {
+        StringBuilder url = new StringBuilder(baseUrl).append("/changes?client=")
+                .append(URLEncoder.encode(clientId, "UTF-8")).append("&limit=").append(limit);
+        if (token != null) {
+            url.append("&since=").append(URLEncoder.encode(token, "UTF-8"));
+        }
+        HttpURLConnection connection = open(url.toString());
+        try {
+            JsonReader reader = readResponse(connection);
+            try {
+                String nextToken = token;
+                boolean hasMore = false;
+                List<RemoteItem> items = new ArrayList<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if ("token".equals(name)) {
+                        nextToken = reader.nextString();
+                    } else if ("has_more".equals(name)) {
+                        hasMore = reader.nextBoolean();
+                    } else if ("items".equals(name)) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            items.add(readItem(reader));
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                return new Delta(nextToken, hasMore, items);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static RemoteItem readItem(JsonReader reader) throws IOException {
+        String guid = null;
+        boolean deleted = false;
+        int fields = 0;
+        String name = null;
+        int quantity = 0;
+        int reorderThreshold = 0;
+        String sku = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "guid":
+                    guid = reader.nextString();
+                    break;
+                case "deleted":
+                    deleted = reader.nextBoolean();
+                    break;
+                case "name":
+                    fields |= ChangeLog.FIELD_NAME;
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        name = reader.nextString();
+                    }
+                    break;
+                case "quantity":
+                    fields |= ChangeLog.FIELD_QUANTITY;
+                    quantity = reader.nextInt();
+                    break;
+                case "reorder_threshold":
+                    fields |= ChangeLog.FIELD_REORDER_THRESHOLD;
+                    reorderThreshold = reader.nextInt();
+                    break;
+                case "sku":
+                    fields |= ChangeLog.FIELD_SKU;
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        sku = reader.nextString();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (guid == null) {
+            throw new IOException("Remote item without guid");
+        }
+        return new RemoteItem(guid, deleted, fields, name, quantity, reorderThreshold, sku);
+    }
+
+    private HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // Asked for explicitly, so the response has to be decompressed here
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        connection.setRequestProperty("Accept", "application/json");
+        return connection;
+    }
+
+    private static JsonReader readResponse(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        if (status / 100 != 2) {
+            throw new IOException("Sync request failed: HTTP " + status);
+        }
+        InputStream in = new BufferedInputStream(connection.getInputStream());
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        return new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+}
@@ -5,12 +5,44 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 public class InventoryAdapter extends RecyclerView.Adapter<InventoryAdapter.ViewHolder> {
 
-    private final List<Item> itemList;
+    // Change payload for a row whose quantity changed and nothing else
+    static final Object PAYLOAD_QUANTITY = new Object();
+
+    // Quantities below this share one String each instead of formatting on every bind
+    static final int CACHED_QUANTITY_TEXTS = 4096;
+    private static final String[] QUANTITY_TEXT = new String[CACHED_QUANTITY_TEXTS];
+
+    // Rows are the same item when ids match, and unchanged when name and quantity match
+    static final DiffUtil.ItemCallback<Item> DIFF_CALLBACK = new DiffUtil.ItemCallback<Item>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Item oldItem, @NonNull Item newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Item oldItem, @NonNull Item newItem) {
+            return oldItem.getQuantity() == newItem.getQuantity()
+                    && Objects.equals(oldItem.getName(), newItem.getName());
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull Item oldItem, @NonNull Item newItem) {
+            // Only the quantity moved: rebind that TextView alone, without a change animation
+            return Objects.equals(oldItem.getName(), newItem.getName()) ? PAYLOAD_QUANTITY : null;
+        }
+    };
+
+    // Diffs submitted snapshots on a background thread and applies only the changed rows
+    private final AsyncListDiffer<Item> differ;
     private final OnItemClickListener listener;
 
     public interface OnItemClickListener {
@@ -18,29 +50,125 @@ public class InventoryAdapter extends RecyclerView.Adapter<InventoryAdapter.View
     }
 
     public InventoryAdapter(List<Item> itemList, OnItemClickListener listener) {
-        this.itemList = itemList;
+        this.differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
         this.listener = listener;
+        setHasStableIds(true);
+        differ.submitList(itemList);
+    }
+
+    // For subclasses that supply rows themselves (see PagedInventoryAdapter)
+    protected InventoryAdapter(OnItemClickListener listener) {
+        this(Collections.<Item>emptyList(), listener);
+    }
+
+    /**
+     * Replaces the displayed rows with a new snapshot. The diff against the current
+     * rows is computed off the main thread and only inserted, removed and changed
+     * rows are notified.
+     *
+     * @param items the new snapshot, must not be mutated afterwards
+     */
+    public void submitList(List<Item> items) {
+        differ.submitList(items);
+    }
+
+    // As submitList(items), running commitCallback once the new rows have been applied
+    public void submitList(List<Item> items, Runnable commitCallback) {
+        differ.submitList(items, commitCallback);
+    }
+
+    // Row at position, or null while it is not available
+    protected Item getItem(int position) {
+        return differ.getCurrentList().get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        Item item = getItem(position);
+        // Placeholders get negative ids so they never collide with a real row
+        return item != null ? item.getId() : -1L - position;
     }
 
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_inventory, parent, false);
-        return new ViewHolder(view);
+        ViewHolder holder = new ViewHolder(view);
+        // One listener per holder for its whole life; it looks the row up when clicked,
+        // so binding never has to create one
+        holder.itemView.setOnClickListener(v -> onRowClicked(holder));
+        return holder;
+    }
+
+    private void onRowClicked(ViewHolder holder) {
+        int position = holder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION) {
+            // Removed, or its position is not known until the next layout pass
+            return;
+        }
+        Item item = getItem(position);
+        if (item != null) {
+            listener.onItemClick(item);
+        }
     }
 
     // ALGO
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        Item currentItem = itemList.get(position);
+        Item currentItem = getItem(position);
+        if (currentItem == null) {
+            // Placeholder for a row that has disappeared since the count was taken
+            holder.textViewItemName.setText(null);
+            holder.textViewItemQuantity.setText(null);
+            return;
+        }
         holder.textViewItemName.setText(currentItem.getName());
-        holder.textViewItemQuantity.setText(String.valueOf(currentItem.getQuantity()));
-        holder.bind(currentItem, listener);
+        holder.textViewItemQuantity.setText(quantityText(currentItem.getQuantity()));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!isQuantityOnly(payloads)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        Item currentItem = getItem(position);
+        if (currentItem == null) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        holder.textViewItemQuantity.setText(quantityText(currentItem.getQuantity()));
+    }
+
+    // True if every pending change of the row was a quantity-only change
+    private static boolean isQuantityOnly(List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < payloads.size(); i++) {
+            if (payloads.get(i) != PAYLOAD_QUANTITY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String quantityText(int quantity) {
+        if (quantity < 0 || quantity >= CACHED_QUANTITY_TEXTS) {
+            return String.valueOf(quantity);
+        }
+        // Main thread only, and a lost race would just format the same text twice
+        String text = QUANTITY_TEXT[quantity];
+        if (text == null) {
+            text = String.valueOf(quantity);
+            QUANTITY_TEXT[quantity] = text;
+        }
+        return text;
     }
 
     @Override
     public int getItemCount() {
-        return itemList.size();
+        return differ.getCurrentList().size();
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
@@ -51,14 +179,5 @@ public class InventoryAdapter extends RecyclerView.Adapter<InventoryAdapter.View
             textViewItemName = itemView.findViewById(R.id.textViewItemName);
             textViewItemQuantity = itemView.findViewById(R.id.textViewItemQuantity);
         }
-
-        public void bind(final Item item, final OnItemClickListener listener) {
-            itemView.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    listener.onItemClick(item);
-                }
-            });
-        }
     }
 }
\ No newline at end of file
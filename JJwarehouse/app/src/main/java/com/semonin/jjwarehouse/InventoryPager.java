@@ -0,0 +1,379 @@
+package com.semonin.jjwarehouse;
+
+import android.util.SparseIntArray;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads inventory in fixed-size pages using keyset pagination on id, either every item
+ * or, after setLocation(), only the items held at one location.
+ * Only a contiguous window of at most maxPages pages is held in memory; pages are
+ * fetched on DatabaseExecutor as positions outside the window are requested, and the
+ * page furthest from the scroll direction is dropped when the window is full. The id at
+ * every page start seen since the last load is remembered, so a jump seeks by key from
+ * the closest known row instead of counting from the first one.
+ * All methods except Refresh.compute() must be called on the main thread.
+ */
+public class InventoryPager {
+
+    // Notified on the main thread when data arrives
+    public interface Listener {
+        void onCountLoaded();
+
+        void onRangeLoaded(int start, int count);
+    }
+
+    private static final int APPEND = 0;
+    private static final int PREPEND = 1;
+    private static final int JUMP = 2;
+
+    // Location id for the unscoped inventory (every item, with its total quantity)
+    public static final int ALL_LOCATIONS = 0;
+
+    private final DatabaseHelper db;
+    private final int pageSize;
+    private final int maxPages;
+    private Listener listener;
+    private int location = ALL_LOCATIONS;
+
+    // Contiguous, page-aligned run of loaded rows starting at absolute position windowStart
+    private final ArrayList<Item> window = new ArrayList<>();
+    private int windowStart;
+    private int totalCount;
+    // Page-aligned position -> id of the row there, for rows read since the last load or refresh
+    private final SparseIntArray anchors = new SparseIntArray();
+    // Bumped whenever the window moves, so a stale background result can be detected
+    private int generation;
+
+    // One page load in flight at a time; the latest position asked for meanwhile is kept
+    private boolean loading;
+    private int pendingPosition = -1;
+
+    public InventoryPager(DatabaseHelper db, int pageSize, int maxPages) {
+        this.db = db;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * Scopes the pages to the items held at one location, with each Item's quantity the
+     * units there, or to every item with ALL_LOCATIONS; reloads if the scope changed.
+     */
+    public void setLocation(int locationId) {
+        if (locationId == location) {
+            return;
+        }
+        location = locationId;
+        load();
+    }
+
+    public int getLocation() {
+        return location;
+    }
+
+    // (Re)reads the row count in the background and drops any loaded pages
+    public void load() {
+        window.clear();
+        windowStart = 0;
+        anchors.clear();
+        final int expected = ++generation;
+        final int scope = location;
+        DatabaseExecutor.submit(() -> count(scope), count -> {
+            if (expected != generation) {
+                return;
+            }
+            totalCount = count;
+            if (listener != null) {
+                listener.onCountLoaded();
+            }
+        });
+    }
+
+    public int size() {
+        return totalCount;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the item at position, or null while its page is loading (or if the row
+     * no longer exists). Rows close to the edge of the window prefetch the next page.
+     */
+    public Item get(int position) {
+        if (!isLoaded(position)) {
+            requestPage(position);
+            return null;
+        }
+        int index = position - windowStart;
+        if (index < pageSize / 2 && windowStart > 0) {
+            requestPage(windowStart - 1);
+        } else if (index >= window.size() - pageSize / 2 && windowStart + window.size() < totalCount) {
+            requestPage(windowStart + window.size());
+        }
+        return window.get(index);
+    }
+
+    // The item at position if it is loaded, else null; unlike get() it never starts a load
+    public Item peek(int position) {
+        return isLoaded(position) ? window.get(position - windowStart) : null;
+    }
+
+    public boolean isLoaded(int position) {
+        return position >= windowStart && position < windowStart + window.size();
+    }
+
+    private void requestPage(int position) {
+        if (loading) {
+            pendingPosition = position;
+            return;
+        }
+        final int pageStart = (position / pageSize) * pageSize;
+        final int windowEnd = windowStart + window.size();
+        final int mode;
+        final int key;
+        // Rows to step over after key, for JUMP; -1 when key is the row at pageStart itself
+        int skip = -1;
+        if (!window.isEmpty() && pageStart == windowEnd) {
+            // Scrolling down: continue after the last loaded id
+            mode = APPEND;
+            key = window.get(window.size() - 1).getId();
+        } else if (!window.isEmpty() && pageStart + pageSize == windowStart) {
+            // Scrolling up: continue before the first loaded id
+            mode = PREPEND;
+            key = window.get(0).getId();
+        } else {
+            // Jumped away from the window: seek from the closest row at or before pageStart whose id is
+            // known, or from before the first row (ids start at 1), and step over the rows in between
+            mode = JUMP;
+            int known = -1;
+            int knownId = 0;
+            for (int i = anchors.size() - 1; i >= 0; i--) {
+                if (anchors.keyAt(i) <= pageStart) {
+                    known = anchors.keyAt(i);
+                    knownId = anchors.valueAt(i);
+                    break;
+                }
+            }
+            if (!window.isEmpty() && windowEnd - 1 < pageStart && windowEnd - 1 > known) {
+                known = windowEnd - 1;
+                knownId = window.get(window.size() - 1).getId();
+            }
+            key = knownId;
+            skip = pageStart - known - 1;
+        }
+        final int rowsToSkip = skip;
+
+        loading = true;
+        final int expected = generation;
+        final int scope = location;
+        DatabaseExecutor.submit(() -> readPage(scope, mode, key, rowsToSkip), new DatabaseExecutor.Callback<List<Item>>() {
+            @Override
+            public void onResult(List<Item> page) {
+                loading = false;
+                if (expected == generation) {
+                    applyPage(mode, pageStart, page);
+                } else if (pendingPosition == -1) {
+                    // The window moved underneath this load, ask again for the same rows
+                    pendingPosition = pageStart;
+                }
+                requestPending();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                loading = false;
+                pendingPosition = -1;
+                DatabaseExecutor.Callback.super.onError(e);
+            }
+        });
+    }
+
+    // Background thread
+    private List<Item> readPage(int scope, int mode, int key, int skip) {
+        if (mode == APPEND) {
+            return rowsAfter(scope, key, pageSize);
+        } else if (mode == PREPEND) {
+            return rowsBefore(scope, key, pageSize);
+        }
+        if (skip < 0) {
+            return rowsAfter(scope, key - 1, pageSize);
+        }
+        int anchorId = scope == ALL_LOCATIONS ? db.getItemIdAfter(key, skip) : db.getStockItemIdAfter(scope, key, skip);
+        return anchorId == -1 ? new ArrayList<Item>() : rowsAfter(scope, anchorId - 1, pageSize);
+    }
+
+    // Background thread: the row source for a scope, every item or one location's stock
+    private int count(int scope) {
+        return scope == ALL_LOCATIONS ? db.getItemCount() : db.getStockCount(scope);
+    }
+
+    private List<Item> rowsAfter(int scope, int afterId, int limit) {
+        return scope == ALL_LOCATIONS ? db.getItemsAfter(afterId, limit) : db.getStockAfter(scope, afterId, limit);
+    }
+
+    private List<Item> rowsBefore(int scope, int beforeId, int limit) {
+        return scope == ALL_LOCATIONS ? db.getItemsBefore(beforeId, limit) : db.getStockBefore(scope, beforeId, limit);
+    }
+
+    private int countBefore(int scope, int id) {
+        return scope == ALL_LOCATIONS ? db.countItemsBefore(id) : db.countStockBefore(scope, id);
+    }
+
+    private void applyPage(int mode, int pageStart, List<Item> page) {
+        generation++;
+        int loadedStart;
+        if (mode == APPEND) {
+            loadedStart = windowStart + window.size();
+            window.addAll(page);
+            while (window.size() > maxPages * pageSize) {
+                window.subList(0, pageSize).clear();
+                windowStart += pageSize;
+            }
+        } else if (mode == PREPEND) {
+            window.addAll(0, page);
+            windowStart -= page.size();
+            loadedStart = windowStart;
+            while (window.size() > maxPages * pageSize) {
+                window.subList(window.size() - pageSize, window.size()).clear();
+            }
+        } else {
+            window.clear();
+            window.addAll(page);
+            windowStart = pageStart;
+            loadedStart = pageStart;
+        }
+        rememberAnchors(loadedStart, page);
+        if (listener != null && !page.isEmpty()) {
+            listener.onRangeLoaded(loadedStart, page.size());
+        }
+    }
+
+    // Records the ids of the page-aligned rows among rows, which start at position start
+    private void rememberAnchors(int start, List<Item> rows) {
+        for (int position = (start + pageSize - 1) / pageSize * pageSize; position < start + rows.size(); position += pageSize) {
+            anchors.put(position, rows.get(position - start).getId());
+        }
+    }
+
+    private void requestPending() {
+        int position = pendingPosition;
+        pendingPosition = -1;
+        if (position != -1 && position < totalCount && !isLoaded(position)) {
+            requestPage(position);
+        }
+    }
+
+    // Captures the loaded window so it can be re-read and diffed off the main thread
+    public Refresh beginRefresh() {
+        return new Refresh(this, new ArrayList<>(window), windowStart, totalCount, generation, location);
+    }
+
+    /**
+     * Re-reads the rows of a loaded window and diffs them against what is on screen.
+     * compute() runs on a background thread; the result is applied on the main thread
+     * with PagedInventoryAdapter.applyRefresh().
+     */
+    public static class Refresh {
+        private final InventoryPager pager;
+        final List<Item> oldWindow;
+        final int oldStart;
+        final int oldTotal;
+        private final int generation;
+        private final int scope;
+
+        List<Item> newWindow;
+        int newStart;
+        int newTotal;
+        DiffUtil.DiffResult diff;
+
+        private Refresh(InventoryPager pager, List<Item> oldWindow, int oldStart, int oldTotal, int generation, int scope) {
+            this.pager = pager;
+            this.oldWindow = oldWindow;
+            this.oldStart = oldStart;
+            this.oldTotal = oldTotal;
+            this.generation = generation;
+            this.scope = scope;
+        }
+
+        // Background thread only, returns this for DatabaseExecutor.submit
+        public Refresh compute() {
+            newTotal = pager.count(scope);
+            if (oldWindow.isEmpty()) {
+                newWindow = oldWindow;
+                newStart = oldStart;
+                return this;
+            }
+            // Same keyset anchor and row budget as the window on screen
+            int firstId = oldWindow.get(0).getId();
+            newWindow = pager.rowsAfter(scope, firstId - 1, oldWindow.size());
+            newStart = pager.countBefore(scope, firstId);
+            diff = DiffUtil.calculateDiff(new WindowDiff(oldWindow, newWindow));
+            return this;
+        }
+
+        // True when the window moved (scroll, reload) after beginRefresh() and the result no longer applies
+        boolean isStale() {
+            return generation != pager.generation;
+        }
+
+        // Main thread: installs the re-read rows
+        void commit() {
+            pager.window.clear();
+            pager.window.addAll(newWindow);
+            pager.windowStart = newStart;
+            pager.totalCount = newTotal;
+            pager.generation++;
+            // Rows may have come or gone anywhere, so only the re-read window's positions are still known
+            pager.anchors.clear();
+            pager.rememberAnchors(newStart, newWindow);
+        }
+    }
+
+    private static class WindowDiff extends DiffUtil.Callback {
+        private final List<Item> oldItems;
+        private final List<Item> newItems;
+
+        WindowDiff(List<Item> oldItems, List<Item> newItems) {
+            this.oldItems = oldItems;
+            this.newItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return InventoryAdapter.DIFF_CALLBACK.areItemsTheSame(oldItems.get(oldItemPosition), newItems.get(newItemPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return InventoryAdapter.DIFF_CALLBACK.areContentsTheSame(oldItems.get(oldItemPosition), newItems.get(newItemPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            return InventoryAdapter.DIFF_CALLBACK.getChangePayload(oldItems.get(oldItemPosition), newItems.get(newItemPosition));
+        }
+    }
+}
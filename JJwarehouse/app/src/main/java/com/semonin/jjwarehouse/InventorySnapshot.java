@@ -0,0 +1,268 @@
+package com.semonin.jjwarehouse;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only, column-oriented copy of the whole catalogue for in-memory sorting, filtering
+ * and totals. Each column is a primitive array indexed by row, rows are in id order, and
+ * names are dictionary encoded: every distinct name is stored once in a pool sorted by
+ * name, and a row holds its index into the pool, so comparing two codes compares the names.
+ *
+ * Sorts and filters return row numbers (int[]) instead of Items; a filter takes the rows
+ * to look at (an order, another filter's result, or null for every row) and keeps their
+ * order, so they compose. Nothing here allocates per row except the returned arrays.
+ */
+public final class InventorySnapshot {
+
+    // Name order: case-insensitive, then exact so distinct names never tie
+    static final Comparator<String> NAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            int order = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+            return order != 0 ? order : a.compareTo(b);
+        }
+    };
+
+    // Name code of a row without a name; sorts before every pooled name
+    static final int NO_NAME = -1;
+
+    private final int size;
+    private final int[] ids;
+    private final int[] quantities;
+    private final int[] reorderThresholds;
+    private final int[] nameCodes;
+    private final String[] namePool;
+
+    private InventorySnapshot(int size, int[] ids, int[] quantities, int[] reorderThresholds,
+                              int[] nameCodes, String[] namePool) {
+        this.size = size;
+        this.ids = ids;
+        this.quantities = quantities;
+        this.reorderThresholds = reorderThresholds;
+        this.nameCodes = nameCodes;
+        this.namePool = namePool;
+    }
+
+    /**
+     * Reads every row of a cursor over (id, name, quantity, reorder_threshold), in that
+     * column order and sorted by id, straight into the columns. The cursor is not closed.
+     */
+    static InventorySnapshot read(Cursor cursor) {
+        int size = cursor.getCount();
+        int[] ids = new int[size];
+        int[] quantities = new int[size];
+        int[] reorderThresholds = new int[size];
+        int[] nameCodes = new int[size];
+        // Codes are handed out in order of first appearance, then renumbered once the pool is sorted
+        Map<String, Integer> codes = new HashMap<>();
+        int row = 0;
+        while (row < size && cursor.moveToNext()) {
+            ids[row] = cursor.getInt(0);
+            String name = cursor.getString(1);
+            if (name == null) {
+                nameCodes[row] = NO_NAME;
+            } else {
+                Integer code = codes.get(name);
+                if (code == null) {
+                    code = codes.size();
+                    codes.put(name, code);
+                }
+                nameCodes[row] = code;
+            }
+            quantities[row] = cursor.getInt(2);
+            reorderThresholds[row] = cursor.getInt(3);
+            row++;
+        }
+
+        String[] pool = new String[codes.size()];
+        for (Map.Entry<String, Integer> entry : codes.entrySet()) {
+            pool[entry.getValue()] = entry.getKey();
+        }
+        int[] sortedCodes = sortedOrder(pool);
+        String[] sortedPool = new String[pool.length];
+        int[] recode = new int[pool.length];
+        for (int i = 0; i < sortedCodes.length; i++) {
+            sortedPool[i] = pool[sortedCodes[i]];
+            recode[sortedCodes[i]] = i;
+        }
+        for (int i = 0; i < row; i++) {
+            if (nameCodes[i] != NO_NAME) {
+                nameCodes[i] = recode[nameCodes[i]];
+            }
+        }
+        return new InventorySnapshot(row, ids, quantities, reorderThresholds, nameCodes, sortedPool);
+    }
+
+    // Positions of pool sorted by NAME_ORDER; boxes only once per distinct name
+    private static int[] sortedOrder(final String[] pool) {
+        Integer[] order = new Integer[pool.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> NAME_ORDER.compare(pool[a], pool[b]));
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    public String getName(int row) {
+        int code = nameCodes[row];
+        return code == NO_NAME ? null : namePool[code];
+    }
+
+    public int getQuantity(int row) {
+        return quantities[row];
+    }
+
+    public int getReorderThreshold(int row) {
+        return reorderThresholds[row];
+    }
+
+    // Number of distinct names
+    public int distinctNames() {
+        return namePool.length;
+    }
+
+    // Row holding the item with this id, or -1
+    public int rowOf(int id) {
+        int row = Arrays.binarySearch(ids, 0, size, id);
+        return row >= 0 ? row : -1;
+    }
+
+    // Builds an Item for one row, e.g. for the row that was clicked
+    public Item toItem(int row) {
+        Item item = new Item();
+        item.setId(ids[row]);
+        item.setName(getName(row));
+        item.setQuantity(quantities[row]);
+        item.setReorderThreshold(reorderThresholds[row]);
+        return item;
+    }
+
+    // Rows sorted by name (unnamed first), ties in id order
+    public int[] orderByName() {
+        return orderBy(nameCodes);
+    }
+
+    // Rows sorted by quantity, ties in id order
+    public int[] orderByQuantity() {
+        return orderBy(quantities);
+    }
+
+    // Sorts (key, row) pairs packed into longs, so the sort runs on one primitive array
+    private int[] orderBy(int[] keys) {
+        long[] packed = new long[size];
+        for (int row = 0; row < size; row++) {
+            packed[row] = ((long) keys[row] << 32) | row;
+        }
+        Arrays.sort(packed);
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = (int) packed[i];
+        }
+        return rows;
+    }
+
+    // The rows of rows (every row if null) with min <= quantity <= max, in the same order
+    public int[] whereQuantityBetween(int[] rows, int min, int max) {
+        int count = rowCount(rows);
+        int[] kept = new int[count];
+        int keptCount = 0;
+        for (int i = 0; i < count; i++) {
+            int row = rowAt(rows, i);
+            int quantity = quantities[row];
+            if (quantity >= min && quantity <= max) {
+                kept[keptCount++] = row;
+            }
+        }
+        return Arrays.copyOf(kept, keptCount);
+    }
+
+    // The rows of rows (every row if null) whose name starts with prefix, ignoring case
+    public int[] whereNameStartsWith(int[] rows, String prefix) {
+        // Pool order is case-insensitive first, so the matching names are one run of codes
+        int first = firstCode(prefix, false);
+        int end = firstCode(prefix, true);
+        int count = rowCount(rows);
+        int[] kept = new int[count];
+        int keptCount = 0;
+        for (int i = 0; i < count; i++) {
+            int row = rowAt(rows, i);
+            int code = nameCodes[row];
+            if (code >= first && code < end) {
+                kept[keptCount++] = row;
+            }
+        }
+        return Arrays.copyOf(kept, keptCount);
+    }
+
+    // The rows of rows (every row if null) below their reorder threshold
+    public int[] whereLowStock(int[] rows) {
+        int count = rowCount(rows);
+        int[] kept = new int[count];
+        int keptCount = 0;
+        for (int i = 0; i < count; i++) {
+            int row = rowAt(rows, i);
+            if (quantities[row] < reorderThresholds[row]) {
+                kept[keptCount++] = row;
+            }
+        }
+        return Arrays.copyOf(kept, keptCount);
+    }
+
+    // Item count, units on hand and low-stock count over rows (every row if null)
+    public InventoryStats.Totals totals(int[] rows) {
+        int count = rowCount(rows);
+        long totalQuantity = 0;
+        int lowStock = 0;
+        for (int i = 0; i < count; i++) {
+            int row = rowAt(rows, i);
+            totalQuantity += quantities[row];
+            if (quantities[row] < reorderThresholds[row]) {
+                lowStock++;
+            }
+        }
+        return new InventoryStats.Totals(count, totalQuantity, lowStock);
+    }
+
+    private int rowCount(int[] rows) {
+        return rows == null ? size : rows.length;
+    }
+
+    private static int rowAt(int[] rows, int i) {
+        return rows == null ? i : rows[i];
+    }
+
+    // First pool index whose name does not sort before prefix (afterMatches: before or match)
+    private int firstCode(String prefix, boolean afterMatches) {
+        int low = 0;
+        int high = namePool.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            String name = namePool[middle];
+            boolean before = String.CASE_INSENSITIVE_ORDER.compare(name, prefix) < 0
+                    || (afterMatches && name.regionMatches(true, 0, prefix, 0, prefix.length()));
+            if (before) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
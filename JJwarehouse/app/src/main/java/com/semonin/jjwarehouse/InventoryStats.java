@@ -0,0 +1,77 @@
+package com.semonin.jjwarehouse;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Dashboard aggregates over items (row count, units on hand, rows below their reorder
+ * threshold), kept in a single-row table by triggers so reading them is O(1) instead of
+ * a scan. Also owns the partial index that makes low-stock lookups proportional to the
+ * number of low-stock rows. Used by DatabaseHelper.getInventoryTotals() and getLowStockItems().
+ */
+final class InventoryStats {
+
+    static final String TABLE_STATS = "inventory_stats";
+    static final String COLUMN_ITEM_COUNT = "item_count";
+    static final String COLUMN_TOTAL_QUANTITY = "total_quantity";
+    static final String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+
+    // The low-stock predicate, written exactly like this wherever the partial index should be used
+    static final String LOW_STOCK = DatabaseHelper.COLUMN_QUANTITY + " < " + DatabaseHelper.COLUMN_REORDER_THRESHOLD;
+
+    // A snapshot of the aggregates
+    static final class Totals {
+        final int itemCount;
+        final long totalQuantity;
+        final int lowStockCount;
+
+        Totals(int itemCount, long totalQuantity, int lowStockCount) {
+            this.itemCount = itemCount;
+            this.totalQuantity = totalQuantity;
+            this.lowStockCount = lowStockCount;
+        }
+    }
+
+    private InventoryStats() {
+    }
+
+    // Creates the aggregates table, seeds it from the existing rows, and adds the triggers and index
+    static void create(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_STATS + " ("
+                + "id INTEGER PRIMARY KEY CHECK (id = 1), "
+                + COLUMN_ITEM_COUNT + " INTEGER NOT NULL, "
+                + COLUMN_TOTAL_QUANTITY + " INTEGER NOT NULL, "
+                + COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL)");
+        db.execSQL("INSERT INTO " + TABLE_STATS + " SELECT 1, COUNT(*), IFNULL(SUM(quantity), 0), "
+                + "IFNULL(SUM(" + lowStock("") + "), 0) FROM items");
+
+        // NULL quantities count as 0 units and never as low stock, same as the partial index
+        db.execSQL("CREATE TRIGGER items_stats_ai AFTER INSERT ON items BEGIN "
+                + "UPDATE " + TABLE_STATS + " SET "
+                + COLUMN_ITEM_COUNT + " = " + COLUMN_ITEM_COUNT + " + 1, "
+                + COLUMN_TOTAL_QUANTITY + " = " + COLUMN_TOTAL_QUANTITY + " + IFNULL(new.quantity, 0), "
+                + COLUMN_LOW_STOCK_COUNT + " = " + COLUMN_LOW_STOCK_COUNT + " + " + lowStock("new.")
+                + " WHERE id = 1; END");
+        db.execSQL("CREATE TRIGGER items_stats_ad AFTER DELETE ON items BEGIN "
+                + "UPDATE " + TABLE_STATS + " SET "
+                + COLUMN_ITEM_COUNT + " = " + COLUMN_ITEM_COUNT + " - 1, "
+                + COLUMN_TOTAL_QUANTITY + " = " + COLUMN_TOTAL_QUANTITY + " - IFNULL(old.quantity, 0), "
+                + COLUMN_LOW_STOCK_COUNT + " = " + COLUMN_LOW_STOCK_COUNT + " - " + lowStock("old.")
+                + " WHERE id = 1; END");
+        // Renames do not touch the aggregates, so they do not fire this
+        db.execSQL("CREATE TRIGGER items_stats_au AFTER UPDATE OF quantity, reorder_threshold ON items BEGIN "
+                + "UPDATE " + TABLE_STATS + " SET "
+                + COLUMN_TOTAL_QUANTITY + " = " + COLUMN_TOTAL_QUANTITY
+                + " + IFNULL(new.quantity, 0) - IFNULL(old.quantity, 0), "
+                + COLUMN_LOW_STOCK_COUNT + " = " + COLUMN_LOW_STOCK_COUNT
+                + " + " + lowStock("new.") + " - " + lowStock("old.")
+                + " WHERE id = 1; END");
+
+        // Holds only low-stock rows, and every column the low-stock query reads
+        db.execSQL("CREATE INDEX idx_items_low_stock ON items(id, quantity, reorder_threshold, name) WHERE " + LOW_STOCK);
+    }
+
+    // 1 if the row is below its threshold, else 0 (also for NULL quantity)
+    private static String lowStock(String row) {
+        return "IFNULL(" + row + "quantity < " + row + "reorder_threshold, 0)";
+    }
+}
@@ -0,0 +1,466 @@
+package com.semonin.jjwarehouse;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming export and import of the items table, for reconciliation with other
+ * systems. Memory use does not depend on the table size:
+ * - export walks items in id order with keyset windows of EXPORT_WINDOW rows, so at
+ *   most one window is in memory and each row is written as soon as it is read;
+ * - import parses one record at a time and commits every IMPORT_CHUNK rows, so no
+ *   transaction (or journal) grows with the file.
+ *
+ * Rows are matched on guid: an imported row whose guid exists updates that item,
+ * anything else is inserted. Re-running an import is therefore harmless, which is how
+ * an import that failed part way is resumed.
+ *
+ * CSV has a header row (guid,name,quantity,reorder_threshold,sku, in any order; guid,
+ * reorder_threshold and sku optional) and RFC 4180 quoting. An empty unquoted name is
+ * null, "" is the empty string. JSON is an array of objects with the same keys. A file
+ * without sku leaves existing SKUs alone; with it, a blank SKU removes the item's. Negative
+ * quantities and thresholds are imported as 0, and an existing item's quantity never
+ * drops below the units it holds in locations.
+ */
+public final class InventoryTransfer {
+
+    public enum Format { CSV, JSON }
+
+    static final int EXPORT_WINDOW = 1_000;
+    static final int IMPORT_CHUNK = 500;
+
+    private static final String KEY_GUID = ChangeLog.COLUMN_GUID;
+    private static final String KEY_NAME = DatabaseHelper.COLUMN_NAME;
+    private static final String KEY_QUANTITY = DatabaseHelper.COLUMN_QUANTITY;
+    private static final String KEY_REORDER_THRESHOLD = DatabaseHelper.COLUMN_REORDER_THRESHOLD;
+    private static final String KEY_SKU = DatabaseHelper.COLUMN_SKU;
+
+    // Counts of what an import wrote, including chunks committed before a failure
+    public static final class ImportResult {
+        int inserted;
+        int updated;
+
+        public int getInserted() { return inserted; }
+        public int getUpdated() { return updated; }
+    }
+
+    private InventoryTransfer() {
+    }
+
+    // Writes every item to out and returns how many. out is flushed, not closed.
+    static int export(SQLiteDatabase db, OutputStream out, Format format) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        RowWriter rows = format == Format.CSV ? new CsvRowWriter(writer) : new JsonRowWriter(writer);
+        rows.begin();
+
+        // Not one snapshot: writers are not blocked for the length of an export, and a row
+        // changed while it runs is exported as of its window. Each row appears exactly once.
+        int count = 0;
+        long lastId = 0;
+        while (true) {
+            Cursor cursor = db.rawQuery("SELECT id, guid, name, quantity, reorder_threshold, sku FROM "
+                    + DatabaseHelper.TABLE_ITEMS + " WHERE id > ? ORDER BY id LIMIT " + EXPORT_WINDOW,
+                    new String[]{String.valueOf(lastId)});
+            int inWindow = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    rows.write(cursor.getString(1), cursor.getString(2), cursor.getInt(3), cursor.getInt(4),
+                            cursor.getString(5));
+                    inWindow++;
+                }
+            } finally {
+                cursor.close();
+            }
+            count += inWindow;
+            if (inWindow < EXPORT_WINDOW) {
+                break;
+            }
+        }
+
+        rows.end();
+        writer.flush();
+        return count;
+    }
+
+    // Reads records from in until it ends, upserting them into items in chunked transactions
+    static void importItems(SQLiteDatabase db, InputStream in, Format format, ImportResult result) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Upserter upserter = new Upserter(db, result);
+        try {
+            if (format == Format.CSV) {
+                readCsv(reader, upserter);
+            } else {
+                readJson(reader, upserter);
+            }
+            upserter.commit();
+        } finally {
+            upserter.close();
+        }
+    }
+
+    private interface RowWriter {
+        void begin() throws IOException;
+        void write(String guid, String name, int quantity, int reorderThreshold, String sku) throws IOException;
+        void end() throws IOException;
+    }
+
+    private static final class CsvRowWriter implements RowWriter {
+        private final Writer out;
+
+        CsvRowWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            out.write(KEY_GUID + "," + KEY_NAME + "," + KEY_QUANTITY + "," + KEY_REORDER_THRESHOLD + "," + KEY_SKU + "\r\n");
+        }
+
+        @Override
+        public void write(String guid, String name, int quantity, int reorderThreshold, String sku) throws IOException {
+            writeField(guid);
+            out.write(',');
+            writeField(name);
+            out.write(',');
+            out.write(Integer.toString(quantity));
+            out.write(',');
+            out.write(Integer.toString(reorderThreshold));
+            out.write(',');
+            writeField(sku);
+            out.write("\r\n");
+        }
+
+        private void writeField(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (!needsQuotes(value)) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    out.write('"');
+                }
+                out.write(c);
+            }
+            out.write('"');
+        }
+
+        // Empty strings are quoted too, an empty unquoted field reads back as null
+        private static boolean needsQuotes(String value) {
+            if (value.isEmpty() || value.charAt(0) == ' ' || value.charAt(value.length() - 1) == ' ') {
+                return true;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
+    private static final class JsonRowWriter implements RowWriter {
+        private final JsonWriter json;
+
+        JsonRowWriter(Writer out) {
+            json = new JsonWriter(out);
+        }
+
+        @Override
+        public void begin() throws IOException {
+            json.beginArray();
+        }
+
+        @Override
+        public void write(String guid, String name, int quantity, int reorderThreshold, String sku) throws IOException {
+            json.beginObject();
+            json.name(KEY_GUID).value(guid);
+            json.name(KEY_NAME).value(name);
+            json.name(KEY_QUANTITY).value(quantity);
+            json.name(KEY_REORDER_THRESHOLD).value(reorderThreshold);
+            json.name(KEY_SKU).value(sku);
+            json.endObject();
+        }
+
+        @Override
+        public void end() throws IOException {
+            // Flushed rather than closed, the stream belongs to the caller
+            json.endArray();
+            json.flush();
+        }
+    }
+
+    private static void readJson(Reader in, Upserter upserter) throws IOException {
+        JsonReader json = new JsonReader(in);
+        json.beginArray();
+        while (json.hasNext()) {
+            String guid = null;
+            String name = null;
+            Integer quantity = null;
+            int reorderThreshold = 0;
+            String sku = null;
+            boolean hasSku = false;
+            json.beginObject();
+            while (json.hasNext()) {
+                String key = json.nextName();
+                hasSku |= KEY_SKU.equals(key);
+                if (json.peek() == JsonToken.NULL) {
+                    json.nextNull();
+                } else if (KEY_GUID.equals(key)) {
+                    guid = json.nextString();
+                } else if (KEY_NAME.equals(key)) {
+                    name = json.nextString();
+                } else if (KEY_QUANTITY.equals(key)) {
+                    quantity = json.nextInt();
+                } else if (KEY_REORDER_THRESHOLD.equals(key)) {
+                    reorderThreshold = json.nextInt();
+                } else if (KEY_SKU.equals(key)) {
+                    sku = json.nextString();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+            if (quantity == null) {
+                throw new IOException("Item " + (upserter.rows + 1) + " has no quantity");
+            }
+            upserter.upsert(guid, name, quantity, reorderThreshold, hasSku, sku);
+        }
+        json.endArray();
+    }
+
+    private static void readCsv(Reader in, Upserter upserter) throws IOException {
+        CsvReader csv = new CsvReader(in);
+        List<String> header = csv.next();
+        if (header == null) {
+            return;
+        }
+        int guid = header.indexOf(KEY_GUID);
+        int name = header.indexOf(KEY_NAME);
+        int quantity = header.indexOf(KEY_QUANTITY);
+        int reorderThreshold = header.indexOf(KEY_REORDER_THRESHOLD);
+        int sku = header.indexOf(KEY_SKU);
+        if (name < 0 || quantity < 0) {
+            throw new IOException("CSV header needs " + KEY_NAME + " and " + KEY_QUANTITY + ": " + header);
+        }
+
+        List<String> record;
+        while ((record = csv.next()) != null) {
+            if (record.size() != header.size()) {
+                if (record.size() == 1 && record.get(0) == null) {
+                    continue; // blank line
+                }
+                throw new IOException("Line " + csv.line + ": expected " + header.size() + " fields, got " + record.size());
+            }
+            try {
+                upserter.upsert(guid < 0 ? null : record.get(guid), record.get(name),
+                        Integer.parseInt(record.get(quantity)),
+                        reorderThreshold < 0 || record.get(reorderThreshold) == null
+                                ? 0 : Integer.parseInt(record.get(reorderThreshold)),
+                        sku >= 0, sku < 0 ? null : record.get(sku));
+            } catch (NumberFormatException e) {
+                throw new IOException("Line " + csv.line + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Incremental RFC 4180 reader. next() returns the fields of one record in a list
+     * that is reused for the next record; an empty unquoted field is null.
+     */
+    private static final class CsvReader {
+        private final Reader in;
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+        private int pending = -2;
+        int line;
+
+        CsvReader(Reader in) {
+            this.in = in;
+        }
+
+        private int read() throws IOException {
+            if (pending != -2) {
+                int c = pending;
+                pending = -2;
+                return c;
+            }
+            return in.read();
+        }
+
+        List<String> next() throws IOException {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            line++;
+            fields.clear();
+            while (true) {
+                field.setLength(0);
+                boolean quoted = false;
+                if (c == '"') {
+                    quoted = true;
+                    while (true) {
+                        c = read();
+                        if (c == -1) {
+                            throw new IOException("Line " + line + ": unterminated quoted field");
+                        }
+                        if (c == '"') {
+                            c = read();
+                            if (c != '"') {
+                                break;
+                            }
+                        } else if (c == '\n') {
+                            line++;
+                        }
+                        field.append((char) c);
+                    }
+                } else {
+                    while (c != ',' && c != '\r' && c != '\n' && c != -1) {
+                        field.append((char) c);
+                        c = read();
+                    }
+                }
+                fields.add(quoted || field.length() > 0 ? field.toString() : null);
+
+                if (c == ',') {
+                    c = read();
+                    continue;
+                }
+                if (c == '\r') {
+                    c = read();
+                    if (c != '\n') {
+                        pending = c;
+                    }
+                    return fields;
+                }
+                if (c == '\n' || c == -1) {
+                    return fields;
+                }
+                throw new IOException("Line " + line + ": unexpected '" + (char) c + "' after quoted field");
+            }
+        }
+    }
+
+    // Update-or-insert by guid with compiled statements, committing every IMPORT_CHUNK rows
+    private static final class Upserter {
+        private final SQLiteDatabase db;
+        private final ImportResult result;
+        private final SQLiteStatement update;
+        private final SQLiteStatement insert;
+        private int inChunk;
+        private int chunkInserted;
+        private int chunkUpdated;
+        int rows;
+
+        Upserter(SQLiteDatabase db, ImportResult result) {
+            this.db = db;
+            this.result = result;
+            // Minimum SDK has no ON CONFLICT DO UPDATE, and INSERT OR REPLACE would delete and
+            // re-create the row (new id, delete + insert in the change log). An existing item
+            // keeps at least the units it holds in locations, and its SKU unless the file has one.
+            update = db.compileStatement("UPDATE " + DatabaseHelper.TABLE_ITEMS + " SET name = ?, quantity = MAX(?, "
+                    + Locations.locatedQuantity(DatabaseHelper.TABLE_ITEMS + ".id") + "), "
+                    + "reorder_threshold = ?, sku = CASE ? WHEN 1 THEN ? ELSE sku END WHERE guid = ?");
+            insert = db.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_ITEMS
+                    + " (name, quantity, reorder_threshold, sku, guid) VALUES (?, ?, ?, CASE ? WHEN 1 THEN ? END, ?)");
+        }
+
+        // hasSku: whether the file carries SKUs at all, so a missing one clears rather than keeps
+        void upsert(String guid, String name, int quantity, int reorderThreshold, boolean hasSku, String sku)
+                throws IOException {
+            if (inChunk == 0) {
+                db.beginTransactionNonExclusive();
+            }
+            rows++;
+            sku = DatabaseHelper.normalizeSku(sku);
+            try {
+                boolean updated = false;
+                if (guid != null) {
+                    bind(update, guid, name, quantity, reorderThreshold, hasSku, sku);
+                    updated = update.executeUpdateDelete() > 0;
+                }
+                if (updated) {
+                    chunkUpdated++;
+                } else {
+                    bind(insert, guid, name, quantity, reorderThreshold, hasSku, sku);
+                    insert.executeInsert();
+                    chunkInserted++;
+                }
+            } catch (SQLiteConstraintException e) {
+                throw new IOException("Item " + rows + ": SKU " + sku + " is already used by another item", e);
+            }
+            if (++inChunk == IMPORT_CHUNK) {
+                commit();
+            }
+        }
+
+        private static void bind(SQLiteStatement statement, String guid, String name, int quantity, int reorderThreshold,
+                                 boolean hasSku, String sku) {
+            statement.clearBindings();
+            if (name != null) {
+                statement.bindString(1, name);
+            }
+            statement.bindLong(2, Math.max(0, quantity));
+            statement.bindLong(3, Math.max(0, reorderThreshold));
+            statement.bindLong(4, hasSku ? 1 : 0);
+            if (sku != null) {
+                statement.bindString(5, sku);
+            }
+            if (guid != null) {
+                statement.bindString(6, guid);
+            }
+        }
+
+        void commit() {
+            if (inChunk == 0) {
+                return;
+            }
+            db.setTransactionSuccessful();
+            db.endTransaction();
+            result.inserted += chunkInserted;
+            result.updated += chunkUpdated;
+            inChunk = 0;
+            chunkInserted = 0;
+            chunkUpdated = 0;
+        }
+
+        // Rolls back a chunk left open by a failure
+        void close() {
+            if (inChunk > 0) {
+                db.endTransaction();
+                inChunk = 0;
+            }
+            update.close();
+            insert.close();
+        }
+    }
+}
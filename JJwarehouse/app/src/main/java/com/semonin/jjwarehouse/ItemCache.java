@@ -0,0 +1,133 @@
+package com.semonin.jjwarehouse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache of items keyed by id, evicting the least recently used entry.
+ * DatabaseHelper keeps it write-through: every add, update and delete updates or
+ * removes the cached row, so a hit is never stale. Copies go in and out so callers
+ * cannot mutate cached rows. Thread safe.
+ */
+public class ItemCache {
+
+    private final LinkedHashMap<Integer, Item> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxSize;
+
+    // Bumped by every write, so a row read from the database before a concurrent write is not cached
+    private long writeStamp;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ItemCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+    }
+
+    // Copy of the cached item, or null on a miss
+    public synchronized Item get(int id) {
+        Item item = entries.get(id);
+        if (item == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copyOf(item);
+    }
+
+    // As get(), but not counted in the hit/miss statistics; for internal lookups that are not reads by id
+    public synchronized Item peek(int id) {
+        Item item = entries.get(id);
+        return item == null ? null : copyOf(item);
+    }
+
+    // Write-through: called after the row was written to the database
+    public synchronized void put(Item item) {
+        writeStamp++;
+        entries.put(item.getId(), copyOf(item));
+        trimTo(maxSize);
+    }
+
+    public synchronized void remove(int id) {
+        writeStamp++;
+        entries.remove(id);
+    }
+
+    public synchronized void clear() {
+        writeStamp++;
+        entries.clear();
+    }
+
+    // Take before reading a row from the database, then pass to putIfUnchanged
+    public synchronized long readStamp() {
+        return writeStamp;
+    }
+
+    // Caches a row read from the database unless a write happened since readStamp() was taken
+    public synchronized void putIfUnchanged(Item item, long stamp) {
+        if (stamp == writeStamp) {
+            entries.put(item.getId(), copyOf(item));
+            trimTo(maxSize);
+        }
+    }
+
+    // Changes the bound, evicting least recently used entries if it shrank
+    public synchronized void resize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        trimTo(maxSize);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int maxSize() {
+        return maxSize;
+    }
+
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    public synchronized long missCount() {
+        return misses;
+    }
+
+    public synchronized long evictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        int hitPercent = lookups == 0 ? 0 : (int) (100 * hits / lookups);
+        return "ItemCache[size=" + entries.size() + "/" + maxSize + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", hitRate=" + hitPercent + "%]";
+    }
+
+    private void trimTo(int size) {
+        while (entries.size() > size) {
+            Map.Entry<Integer, Item> eldest = entries.entrySet().iterator().next();
+            entries.remove(eldest.getKey());
+            evictions++;
+        }
+    }
+
+    private static Item copyOf(Item item) {
+        Item copy = new Item();
+        copy.setId(item.getId());
+        copy.setName(item.getName());
+        copy.setQuantity(item.getQuantity());
+        copy.setReorderThreshold(item.getReorderThreshold());
+        copy.setVersion(item.getVersion());
+        copy.setSku(item.getSku());
+        return copy;
+    }
+}
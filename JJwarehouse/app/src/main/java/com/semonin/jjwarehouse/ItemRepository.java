@@ -0,0 +1,163 @@
+package com.semonin.jjwarehouse;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+/**
+ * Observable view of the items table on top of DatabaseHelper. Nothing here polls:
+ * DatabaseHelper reports each committed write to items, that bumps a version number,
+ * and only streams with an active observer re-query.
+ */
+public class ItemRepository implements DatabaseHelper.OnTableChangedListener {
+
+    // How long a stream whose load found the database queue full waits before trying again
+    static final long RETRY_DELAY_MS = 250;
+
+    private final DatabaseHelper db;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger version = new AtomicInteger();
+    // Latest items version, posted to the main thread; starts at 0 before any write
+    private final MutableLiveData<Integer> itemsVersion = new MutableLiveData<>(0);
+
+    public ItemRepository(DatabaseHelper db) {
+        this.db = db;
+        db.addOnTableChangedListener(this);
+    }
+
+    public DatabaseHelper getDatabase() {
+        return db;
+    }
+
+    // Any thread, called by DatabaseHelper after a write
+    @Override
+    public void onTableChanged(String table) {
+        // Stock moves change what a location-scoped inventory shows, so they count as item writes
+        if (DatabaseHelper.TABLE_ITEMS.equals(table) || Locations.TABLE_STOCK.equals(table)) {
+            itemsVersion.postValue(version.incrementAndGet());
+        }
+    }
+
+    // Emits a new number after every write to items; several quick writes may arrive as one
+    public LiveData<Integer> getItemsVersion() {
+        return itemsVersion;
+    }
+
+    public int getVersion() {
+        return version.get();
+    }
+
+    /**
+     * A single item, re-read after writes while observed; null if it does not exist.
+     * Write notifications are per table, so a write to another item re-runs the query
+     * too, but that is an ItemCache hit (every writer evicts the rows it touches) and
+     * costs no SQL. Only a new version of this row, or its deletion, is delivered.
+     */
+    public LiveData<Item> getItem(final int id) {
+        return new QueryLiveData<>(() -> db.getItemById(id), ItemRepository::sameVersion);
+    }
+
+    // Dashboard aggregates, re-read (in O(1)) after writes while observed
+    public LiveData<InventoryStats.Totals> getTotals() {
+        return new QueryLiveData<>(db::getInventoryTotals, (held, loaded) -> false);
+    }
+
+    // Every change to an item moves its version (see DatabaseMigrations), so an equal version is the same row
+    private static boolean sameVersion(Item held, Item loaded) {
+        if (held == null || loaded == null) {
+            return Objects.equals(held, loaded);
+        }
+        return held.getVersion() == loaded.getVersion();
+    }
+
+    // Stops listening to the database, the streams stop updating
+    public void close() {
+        db.removeOnTableChangedListener(this);
+    }
+
+    // Runs query on DatabaseExecutor whenever it is observed and items changed since its last run
+    private class QueryLiveData<T> extends LiveData<T> {
+        private final Callable<T> query;
+        // True when a reloaded value shows nothing new, so observers are not called again for it
+        private final BiPredicate<T, T> unchanged;
+        // Version of the value held, -1 before the first load
+        private int loadedVersion = -1;
+        private int requestedVersion = -1;
+
+        private final Observer<Integer> invalidation = new Observer<Integer>() {
+            @Override
+            public void onChanged(Integer latest) {
+                if (latest != requestedVersion) {
+                    load(latest);
+                }
+            }
+        };
+
+        private final Runnable retry = new Runnable() {
+            @Override
+            public void run() {
+                if (hasActiveObservers()) {
+                    invalidation.onChanged(itemsVersion.getValue());
+                }
+            }
+        };
+
+        QueryLiveData(Callable<T> query, BiPredicate<T, T> unchanged) {
+            this.query = query;
+            this.unchanged = unchanged;
+        }
+
+        @Override
+        protected void onActive() {
+            // Delivers the current version at once, so a stale or missing value is (re)loaded
+            itemsVersion.observeForever(invalidation);
+        }
+
+        @Override
+        protected void onInactive() {
+            itemsVersion.removeObserver(invalidation);
+            handler.removeCallbacks(retry);
+        }
+
+        private void load(final int atVersion) {
+            requestedVersion = atVersion;
+            DatabaseExecutor.submit(query, new DatabaseExecutor.Callback<T>() {
+                @Override
+                public void onResult(T result) {
+                    // A later load may already have finished
+                    if (atVersion > loadedVersion) {
+                        boolean first = loadedVersion == -1;
+                        loadedVersion = atVersion;
+                        if (first || !unchanged.test(getValue(), result)) {
+                            setValue(result);
+                        }
+                    }
+                }
+
+                // Rejected by a full queue or failed: forget the request, so the next version
+                // (or the next observer) loads again instead of treating it as done
+                @Override
+                public void onError(Exception e) {
+                    DatabaseExecutor.Callback.super.onError(e);
+                    if (requestedVersion != atVersion) {
+                        return;
+                    }
+                    requestedVersion = loadedVersion;
+                    if (e instanceof RejectedExecutionException) {
+                        // Nothing may write again for a while, so do not wait for that
+                        handler.postDelayed(retry, RETRY_DELAY_MS);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.semonin.jjwarehouse;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Full-text index over items.name, stored in an FTS4 external-content table so names
+ * are not duplicated. Triggers on items keep it in sync with addItem, updateItem and
+ * deleteItem. Used by DatabaseHelper.getItemsFilteredBy().
+ */
+final class ItemSearchIndex {
+
+    static final String TABLE_FTS = "items_fts";
+
+    private ItemSearchIndex() {
+    }
+
+    // Creates the index, its sync triggers, and fills it from the existing rows
+    static void create(SQLiteDatabase db) {
+        // prefix="2,3" keeps short prefix queries (the common case while typing) off the full term list
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_FTS + " USING fts4(content=\"items\", name, prefix=\"2,3\")");
+
+        // External content tables must see the old row before it changes, so deletes run BEFORE
+        db.execSQL("CREATE TRIGGER items_fts_bu BEFORE UPDATE OF name ON items BEGIN "
+                + "DELETE FROM " + TABLE_FTS + " WHERE docid = old.id; END");
+        db.execSQL("CREATE TRIGGER items_fts_bd BEFORE DELETE ON items BEGIN "
+                + "DELETE FROM " + TABLE_FTS + " WHERE docid = old.id; END");
+        db.execSQL("CREATE TRIGGER items_fts_au AFTER UPDATE OF name ON items BEGIN "
+                + "INSERT INTO " + TABLE_FTS + "(docid, name) VALUES (new.id, new.name); END");
+        db.execSQL("CREATE TRIGGER items_fts_ai AFTER INSERT ON items BEGIN "
+                + "INSERT INTO " + TABLE_FTS + "(docid, name) VALUES (new.id, new.name); END");
+
+        db.execSQL("INSERT INTO " + TABLE_FTS + "(" + TABLE_FTS + ") VALUES ('rebuild')");
+    }
+
+    /**
+     * Turns free text into an FTS MATCH expression: every token becomes a prefix term
+     * and all terms must match ("red bo" -> "red* bo*").
+     *
+     * @return the expression, or null when the input has no searchable characters
+     */
+    static String toMatchQuery(String input) {
+        if (input == null) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder(input.length() + 8);
+        int tokenStart = -1;
+        for (int i = 0; i <= input.length(); i++) {
+            char c = i < input.length() ? input.charAt(i) : ' ';
+            // Same split rule as the "simple" tokenizer: ASCII letters/digits and anything non-ASCII
+            boolean tokenChar = c >= 128 || Character.isLetterOrDigit(c);
+            if (tokenChar && tokenStart == -1) {
+                tokenStart = i;
+            } else if (!tokenChar && tokenStart != -1) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append(foldAscii(input.substring(tokenStart, i))).append('*');
+                tokenStart = -1;
+            }
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+
+    /**
+     * Lower-cases ASCII letters and nothing else, as the "simple" tokenizer does to names
+     * and query terms; "Ä" stays "Ä", so it only matches "Ä".
+     */
+    static String foldAscii(String text) {
+        char[] folded = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (folded == null) {
+                    folded = text.toCharArray();
+                }
+                folded[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return folded == null ? text : new String(folded);
+    }
+}
@@ -1,7 +1,148 @@
 package com.semonin.jjwarehouse;
 
-import androidx.lifecycle.ViewModel;
+import android.app.Application;
 
-public class ItemViewModel extends ViewModel {
-    // Add LiveData and methods to interact with the database
-}
\ No newline at end of file
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Activity-scoped state for the inventory screens. Holds the paged inventory window,
+ * the live search and recently viewed items across configuration changes, and
+ * re-queries only after ItemRepository reports a write to items.
+ */
+public class ItemViewModel extends AndroidViewModel {
+
+    // Rows per keyset page and how many pages stay in memory at once
+    static final int PAGE_SIZE = 50;
+    static final int MAX_PAGES = 5;
+    private static final int ITEM_STREAMS = 16;
+
+    // One set of search results, as delivered by LiveSearch
+    public static final class SearchResults {
+        public final String query;
+        public final List<Item> items;
+        private Runnable onRendered;
+
+        SearchResults(String query, List<Item> items, Runnable onRendered) {
+            this.query = query;
+            this.items = items;
+            this.onRendered = onRendered;
+        }
+
+        // Call once the results are on screen; later calls (e.g. after rotation) are ignored
+        public void rendered() {
+            if (onRendered != null) {
+                onRendered.run();
+                onRendered = null;
+            }
+        }
+    }
+
+    private final ItemRepository repository;
+    private final InventoryPager pager;
+    private final LiveSearch liveSearch;
+    private final MutableLiveData<SearchResults> searchResults = new MutableLiveData<>();
+    private final LiveData<InventoryStats.Totals> totals;
+
+    // Items version the pager's rows were last read at
+    private int pagerVersion;
+
+    // Recently opened items, so reopening one does not query again unless it was written
+    private final LinkedHashMap<Integer, LiveData<Item>> itemStreams =
+            new LinkedHashMap<Integer, LiveData<Item>>(ITEM_STREAMS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, LiveData<Item>> eldest) {
+                    return size() > ITEM_STREAMS;
+                }
+            };
+
+    private final Observer<Integer> searchInvalidation = new Observer<Integer>() {
+        @Override
+        public void onChanged(Integer version) {
+            liveSearch.invalidate();
+        }
+    };
+
+    public ItemViewModel(@NonNull Application application) {
+        super(application);
+        DatabaseHelper db = DatabaseHelper.getInstance(application);
+        repository = new ItemRepository(db);
+        totals = repository.getTotals();
+
+        pager = new InventoryPager(db, PAGE_SIZE, MAX_PAGES);
+        pagerVersion = repository.getVersion();
+        pager.load();
+
+        liveSearch = new LiveSearch(db, new LiveSearch.Listener() {
+            @Override
+            public void onResults(String query, List<Item> results, Runnable onRendered) {
+                searchResults.setValue(new SearchResults(query, results, onRendered));
+            }
+        });
+        repository.getItemsVersion().observeForever(searchInvalidation);
+    }
+
+    public InventoryPager getInventory() {
+        return pager;
+    }
+
+    // Shows only the items held at one location, or every item with InventoryPager.ALL_LOCATIONS
+    public void setLocation(int locationId) {
+        pager.setLocation(locationId);
+    }
+
+    // Emits after every write to items; pass each value to consumeInventoryVersion
+    public LiveData<Integer> getItemsVersion() {
+        return repository.getItemsVersion();
+    }
+
+    /**
+     * Returns true if the inventory window has not been refreshed for this version yet,
+     * and records that it now will be. A value replayed to a new observer after rotation
+     * returns false, so it does not trigger another query.
+     */
+    public boolean consumeInventoryVersion(int version) {
+        if (version == pagerVersion) {
+            return false;
+        }
+        pagerVersion = version;
+        return true;
+    }
+
+    public LiveData<Item> getItem(int id) {
+        LiveData<Item> stream = itemStreams.get(id);
+        if (stream == null) {
+            stream = repository.getItem(id);
+            itemStreams.put(id, stream);
+        }
+        return stream;
+    }
+
+    // Item count, units on hand and low-stock count for the dashboard line
+    public LiveData<InventoryStats.Totals> getTotals() {
+        return totals;
+    }
+
+    public LiveSearch getLiveSearch() {
+        return liveSearch;
+    }
+
+    public LiveData<SearchResults> getSearchResults() {
+        return searchResults;
+    }
+
+    @Override
+    protected void onCleared() {
+        repository.getItemsVersion().removeObserver(searchInvalidation);
+        repository.close();
+        liveSearch.cancel();
+        pager.setListener(null);
+    }
+}
@@ -0,0 +1,44 @@
+package com.semonin.jjwarehouse;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples in a fixed ring buffer and answers
+ * percentile queries over them. Thread safe.
+ */
+public class LatencyRecorder {
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    public LatencyRecorder(int capacity) {
+        samples = new long[capacity];
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 1, e.g. 0.99 for p99
+     * @return the latency in nanoseconds at that percentile, or 0 with no samples
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,214 @@
+package com.semonin.jjwarehouse;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search-as-you-type pipeline between the grid's search box and getItemsFilteredBy().
+ * Keystrokes are debounced, a query still running when newer input arrives is cancelled,
+ * and only the result for the latest input is delivered. Recent results are cached, and a
+ * complete cached result for a shorter prefix is filtered in memory instead of re-querying.
+ * Main thread only.
+ */
+public class LiveSearch {
+
+    static final long DEBOUNCE_MS = 150;
+    static final int RESULT_LIMIT = 200;
+    private static final int CACHE_SIZE = 16;
+
+    public interface Listener {
+        /**
+         * Receives results for the latest query. Call onRendered once they are on screen so
+         * keystroke-to-render latency can be recorded.
+         */
+        void onResults(String query, List<Item> results, Runnable onRendered);
+    }
+
+    private final DatabaseHelper db;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Keyed by the normalized FTS query, least recently used first
+    private final LinkedHashMap<String, List<Item>> cache = new LinkedHashMap<String, List<Item>>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Item>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final LatencyRecorder latency = new LatencyRecorder(512);
+
+    private String currentText = "";
+    // When the last keystroke happened, until its results are on screen; 0 when none is waiting
+    private long unrenderedKeystrokeNanos;
+    // Incremented per search; results from an older generation are dropped
+    private int generation;
+    private CancellationSignal running;
+    private Runnable pending;
+
+    public LiveSearch(DatabaseHelper db, Listener listener) {
+        this.db = db;
+        this.listener = listener;
+    }
+
+    // Call for every change of the search box text
+    public void onQueryChanged(String text) {
+        currentText = text == null ? "" : text;
+        unrenderedKeystrokeNanos = SystemClock.elapsedRealtimeNanos();
+        search();
+    }
+
+    // Drops cached results (the data changed) and re-runs the current query. Not a keystroke, so
+    // it adds no latency sample of its own; one still waiting for its results is carried over.
+    public void invalidate() {
+        cache.clear();
+        if (!currentText.isEmpty()) {
+            search();
+        }
+    }
+
+    private void search() {
+        final int expected = ++generation;
+        cancelRunning();
+
+        final String key = ItemSearchIndex.toMatchQuery(currentText);
+        if (key == null) {
+            deliver(expected, currentText, new ArrayList<Item>());
+            return;
+        }
+        List<Item> cached = fromCache(currentText, key);
+        if (cached != null) {
+            deliver(expected, currentText, cached);
+            return;
+        }
+
+        final String query = currentText;
+        pending = () -> {
+            pending = null;
+            runQuery(expected, query, key);
+        };
+        handler.postDelayed(pending, DEBOUNCE_MS);
+    }
+
+    public void cancel() {
+        generation++;
+        cancelRunning();
+    }
+
+    // Recent keystroke-to-render latency at the given percentile (0..1), in milliseconds
+    public double getLatencyMillis(double percentile) {
+        return latency.getPercentile(percentile) / 1e6;
+    }
+
+    public LatencyRecorder getLatencyRecorder() {
+        return latency;
+    }
+
+    private void runQuery(final int expected, final String query, final String key) {
+        final CancellationSignal signal = new CancellationSignal();
+        running = signal;
+        DatabaseExecutor.submit(() -> db.getItemsFilteredBy(query, RESULT_LIMIT, signal),
+                new DatabaseExecutor.Callback<List<Item>>() {
+                    @Override
+                    public void onResult(List<Item> results) {
+                        if (running == signal) {
+                            running = null;
+                        }
+                        cache.put(key, results);
+                        deliver(expected, query, results);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        if (running == signal) {
+                            running = null;
+                        }
+                        // Cancelled by newer input, nothing to report
+                        if (!(e instanceof OperationCanceledException)) {
+                            DatabaseExecutor.Callback.super.onError(e);
+                        }
+                    }
+                });
+    }
+
+    private void deliver(int expected, String query, List<Item> results) {
+        if (expected != generation) {
+            return;
+        }
+        final long keystroke = unrenderedKeystrokeNanos;
+        listener.onResults(query, results, () -> {
+            if (expected == generation && keystroke != 0 && keystroke == unrenderedKeystrokeNanos) {
+                latency.record(SystemClock.elapsedRealtimeNanos() - keystroke);
+                unrenderedKeystrokeNanos = 0;
+            }
+        });
+    }
+
+    private void cancelRunning() {
+        if (pending != null) {
+            handler.removeCallbacks(pending);
+            pending = null;
+        }
+        if (running != null) {
+            running.cancel();
+            running = null;
+        }
+    }
+
+    // Exact hit, or an in-memory filter of a complete result for a shorter prefix of the typed text.
+    // Filtering keeps the prefix result's order, which is the order the database returns.
+    private List<Item> fromCache(String text, String key) {
+        List<Item> hit = cache.get(key);
+        if (hit != null) {
+            return hit;
+        }
+        String[] terms = key.split(" ");
+        for (int length = text.length() - 1; length > 0; length--) {
+            String prefixKey = ItemSearchIndex.toMatchQuery(text.substring(0, length));
+            List<Item> prefixResult = prefixKey == null ? null : cache.get(prefixKey);
+            if (prefixResult == null || prefixResult.size() >= RESULT_LIMIT) {
+                // Missing, or truncated so it may not contain every match of the longer query
+                continue;
+            }
+            List<Item> filtered = new ArrayList<>();
+            for (Item item : prefixResult) {
+                if (matchesAll(item.getName(), terms)) {
+                    filtered.add(item);
+                }
+            }
+            cache.put(key, filtered);
+            return filtered;
+        }
+        return null;
+    }
+
+    // Every "term*" must be a prefix of some word in name, using the FTS tokenizer's rules
+    private static boolean matchesAll(String name, String[] terms) {
+        if (name == null) {
+            return false;
+        }
+        String lower = ItemSearchIndex.foldAscii(name);
+        for (String term : terms) {
+            String prefix = term.substring(0, term.length() - 1);
+            boolean found = false;
+            int index = lower.indexOf(prefix);
+            while (index != -1 && !found) {
+                char before = index == 0 ? ' ' : lower.charAt(index - 1);
+                found = !(before >= 128 || Character.isLetterOrDigit(before));
+                index = lower.indexOf(prefix, index + 1);
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
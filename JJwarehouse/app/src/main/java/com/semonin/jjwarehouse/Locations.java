@@ -0,0 +1,94 @@
+package com.semonin.jjwarehouse;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Where items are kept: sites (warehouses) and the bins inside them, plus how many
+ * units of each item every location holds. items.quantity stays the item's total; stock
+ * rows say where those units are, and units not in any location are "unassigned".
+ * Every writer of items.quantity floors it at the units held in locations (see
+ * locatedQuantity), so a decrement only ever takes unassigned units and the stock rows
+ * never add up to more than the total.
+ *
+ * stock is a WITHOUT ROWID table clustered on (location_id, item_id), so one location's
+ * rows are a single contiguous range of the table and listing or counting them costs
+ * the same however many other locations hold data. idx_stock_item answers "where is
+ * this item" the same way. Rows that reach 0 units are deleted.
+ */
+final class Locations {
+
+    static final String TABLE_LOCATIONS = "locations";
+    static final String COLUMN_LOCATION_ID = "id";
+    static final String COLUMN_LOCATION_NAME = "name";
+    // The site a bin belongs to, or NO_PARENT for a site
+    static final String COLUMN_PARENT_ID = "parent_id";
+
+    static final String TABLE_STOCK = "stock";
+    static final String COLUMN_STOCK_LOCATION = "location_id";
+    static final String COLUMN_STOCK_ITEM = "item_id";
+    static final String COLUMN_STOCK_QUANTITY = "quantity";
+
+    static final int NO_PARENT = 0;
+    // Location id meaning "not in any location", for transfers in and out of locations
+    static final int UNASSIGNED = 0;
+
+    static final class Location {
+        final int id;
+        final String name;
+        final int parentId;
+
+        Location(int id, String name, int parentId) {
+            this.id = id;
+            this.name = name;
+            this.parentId = parentId;
+        }
+    }
+
+    // Units and distinct items held by one location
+    static final class Totals {
+        final int locationId;
+        final int itemCount;
+        final long totalQuantity;
+
+        Totals(int locationId, int itemCount, long totalQuantity) {
+            this.locationId = locationId;
+            this.itemCount = itemCount;
+            this.totalQuantity = totalQuantity;
+        }
+    }
+
+    private Locations() {
+    }
+
+    // SQL for the units of item itemIdSql held in locations: the lowest its items.quantity may go
+    static String locatedQuantity(String itemIdSql) {
+        return "(SELECT IFNULL(SUM(" + COLUMN_STOCK_QUANTITY + "), 0) FROM " + TABLE_STOCK
+                + " WHERE " + COLUMN_STOCK_ITEM + " = " + itemIdSql + ")";
+    }
+
+    static int readLocatedQuantity(SQLiteDatabase db, int itemId) {
+        return (int) DatabaseUtils.longForQuery(db, "SELECT " + locatedQuantity("?"),
+                new String[]{String.valueOf(itemId)});
+    }
+
+    // Creates both tables, their indexes, and the trigger that drops a deleted item's stock
+    static void create(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_LOCATIONS + " ("
+                + COLUMN_LOCATION_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_LOCATION_NAME + " TEXT NOT NULL, "
+                + COLUMN_PARENT_ID + " INTEGER NOT NULL DEFAULT " + NO_PARENT + ")");
+        db.execSQL("CREATE UNIQUE INDEX idx_locations_parent_name ON " + TABLE_LOCATIONS
+                + "(" + COLUMN_PARENT_ID + ", " + COLUMN_LOCATION_NAME + ")");
+
+        db.execSQL("CREATE TABLE " + TABLE_STOCK + " ("
+                + COLUMN_STOCK_LOCATION + " INTEGER NOT NULL, "
+                + COLUMN_STOCK_ITEM + " INTEGER NOT NULL, "
+                + COLUMN_STOCK_QUANTITY + " INTEGER NOT NULL CHECK (" + COLUMN_STOCK_QUANTITY + " > 0), "
+                + "PRIMARY KEY (" + COLUMN_STOCK_LOCATION + ", " + COLUMN_STOCK_ITEM + ")) WITHOUT ROWID");
+        db.execSQL("CREATE INDEX idx_stock_item ON " + TABLE_STOCK + "(" + COLUMN_STOCK_ITEM + ")");
+
+        db.execSQL("CREATE TRIGGER items_stock_ad AFTER DELETE ON " + DatabaseHelper.TABLE_ITEMS + " BEGIN "
+                + "DELETE FROM " + TABLE_STOCK + " WHERE " + COLUMN_STOCK_ITEM + " = old.id; END");
+    }
+}
@@ -38,14 +38,22 @@ public class LoginFragment extends Fragment {
             String username = editTextUsername.getText().toString().trim();
             String password = editTextPassword.getText().toString().trim();
 
-            DatabaseHelper db = new DatabaseHelper(getContext());
-
-            if (db.checkUser(username, password)) {
-                //Navigates to datagridfragment
-                getActivity().getSupportFragmentManager().beginTransaction().replace(R.id.fragment_container, new DataGridFragment()).commit();
-            } else {
-                Toast.makeText(getContext(), "Invalid Credentials", Toast.LENGTH_SHORT).show();
-            }
+            DatabaseHelper db = DatabaseHelper.getInstance(getContext());
+
+            // Hashing and the lookup run in the background, the button is re-enabled with the result
+            loginButton.setEnabled(false);
+            DatabaseExecutor.submit(() -> db.checkUser(username, password), valid -> {
+                loginButton.setEnabled(true);
+                if (!isAdded()) {
+                    return;
+                }
+                if (valid) {
+                    //Navigates to datagridfragment
+                    getActivity().getSupportFragmentManager().beginTransaction().replace(R.id.fragment_container, new DataGridFragment()).commit();
+                } else {
+                    Toast.makeText(getContext(), "Invalid Credentials", Toast.LENGTH_SHORT).show();
+                }
+            });
         });
 
         createAccountButton.setOnClickListener(v -> getActivity().getSupportFragmentManager().beginTransaction().replace(R.id.fragment_container, new RegistrationFragment()).addToBackStack(null).commit());
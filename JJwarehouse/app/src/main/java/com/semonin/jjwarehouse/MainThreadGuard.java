@@ -0,0 +1,46 @@
+package com.semonin.jjwarehouse;
+
+import android.util.Log;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reports database and hashing calls made on the main thread. Every DatabaseHelper
+ * operation checks in here; the first main thread call of each operation shows up in
+ * logcat with a stack trace, later ones are only counted (see DbMetrics).
+ */
+public final class MainThreadGuard {
+
+    private static final String TAG = "MainThreadGuard";
+
+    private static final AtomicInteger violations = new AtomicInteger();
+    // Operations already logged, so a hot path on the main thread does not flood logcat
+    private static final Set<String> reported = ConcurrentHashMap.newKeySet();
+
+    private MainThreadGuard() {
+    }
+
+    /**
+     * Counts a main thread call of operation and logs the first one with the caller's stack.
+     *
+     * @return true if running on the main thread
+     */
+    public static boolean check(String operation) {
+        if (!DatabaseExecutor.isMainThread()) {
+            return false;
+        }
+        violations.incrementAndGet();
+        if (reported.add(operation)) {
+            Log.w(TAG, operation + " called on the main thread, use DatabaseExecutor",
+                    new Throwable("main thread database access"));
+        }
+        return true;
+    }
+
+    // Number of main thread calls seen since the process started
+    public static int getViolationCount() {
+        return violations.get();
+    }
+}
@@ -0,0 +1,116 @@
+package com.semonin.jjwarehouse;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+/**
+ * InventoryAdapter backed by an InventoryPager, so rows are read from the database
+ * page by page as the RecyclerView scrolls instead of all at once.
+ */
+public class PagedInventoryAdapter extends InventoryAdapter implements InventoryPager.Listener {
+
+    private final InventoryPager pager;
+
+    public PagedInventoryAdapter(InventoryPager pager, OnItemClickListener listener) {
+        super(listener);
+        this.pager = pager;
+        pager.setListener(this);
+    }
+
+    @Override
+    public void onCountLoaded() {
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onRangeLoaded(int start, int count) {
+        notifyItemRangeChanged(start, count);
+    }
+
+    @Override
+    protected Item getItem(int position) {
+        return pager.get(position);
+    }
+
+    // RecyclerView asks for ids outside of binding, so this must not move the window or start a load
+    @Override
+    public long getItemId(int position) {
+        Item item = pager.peek(position);
+        return item != null ? item.getId() : -1L - position;
+    }
+
+    @Override
+    public int getItemCount() {
+        return pager.size();
+    }
+
+    /**
+     * Re-reads the loaded window in the background and notifies only the rows that
+     * were inserted, removed or changed, keeping scroll position intact.
+     */
+    public void refresh() {
+        final InventoryPager.Refresh refresh = pager.beginRefresh();
+        DatabaseExecutor.submit(refresh::compute, this::applyRefresh);
+    }
+
+    private void applyRefresh(InventoryPager.Refresh refresh) {
+        InventoryPager.Listener current = pager.getListener();
+        if (current != this) {
+            // A newer adapter took over the pager (configuration change): install the rows, let it redraw
+            if (!refresh.isStale()) {
+                refresh.commit();
+            }
+            if (current != null) {
+                current.onCountLoaded();
+            }
+            return;
+        }
+        if (refresh.isStale() || refresh.diff == null) {
+            // Nothing was loaded yet, or the user scrolled meanwhile
+            if (!refresh.isStale() && refresh.newTotal == refresh.oldTotal) {
+                return;
+            }
+            pager.load();
+            notifyDataSetChanged();
+            return;
+        }
+        if (refresh.newStart != refresh.oldStart) {
+            // Rows before the window were added or removed, every position has shifted
+            refresh.commit();
+            notifyDataSetChanged();
+            return;
+        }
+
+        refresh.commit();
+        final int offset = refresh.oldStart;
+        refresh.diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(offset + position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(offset + position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(offset + fromPosition, offset + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                notifyItemRangeChanged(offset + position, count, payload);
+            }
+        });
+
+        // Rows past the window are not loaded, only their count needs to catch up
+        int expected = refresh.oldTotal + refresh.newWindow.size() - refresh.oldWindow.size();
+        int tailDelta = refresh.newTotal - expected;
+        if (tailDelta > 0) {
+            notifyItemRangeInserted(expected, tailDelta);
+        } else if (tailDelta < 0) {
+            notifyItemRangeRemoved(expected + tailDelta, -tailDelta);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.semonin.jjwarehouse;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseIntArray;
+
+/**
+ * Coalesces bursts of +/- taps into one write. Deltas for the same item are summed
+ * while taps keep arriving; once no tap has come in for WINDOW_MS the pending deltas
+ * are applied with DatabaseHelper.adjustQuantities in a single transaction.
+ * Main thread only.
+ */
+public class QuantityAdjuster {
+
+    static final long WINDOW_MS = 400;
+
+    private final DatabaseHelper db;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private SparseIntArray pending = new SparseIntArray();
+
+    private final Runnable flushTask = this::flush;
+
+    public QuantityAdjuster(DatabaseHelper db) {
+        this.db = db;
+    }
+
+    // Queues delta for itemId, restarting the coalescing window
+    public void add(int itemId, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        int merged = pending.get(itemId) + delta;
+        if (merged == 0) {
+            // A + followed by a - cancels out, nothing to write
+            pending.delete(itemId);
+        } else {
+            pending.put(itemId, merged);
+        }
+        handler.removeCallbacks(flushTask);
+        if (pending.size() > 0) {
+            handler.postDelayed(flushTask, WINDOW_MS);
+        }
+    }
+
+    public boolean hasPending() {
+        return pending.size() > 0;
+    }
+
+    // Writes whatever is pending now, e.g. before leaving the screen
+    public void flush() {
+        final SparseIntArray batch = takePending();
+        if (batch.size() > 0 && !DatabaseExecutor.execute(() -> db.adjustQuantities(batch))) {
+            // The pool is saturated: keep the taps and try again after another window
+            for (int i = 0; i < batch.size(); i++) {
+                pending.put(batch.keyAt(i), pending.get(batch.keyAt(i)) + batch.valueAt(i));
+            }
+            handler.postDelayed(flushTask, WINDOW_MS);
+        }
+    }
+
+    // Hands the pending deltas to the caller, who becomes responsible for writing them
+    public SparseIntArray takePending() {
+        handler.removeCallbacks(flushTask);
+        SparseIntArray batch = pending;
+        pending = new SparseIntArray();
+        return batch;
+    }
+}
@@ -31,7 +31,7 @@ public class RegistrationFragment extends Fragment {
         editTextConfirmPassword = view.findViewById(R.id.registrationPasswordConfirm);
         Button submitButton = view.findViewById(R.id.registrationSubmit);
 
-        DatabaseHelper db = new DatabaseHelper(getContext());
+        DatabaseHelper db = DatabaseHelper.getInstance(getContext());
 
         submitButton.setOnClickListener(view1 -> {
             String username = editTextUsername.getText().toString().trim();
@@ -50,20 +50,29 @@ public class RegistrationFragment extends Fragment {
                 return;
             }
 
-            // Check if username already exists
-            if (db.checkUserExists(username)) {
-                Toast.makeText(getContext(), "Username already exists.", Toast.LENGTH_SHORT).show();
-                return;
-            }
-
-            // Input validation passed, proceed with registration
-            db.addUser(username, password); // Ensure you're hashing the password in the addUser method
-            Toast.makeText(getContext(), "Registration Successful", Toast.LENGTH_SHORT).show();
-
-            // Navigating back to LoginFragment
-            if (isAdded()) {
+            // Check if username already exists, then register, both off the main thread
+            submitButton.setEnabled(false);
+            DatabaseExecutor.submit(() -> {
+                if (db.checkUserExists(username)) {
+                    return false;
+                }
+                // Input validation passed, proceed with registration
+                db.addUser(username, password); // Ensure you're hashing the password in the addUser method
+                return true;
+            }, registered -> {
+                submitButton.setEnabled(true);
+                if (!isAdded()) {
+                    return;
+                }
+                if (!registered) {
+                    Toast.makeText(getContext(), "Username already exists.", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                Toast.makeText(getContext(), "Registration Successful", Toast.LENGTH_SHORT).show();
+
+                // Navigating back to LoginFragment
                 getActivity().getSupportFragmentManager().beginTransaction().replace(R.id.fragment_container, new LoginFragment()).commit();
-            }
+            });
         });
 
         Button backButton = view.findViewById(R.id.backButton);
@@ -0,0 +1,115 @@
+package com.semonin.jjwarehouse;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects barcode scans in memory during receiving or a cycle count and applies their
+ * quantity deltas in one transaction when the session is committed, instead of one
+ * write per scan. scan() only touches memory and may be called on the main thread;
+ * commit() writes, so run it through DatabaseExecutor.
+ */
+public final class ScanSession {
+
+    // Outcome of commit()
+    public static final class Result {
+        // SKU -> quantity after this session, for the SKUs that belong to an item
+        public final Map<String, Integer> quantities;
+        // SKU -> delta that was not applied because no item has that SKU
+        public final Map<String, Integer> unknown;
+
+        Result(Map<String, Integer> quantities, Map<String, Integer> unknown) {
+            this.quantities = Collections.unmodifiableMap(quantities);
+            this.unknown = Collections.unmodifiableMap(unknown);
+        }
+    }
+
+    private final DatabaseHelper db;
+    // Trimmed SKU -> summed delta, in order of first scan
+    private final Map<String, Integer> deltas = new LinkedHashMap<>();
+    private int scanCount;
+
+    public ScanSession(DatabaseHelper db) {
+        this.db = db;
+    }
+
+    // One unit of the item with this SKU was received or counted; blank reads are ignored
+    public void scan(String sku) {
+        scan(sku, 1);
+    }
+
+    // Adds delta units (negative to take some off) for the item with this SKU
+    public synchronized void scan(String sku, int delta) {
+        sku = DatabaseHelper.normalizeSku(sku);
+        if (sku == null) {
+            return;
+        }
+        Integer pending = deltas.get(sku);
+        deltas.put(sku, pending == null ? delta : pending + delta);
+        scanCount++;
+    }
+
+    // Units scanned for this SKU since the last commit
+    public synchronized int getPending(String sku) {
+        Integer pending = deltas.get(DatabaseHelper.normalizeSku(sku));
+        return pending == null ? 0 : pending;
+    }
+
+    // Scans since the last commit
+    public synchronized int getScanCount() {
+        return scanCount;
+    }
+
+    // Distinct SKUs scanned since the last commit
+    public synchronized int getSkuCount() {
+        return deltas.size();
+    }
+
+    // Drops every scan since the last commit
+    public synchronized void discard() {
+        deltas.clear();
+        scanCount = 0;
+    }
+
+    /**
+     * Applies every pending delta in one transaction and starts a new batch. If the
+     * write fails nothing was applied and the scans stay pending, merged with any made
+     * meanwhile, so commit() can be retried.
+     */
+    public Result commit() {
+        Map<String, Integer> batch;
+        int batchScans;
+        synchronized (this) {
+            batch = new LinkedHashMap<>(deltas);
+            batchScans = scanCount;
+            deltas.clear();
+            scanCount = 0;
+        }
+        if (batch.isEmpty()) {
+            return new Result(Collections.<String, Integer>emptyMap(), Collections.<String, Integer>emptyMap());
+        }
+
+        Map<String, Integer> quantities;
+        try {
+            quantities = db.adjustQuantitiesBySku(batch);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                for (Map.Entry<String, Integer> delta : batch.entrySet()) {
+                    Integer pending = deltas.get(delta.getKey());
+                    deltas.put(delta.getKey(), pending == null ? delta.getValue() : pending + delta.getValue());
+                }
+                scanCount += batchScans;
+            }
+            throw e;
+        }
+
+        Map<String, Integer> unknown = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> delta : batch.entrySet()) {
+            if (!quantities.containsKey(delta.getKey())) {
+                unknown.put(delta.getKey(), delta.getValue());
+            }
+        }
+        return new Result(quantities, unknown);
+    }
+}
@@ -1,32 +1,282 @@
 package com.semonin.jjwarehouse;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 public class SecurityUtils {
 
+    // Stored hashes look like "pbkdf2-sha256$<iterations>$<salt hex>$<hash hex>"
+    static final String PBKDF2_PREFIX = "pbkdf2-sha256$";
+
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+
+    // Calibration never goes below/above these, whatever the device measures, and stored
+    // hashes outside them are rejected rather than verified
+    static final int MIN_ITERATIONS = 10_000;
+    static final int MAX_ITERATIONS = 2_000_000;
+    // Login time spent on hashing that calibration aims for
+    public static final long TARGET_HASH_MILLIS = 150;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // PBKDF2 block index 1, big-endian; one block is all a 32-byte key needs
+    private static final byte[] FIRST_BLOCK = {0, 0, 0, 1};
+
+    // Instrumented operations, see DbMetrics
+    private static final DbMetrics.Op OP_HASH_PASSWORD = DbMetrics.op("hashPassword");
+    private static final DbMetrics.Op OP_VERIFY_PASSWORD = DbMetrics.op("verifyPassword");
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static volatile int iterations = MIN_ITERATIONS;
+
+    // Mac, digest and scratch buffers are reused per thread so hashing allocates almost nothing
+    private static final ThreadLocal<HashState> STATE = new ThreadLocal<HashState>() {
+        @Override
+        protected HashState initialValue() {
+            return new HashState();
+        }
+    };
+
+    private static final class HashState {
+        final Mac mac;
+        final MessageDigest sha256;
+        final byte[] u = new byte[HASH_BYTES];
+        final byte[] t = new byte[HASH_BYTES];
+        final byte[] salt = new byte[SALT_BYTES];
+        final byte[] expected = new byte[HASH_BYTES];
+        // UTF-8 of the password being hashed; grown for long passwords, wiped after each use
+        byte[] key = new byte[64];
+
+        HashState() {
+            try {
+                mac = Mac.getInstance("HmacSHA256");
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    }
+
     /**
-     * Hashing Using SHA-256
+     * Hashes a password for storage with salted PBKDF2-HMAC-SHA256, using the
+     * calibrated iteration count. The count and salt are stored in the result.
      *
      * @param passwordToHash The password to hash.
-     * @return the hashed password as a hex string, or null if hashing failed
+     * @return the encoded hash, see PBKDF2_PREFIX
      */
-
     public static String hashPassword(String passwordToHash) {
+        return hashPassword(passwordToHash, iterations);
+    }
+
+    static String hashPassword(String passwordToHash, int iterationCount) {
+        long callStart = OP_HASH_PASSWORD.begin();
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] encodedhash = digest.digest(passwordToHash.getBytes());
+            byte[] salt = STATE.get().salt;
+            RANDOM.nextBytes(salt);
+            byte[] hash = pbkdf2(passwordToHash, salt, iterationCount);
 
-            // Convert byte array into sugnum representation
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : encodedhash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
+            StringBuilder encoded = new StringBuilder(PBKDF2_PREFIX.length() + 12 + 2 * (SALT_BYTES + HASH_BYTES));
+            encoded.append(PBKDF2_PREFIX).append(iterationCount).append('$');
+            appendHex(encoded, salt);
+            encoded.append('$');
+            appendHex(encoded, hash);
+            return encoded.toString();
+        } finally {
+            OP_HASH_PASSWORD.end(callStart);
+        }
+    }
+
+    /**
+     * Checks a password against a stored hash, either a PBKDF2 hash from hashPassword
+     * or a legacy unsalted SHA-256 hex string. Comparison is constant time. A PBKDF2
+     * hash with an iteration count outside [MIN_ITERATIONS, MAX_ITERATIONS] is corrupt
+     * or tampered with and never matches, so it cannot tie up a thread.
+     */
+    public static boolean verifyPassword(String password, String storedHash) {
+        long callStart = OP_VERIFY_PASSWORD.begin();
+        try {
+            if (password == null || storedHash == null) {
+                return false;
+            }
+            if (!storedHash.startsWith(PBKDF2_PREFIX)) {
+                String legacy = legacySha256Hex(password);
+                return MessageDigest.isEqual(legacy.getBytes(StandardCharsets.US_ASCII),
+                        storedHash.getBytes(StandardCharsets.US_ASCII));
+            }
+            int iterationsEnd = storedHash.indexOf('$', PBKDF2_PREFIX.length());
+            int saltEnd = iterationsEnd < 0 ? -1 : storedHash.indexOf('$', iterationsEnd + 1);
+            if (saltEnd < 0) {
+                return false;
+            }
+            int storedIterations = parseIterations(storedHash, iterationsEnd);
+            if (storedIterations < MIN_ITERATIONS || storedIterations > MAX_ITERATIONS) {
+                return false;
+            }
+            HashState state = STATE.get();
+            if (!fromHex(storedHash, iterationsEnd + 1, saltEnd, state.salt)
+                    || !fromHex(storedHash, saltEnd + 1, storedHash.length(), state.expected)) {
+                return false;
+            }
+            return MessageDigest.isEqual(state.expected, pbkdf2(password, state.salt, storedIterations));
+        } finally {
+            OP_VERIFY_PASSWORD.end(callStart);
+        }
+    }
+
+    // True for legacy SHA-256 hashes and for hashes weaker than the current calibration
+    public static boolean needsRehash(String storedHash) {
+        if (storedHash == null || !storedHash.startsWith(PBKDF2_PREFIX)) {
+            return true;
+        }
+        int iterationsEnd = storedHash.indexOf('$', PBKDF2_PREFIX.length());
+        return parseIterations(storedHash, iterationsEnd) < iterations;
+    }
+
+    // The decimal count between PBKDF2_PREFIX and end, or -1 if it is missing, not a number or too large
+    private static int parseIterations(String storedHash, int end) {
+        int start = PBKDF2_PREFIX.length();
+        if (end <= start || end - start > 10) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(storedHash.charAt(i), 10);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value > Integer.MAX_VALUE ? -1 : (int) value;
+    }
+
+    // The pre-PBKDF2 format: unsalted SHA-256 of the UTF-8 password, lower-case hex
+    static String legacySha256Hex(String password) {
+        HashState state = STATE.get();
+        byte[] digest = state.sha256.digest(password.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(2 * digest.length);
+        appendHex(hex, digest);
+        return hex.toString();
+    }
+
+    public static int getIterations() {
+        return iterations;
+    }
+
+    // Sets the iteration count for new hashes, e.g. a calibration result loaded from storage
+    public static void setIterations(int iterationCount) {
+        iterations = Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterationCount));
+    }
+
+    /**
+     * Measures this device and returns the iteration count that makes one hash take about
+     * targetMillis, clamped to [MIN_ITERATIONS, MAX_ITERATIONS].
+     */
+    public static int calibrateIterations(long targetMillis) {
+        byte[] salt = new byte[SALT_BYTES];
+        int probe = MIN_ITERATIONS;
+        // Warm up the JIT and the per-thread Mac before timing
+        pbkdf2("calibration", salt, probe);
+        long start = System.nanoTime();
+        pbkdf2("calibration", salt, probe);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        long scaled = probe * (targetMillis * 1_000_000L) / elapsed;
+        return (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, scaled));
+    }
+
+    /**
+     * PBKDF2-HMAC-SHA256 for a single 32-byte block, reusing the thread's Mac and buffers.
+     * The only allocation is the SecretKeySpec Mac.init needs, which copies the key.
+     *
+     * @return the thread's result buffer, valid until its next hash
+     */
+    private static byte[] pbkdf2(String password, byte[] salt, int iterationCount) {
+        if (iterationCount < 1) {
+            throw new IllegalArgumentException("iterations must be positive");
+        }
+        HashState state = STATE.get();
+        int keyLength = encodeUtf8(password, state);
+        try {
+            // HMAC pads keys with zeros, so an empty password is the same key as a single zero byte
+            state.mac.init(new SecretKeySpec(state.key, 0, Math.max(1, keyLength), "HmacSHA256"));
+            state.mac.update(salt);
+            state.mac.update(FIRST_BLOCK);
+            state.mac.doFinal(state.u, 0);
+            System.arraycopy(state.u, 0, state.t, 0, HASH_BYTES);
+            for (int i = 1; i < iterationCount; i++) {
+                state.mac.update(state.u);
+                state.mac.doFinal(state.u, 0);
+                for (int j = 0; j < HASH_BYTES; j++) {
+                    state.t[j] ^= state.u[j];
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 failed", e);
+        } finally {
+            Arrays.fill(state.key, 0, keyLength, (byte) 0);
+        }
+        return state.t;
+    }
+
+    // Writes password as UTF-8 (as String.getBytes does) into state.key and returns its length
+    private static int encodeUtf8(String password, HashState state) {
+        if (state.key.length < 3 * password.length()) {
+            Arrays.fill(state.key, (byte) 0);
+            state.key = new byte[3 * password.length()];
+        }
+        byte[] out = state.key;
+        int length = 0;
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            if (c < 0x80) {
+                out[length++] = (byte) c;
+            } else if (c < 0x800) {
+                out[length++] = (byte) (0xc0 | (c >> 6));
+                out[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < password.length()
+                    && Character.isLowSurrogate(password.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, password.charAt(++i));
+                out[length++] = (byte) (0xf0 | (codePoint >> 18));
+                out[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                out[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                out[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced like the platform encoder does
+                out[length++] = '?';
+            } else {
+                out[length++] = (byte) (0xe0 | (c >> 12));
+                out[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return length;
+    }
+
+    private static void appendHex(StringBuilder out, byte[] bytes) {
+        for (byte b : bytes) {
+            out.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        }
+    }
+
+    // Decodes hex[start, end) into bytes; false unless it is valid hex of exactly bytes.length bytes
+    private static boolean fromHex(String hex, int start, int end, byte[] bytes) {
+        if (end - start != 2 * bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(start + 2 * i), 16);
+            int low = Character.digit(hex.charAt(start + 2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return false;
             }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return null; //
+            bytes[i] = (byte) ((high << 4) | low);
         }
+        return true;
     }
 }
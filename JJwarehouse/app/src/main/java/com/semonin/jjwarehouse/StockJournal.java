@@ -0,0 +1,206 @@
+package com.semonin.jjwarehouse;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only history of stock movements. Triggers on items append one row for every
+ * change of quantity (insert, update, delete), in the statement that made it, so the
+ * journal commits or rolls back together with the change whichever code path wrote it.
+ * Rows are all integers (seconds since the epoch, item id, signed delta), each stored in
+ * the smallest integer size SQLite has for it: a movement takes about 15 bytes on disk.
+ *
+ * rollUp() folds the rows appended since its last run into hourly and daily totals per
+ * item and for the whole catalogue (ALL_ITEMS), keyed (item_id, resolution, bucket) so
+ * a chart is one range read, then deletes raw rows older than the retention window;
+ * their movements live on in the rollups. Buckets are UTC hours and days. Reads add the
+ * few movements appended since the last run from the raw table, so rollUp() only ever
+ * runs in the background and charts never write.
+ */
+final class StockJournal {
+
+    static final String TABLE_MOVEMENTS = "stock_movements";
+    static final String TABLE_ROLLUPS = "movement_rollups";
+    static final String TABLE_STATE = "journal_state";
+
+    static final int HOUR = 3_600;
+    static final int DAY = 86_400;
+
+    // Rollup item id for totals over every item; real ids start at 1
+    static final int ALL_ITEMS = 0;
+
+    // Raw movements are kept this long, then only their rollups remain
+    static final long RAW_RETENTION_SECONDS = 14L * DAY;
+    // Hourly rollups are kept this long; daily ones are kept for good
+    static final long HOURLY_RETENTION_SECONDS = 90L * DAY;
+
+    // One rollup row: the movements in [start, start + resolution)
+    static final class Bucket {
+        final long start;
+        final long unitsIn;
+        final long unitsOut;
+        final int movements;
+
+        Bucket(long start, long unitsIn, long unitsOut, int movements) {
+            this.start = start;
+            this.unitsIn = unitsIn;
+            this.unitsOut = unitsOut;
+            this.movements = movements;
+        }
+
+        long net() {
+            return unitsIn - unitsOut;
+        }
+    }
+
+    private static final String NOW = "CAST(strftime('%s', 'now') AS INTEGER)";
+
+    private StockJournal() {
+    }
+
+    // Creates the journal, the rollups, the checkpoint row and the triggers; history starts now
+    static void create(SQLiteDatabase db) {
+        // AUTOINCREMENT so a seq is never reused after compaction empties the table, which the checkpoint relies on
+        db.execSQL("CREATE TABLE " + TABLE_MOVEMENTS + " ("
+                + "seq INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "at INTEGER NOT NULL, "
+                + "item_id INTEGER NOT NULL, "
+                + "delta INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE " + TABLE_ROLLUPS + " ("
+                + "item_id INTEGER NOT NULL, "
+                + "resolution INTEGER NOT NULL, "
+                + "bucket INTEGER NOT NULL, "
+                + "units_in INTEGER NOT NULL, "
+                + "units_out INTEGER NOT NULL, "
+                + "movements INTEGER NOT NULL, "
+                + "PRIMARY KEY (item_id, resolution, bucket)) WITHOUT ROWID");
+        db.execSQL("CREATE TABLE " + TABLE_STATE + " ("
+                + "id INTEGER PRIMARY KEY CHECK (id = 1), "
+                + "rolled_seq INTEGER NOT NULL)");
+        db.execSQL("INSERT INTO " + TABLE_STATE + " VALUES (1, 0)");
+
+        db.execSQL("CREATE TRIGGER items_journal_ai AFTER INSERT ON items WHEN IFNULL(new.quantity, 0) != 0 BEGIN "
+                + "INSERT INTO " + TABLE_MOVEMENTS + " (at, item_id, delta) VALUES (" + NOW + ", new.id, new.quantity); END");
+        db.execSQL("CREATE TRIGGER items_journal_au AFTER UPDATE OF quantity ON items "
+                + "WHEN IFNULL(new.quantity, 0) != IFNULL(old.quantity, 0) BEGIN "
+                + "INSERT INTO " + TABLE_MOVEMENTS + " (at, item_id, delta) VALUES (" + NOW + ", new.id, "
+                + "IFNULL(new.quantity, 0) - IFNULL(old.quantity, 0)); END");
+        db.execSQL("CREATE TRIGGER items_journal_ad AFTER DELETE ON items WHEN IFNULL(old.quantity, 0) != 0 BEGIN "
+                + "INSERT INTO " + TABLE_MOVEMENTS + " (at, item_id, delta) VALUES (" + NOW + ", old.id, -old.quantity); END");
+    }
+
+    /**
+     * Folds the movements appended since the last run into the rollups, advances the
+     * checkpoint, and drops raw movements older than rawRetentionSeconds before now
+     * and hourly rollups older than HOURLY_RETENTION_SECONDS, all in one transaction.
+     * The cost follows the number of new movements, not the size of the history.
+     *
+     * @return the number of movements rolled up
+     */
+    static int rollUp(SQLiteDatabase db, long nowSeconds, long rawRetentionSeconds) {
+        db.beginTransactionNonExclusive();
+        try {
+            long rolled = DatabaseUtils.longForQuery(db, "SELECT rolled_seq FROM " + TABLE_STATE + " WHERE id = 1", null);
+            long latest = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM " + TABLE_MOVEMENTS, null);
+            int count = 0;
+            if (latest > rolled) {
+                count = (int) DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_MOVEMENTS
+                        + " WHERE seq > ? AND seq <= ?", new String[]{String.valueOf(rolled), String.valueOf(latest)});
+                for (int resolution : new int[]{HOUR, DAY}) {
+                    merge(db, resolution, rolled, latest);
+                }
+                db.execSQL("UPDATE " + TABLE_STATE + " SET rolled_seq = ? WHERE id = 1", new Object[]{latest});
+            }
+
+            // Only rows already in the rollups may go; the journal is in seq order, so this is a prefix of it
+            db.execSQL("DELETE FROM " + TABLE_MOVEMENTS + " WHERE seq <= ? AND at < ?",
+                    new Object[]{latest, nowSeconds - rawRetentionSeconds});
+            db.execSQL("DELETE FROM " + TABLE_ROLLUPS + " WHERE resolution = " + HOUR + " AND bucket < ?",
+                    new Object[]{(nowSeconds - HOURLY_RETENTION_SECONDS) / HOUR});
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Adds the movements with rolled < seq <= latest to the rollups of one resolution
+    private static void merge(SQLiteDatabase db, int resolution, long rolled, long latest) {
+        String[] range = {String.valueOf(rolled), String.valueOf(latest)};
+        String totals = "SUM(MAX(delta, 0)), SUM(MAX(-delta, 0)), COUNT(*) FROM " + TABLE_MOVEMENTS
+                + " WHERE seq > ?1 AND seq <= ?2";
+        // Per item and bucket, then per bucket for the whole catalogue
+        Cursor cursor = db.rawQuery("SELECT item_id, at / " + resolution + " AS b, " + totals + " GROUP BY item_id, b"
+                + " UNION ALL SELECT " + ALL_ITEMS + ", at / " + resolution + " AS b, " + totals + " GROUP BY b", range);
+        // No UPSERT before SQLite 3.24 (API 30): add to an existing bucket, else start it
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_ROLLUPS + " SET units_in = units_in + ?, "
+                + "units_out = units_out + ?, movements = movements + ? WHERE item_id = ? AND resolution = "
+                + resolution + " AND bucket = ?");
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_ROLLUPS
+                + " (units_in, units_out, movements, item_id, resolution, bucket) VALUES (?, ?, ?, ?, " + resolution + ", ?)");
+        try {
+            while (cursor.moveToNext()) {
+                bindTotals(update, cursor);
+                if (update.executeUpdateDelete() == 0) {
+                    bindTotals(insert, cursor);
+                    insert.executeInsert();
+                }
+            }
+        } finally {
+            cursor.close();
+            update.close();
+            insert.close();
+        }
+    }
+
+    // Binds units in, units out, movements, item id and bucket from a row of merge()'s query
+    private static void bindTotals(SQLiteStatement statement, Cursor cursor) {
+        statement.bindLong(1, cursor.getLong(2));
+        statement.bindLong(2, cursor.getLong(3));
+        statement.bindLong(3, cursor.getLong(4));
+        statement.bindLong(4, cursor.getLong(0));
+        statement.bindLong(5, cursor.getLong(1));
+    }
+
+    /**
+     * Buckets of one item (or ALL_ITEMS) at one resolution overlapping [fromSeconds, toSeconds),
+     * oldest first: the rollups plus the movements not rolled up yet, read in one statement so
+     * a concurrent rollUp() cannot make a movement count twice or not at all.
+     */
+    static List<Bucket> readBuckets(SQLiteDatabase db, int itemId, int resolution, long fromSeconds, long toSeconds) {
+        long firstBucket = Math.floorDiv(fromSeconds, resolution);
+        long endBucket = Math.floorDiv(toSeconds + resolution - 1, resolution);
+        String tailItems = itemId == ALL_ITEMS ? "" : " AND item_id = ?1";
+        Cursor cursor = db.rawQuery("SELECT b, SUM(units_in), SUM(units_out), SUM(movements) FROM ("
+                        + "SELECT bucket AS b, units_in, units_out, movements FROM " + TABLE_ROLLUPS
+                        + " WHERE item_id = ?1 AND resolution = " + resolution + " AND bucket >= ?2 AND bucket < ?3"
+                        + " UNION ALL SELECT at / " + resolution + ", MAX(delta, 0), MAX(-delta, 0), 1 FROM " + TABLE_MOVEMENTS
+                        + " WHERE seq > (SELECT rolled_seq FROM " + TABLE_STATE + " WHERE id = 1)" + tailItems
+                        + " AND at >= ?4 AND at < ?5"
+                        + ") GROUP BY b ORDER BY b",
+                new String[]{String.valueOf(itemId), String.valueOf(firstBucket), String.valueOf(endBucket),
+                        String.valueOf(firstBucket * resolution), String.valueOf(endBucket * resolution)});
+        try {
+            List<Bucket> buckets = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                buckets.add(new Bucket(cursor.getLong(0) * resolution, cursor.getLong(1), cursor.getLong(2),
+                        cursor.getInt(3)));
+            }
+            return buckets;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Movements appended since the last rollUp(); a little high if some appends were rolled back
+    static int countUnrolled(SQLiteDatabase db) {
+        long unrolled = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) - (SELECT rolled_seq FROM "
+                + TABLE_STATE + " WHERE id = 1) FROM " + TABLE_MOVEMENTS, null);
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, unrolled));
+    }
+}
@@ -0,0 +1,86 @@
+package com.semonin.jjwarehouse;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The sync backend as SyncEngine sees it. HttpSyncApi talks to the REST backend;
+ * tests can run it against a local server.
+ */
+public interface SyncApi {
+
+    // One change_log row
+    final class Change {
+        final long seq;
+        final String guid;
+        final int op;
+        // ChangeLog.FIELD_* bits; only these fields are sent
+        final int fields;
+        final String name;
+        final int quantityDelta;
+        final int reorderThreshold;
+        final String sku;
+
+        Change(long seq, String guid, int op, int fields, String name, int quantityDelta, int reorderThreshold,
+               String sku) {
+            this.seq = seq;
+            this.guid = guid;
+            this.op = op;
+            this.fields = fields;
+            this.name = name;
+            this.quantityDelta = quantityDelta;
+            this.reorderThreshold = reorderThreshold;
+            this.sku = sku;
+        }
+    }
+
+    // Server state of one item changed since the requested token
+    final class RemoteItem {
+        final String guid;
+        final boolean deleted;
+        // ChangeLog.FIELD_* bits of the fields present
+        final int fields;
+        final String name;
+        final int quantity;
+        final int reorderThreshold;
+        final String sku;
+
+        RemoteItem(String guid, boolean deleted, int fields, String name, int quantity, int reorderThreshold,
+                   String sku) {
+            this.guid = guid;
+            this.deleted = deleted;
+            this.fields = fields;
+            this.name = name;
+            this.quantity = quantity;
+            this.reorderThreshold = reorderThreshold;
+            this.sku = sku;
+        }
+    }
+
+    // One page of server deltas
+    final class Delta {
+        final String token;
+        final boolean hasMore;
+        final List<RemoteItem> items;
+
+        Delta(String token, boolean hasMore, List<RemoteItem> items) {
+            this.token = token;
+            this.hasMore = hasMore;
+            this.items = items;
+        }
+    }
+
+    /**
+     * Uploads a batch of changes in seq order. Must be idempotent per (clientId, seq),
+     * since a batch is re-sent if the acknowledgement is lost.
+     *
+     * @return the highest seq the server has stored
+     */
+    long upload(String clientId, List<Change> changes) throws IOException;
+
+    /**
+     * Returns items changed on the server after token (null for everything), at most
+     * limit of them.
+     */
+    Delta download(String clientId, String token, int limit) throws IOException;
+}
@@ -0,0 +1,83 @@
+package com.semonin.jjwarehouse;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Offline-first delta sync. Every local write is already queued in the change log,
+ * so a sync only moves what changed:
+ * 1. push: pending changes go up in batches of UPLOAD_BATCH_SIZE; each acknowledged
+ *    batch is removed and the upload checkpoint moved, so an interrupted sync resumes
+ *    after the last acknowledged batch;
+ * 2. pull: items changed on the server since the stored sync token come down in pages
+ *    and are merged per field (see ChangeLog.applyRemote).
+ * Blocking, run it on a background thread (DatabaseExecutor or a scheduled job).
+ */
+public class SyncEngine {
+
+    static final int UPLOAD_BATCH_SIZE = 500;
+    static final int DOWNLOAD_PAGE_SIZE = 500;
+
+    // What one sync() call moved
+    public static final class Result {
+        public final int uploaded;
+        public final int uploadBatches;
+        public final int downloaded;
+
+        Result(int uploaded, int uploadBatches, int downloaded) {
+            this.uploaded = uploaded;
+            this.uploadBatches = uploadBatches;
+            this.downloaded = downloaded;
+        }
+    }
+
+    private final DatabaseHelper db;
+    private final SyncApi api;
+
+    public SyncEngine(DatabaseHelper db, SyncApi api) {
+        this.db = db;
+        this.api = api;
+    }
+
+    // Push then pull. On IOException everything acknowledged so far stays committed; just call again.
+    public synchronized Result sync() throws IOException {
+        String clientId = db.getSyncClientId();
+
+        int uploaded = 0;
+        int batches = 0;
+        List<SyncApi.Change> batch = db.getPendingChanges(UPLOAD_BATCH_SIZE);
+        while (!batch.isEmpty()) {
+            long ack = api.upload(clientId, batch);
+            long last = batch.get(batch.size() - 1).seq;
+            if (ack < batch.get(0).seq) {
+                throw new IOException("Server acknowledged nothing of batch ending at " + last);
+            }
+            db.acknowledgeChanges(Math.min(ack, last));
+            uploaded += countUpTo(batch, ack);
+            batches++;
+            batch = db.getPendingChanges(UPLOAD_BATCH_SIZE);
+        }
+
+        int downloaded = 0;
+        String token = db.getSyncToken();
+        SyncApi.Delta delta;
+        do {
+            delta = api.download(clientId, token, DOWNLOAD_PAGE_SIZE);
+            db.applyRemoteChanges(delta.items, delta.token);
+            downloaded += delta.items.size();
+            token = delta.token;
+        } while (delta.hasMore && !delta.items.isEmpty());
+
+        return new Result(uploaded, batches, downloaded);
+    }
+
+    private static int countUpTo(List<SyncApi.Change> batch, long ack) {
+        int count = 0;
+        for (SyncApi.Change change : batch) {
+            if (change.seq <= ack) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,169 @@
+package com.semonin.jjwarehouse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Minimal JVM benchmark runner for the local (Robolectric) benchmarks: measures
+ * throughput, latency percentiles and bytes allocated per operation, and compares
+ * the median against a stored baseline to flag regressions.
+ *
+ * The baseline file comes from the "benchmark.baseline" system property (set by
+ * app/build.gradle); with "benchmark.updateBaseline=true" results are written back.
+ */
+class BenchmarkHarness {
+
+    // A median this much slower than the baseline counts as a regression
+    static final double REGRESSION_TOLERANCE = 1.30;
+
+    interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    static class Result {
+        final String name;
+        final int iterations;
+        final double opsPerSecond;
+        final long p50;
+        final long p90;
+        final long p99;
+        final long max;
+        final long bytesPerOp;
+
+        Result(String name, long[] samples, long totalNanos, long allocatedBytes) {
+            long[] sorted = samples.clone();
+            Arrays.sort(sorted);
+            this.name = name;
+            this.iterations = samples.length;
+            this.opsPerSecond = samples.length / (totalNanos / 1e9);
+            this.p50 = percentile(sorted, 0.50);
+            this.p90 = percentile(sorted, 0.90);
+            this.p99 = percentile(sorted, 0.99);
+            this.max = sorted[sorted.length - 1];
+            this.bytesPerOp = allocatedBytes < 0 ? -1 : allocatedBytes / samples.length;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-34s %10.0f ops/s  p50=%8.1fus  p90=%8.1fus  p99=%8.1fus  max=%8.1fus  alloc=%s",
+                    name, opsPerSecond, p50 / 1e3, p90 / 1e3, p99 / 1e3, max / 1e3,
+                    bytesPerOp < 0 ? "n/a" : bytesPerOp + " B/op");
+        }
+    }
+
+    // Looked up once by allocatedBytes()
+    private static Object threadBean;
+    private static Method allocatedBytesMethod;
+
+    private final Properties baseline = new Properties();
+    private final File baselineFile;
+    private final boolean updateBaseline;
+    private final List<String> regressions = new ArrayList<>();
+
+    BenchmarkHarness() {
+        String path = System.getProperty("benchmark.baseline");
+        baselineFile = path == null ? null : new File(path);
+        updateBaseline = Boolean.getBoolean("benchmark.updateBaseline");
+        if (baselineFile != null && baselineFile.exists()) {
+            try (InputStream in = new FileInputStream(baselineFile)) {
+                baseline.load(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read benchmark baseline " + baselineFile, e);
+            }
+        }
+    }
+
+    Result measure(String name, int warmup, int iterations, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run(i);
+        }
+        long[] samples = new long[iterations];
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long opStart = System.nanoTime();
+            operation.run(warmup + i);
+            samples[i] = System.nanoTime() - opStart;
+        }
+        long total = System.nanoTime() - start;
+        long allocatedAfter = allocatedBytes();
+
+        Result result = new Result(name, samples, total,
+                allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore);
+        System.out.println(result);
+        check(result);
+        return result;
+    }
+
+    // Fails with every regression found so far; call once at the end of a benchmark class
+    void assertNoRegressions() {
+        if (updateBaseline) {
+            writeBaseline();
+            return;
+        }
+        if (!regressions.isEmpty()) {
+            throw new AssertionError("Benchmark regressions:\n" + String.join("\n", regressions));
+        }
+    }
+
+    private void check(Result result) {
+        String key = result.name.replace(' ', '_') + ".p50";
+        if (updateBaseline) {
+            baseline.setProperty(key, String.valueOf(result.p50));
+            return;
+        }
+        String stored = baseline.getProperty(key);
+        if (stored == null) {
+            System.out.println("  (no baseline for " + key + ")");
+            return;
+        }
+        long expected = Long.parseLong(stored.trim());
+        if (result.p50 > expected * REGRESSION_TOLERANCE) {
+            regressions.add(String.format(Locale.ROOT, "%s: p50 %.1fus vs baseline %.1fus",
+                    result.name, result.p50 / 1e3, expected / 1e3));
+        }
+    }
+
+    private void writeBaseline() {
+        if (baselineFile == null) {
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(baselineFile)) {
+            baseline.store(out, "Median latency (ns) per benchmark, regenerate with -Pbenchmark -PupdateBenchmarkBaseline");
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write benchmark baseline " + baselineFile, e);
+        }
+    }
+
+    // Bytes allocated by the current thread so far, or -1 if the JVM cannot tell.
+    // Reflective because unit tests compile against android.jar, which has no java.lang.management.
+    static long allocatedBytes() {
+        try {
+            if (threadBean == null) {
+                threadBean = Class.forName("java.lang.management.ManagementFactory")
+                        .getMethod("getThreadMXBean").invoke(null);
+                allocatedBytesMethod = Class.forName("com.sun.management.ThreadMXBean")
+                        .getMethod("getThreadAllocatedBytes", long.class);
+            }
+            return (Long) allocatedBytesMethod.invoke(threadBean, Thread.currentThread().getId());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return -1;
+        }
+    }
+
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
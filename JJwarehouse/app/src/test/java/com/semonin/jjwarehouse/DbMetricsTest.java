@@ -0,0 +1,163 @@
+package com.semonin.jjwarehouse;
+
+import android.util.JsonReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * DbMetrics counters as recorded by DatabaseHelper operations.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DbMetricsTest {
+
+    private DatabaseHelper db;
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        // Create the schema now, so the first measured call is not also the slowest
+        db.getWritableDatabase();
+        DbMetrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        DbMetrics.setSlowThresholdMillis(DbMetrics.DEFAULT_SLOW_THRESHOLD_MILLIS);
+        db.close();
+    }
+
+    @Test
+    public void bucketsFollowTheBounds() {
+        assertEquals(0, DbMetrics.bucketOf(0));
+        assertEquals(0, DbMetrics.bucketOf(49_999));
+        assertEquals(1, DbMetrics.bucketOf(50_000));
+        assertEquals(4, DbMetrics.bucketOf(999_999));
+        assertEquals(DbMetrics.BUCKET_BOUNDS_MICROS.length, DbMetrics.bucketOf(5_000_000_000L));
+    }
+
+    @Test
+    public void countsCallsAndRows() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            db.addItem("item " + i, i);
+        }
+        db.getItemsAfter(0, 10);
+        db.getItemsAfter(10, 10);
+        db.getItemsFilteredBy("item", 5);
+
+        // Off the main thread this time
+        ExecutorService background = Executors.newSingleThreadExecutor();
+        background.submit(() -> db.getItemsAfter(20, 100)).get();
+        background.shutdown();
+
+        DbMetrics.Snapshot snapshot = DbMetrics.snapshot();
+        DbMetrics.OpSnapshot adds = snapshot.get("addItem");
+        assertEquals(30, adds.calls);
+        assertEquals(30, adds.rowsReturned);
+
+        DbMetrics.OpSnapshot pages = snapshot.get("getItemsAfter");
+        assertEquals(3, pages.calls);
+        assertEquals(30, pages.rowsReturned);
+        // The test thread is the main looper thread under Robolectric
+        assertEquals(2, pages.mainThreadCalls);
+        long bucketed = 0;
+        for (long count : pages.buckets) {
+            bucketed += count;
+        }
+        assertEquals(3, bucketed);
+        assertTrue(pages.maxNanos >= pages.meanNanos());
+
+        DbMetrics.OpSnapshot search = snapshot.get("getItemsFilteredBy");
+        // The LIMIT is applied in SQLite, so only the rows returned are read
+        assertEquals(5, search.rowsScanned);
+        assertEquals(5, search.rowsReturned);
+
+        assertNull(snapshot.get("deleteItem"));
+        assertTrue(snapshot.toString().contains("getItemsAfter"));
+    }
+
+    @Test
+    public void wrappersRecordOneSamplePerCall() {
+        int id = (int) db.addItem("bolt", 1);
+        db.adjustQuantity(id, 2);
+        db.updateItemWithRetry(id, current -> current, 3);
+
+        DbMetrics.Snapshot snapshot = DbMetrics.snapshot();
+        assertEquals(1, snapshot.get("adjustQuantity").calls);
+        assertNull(snapshot.get("adjustQuantities"));
+        assertEquals(1, snapshot.get("updateItemWithRetry").calls);
+        assertNull(snapshot.get("updateItemIfVersion"));
+    }
+
+    @Test
+    public void cacheHitsScanNothing() {
+        int id = (int) db.addItem("bolt", 1);
+        db.getItemById(id);
+        db.getItemById(id);
+        DbMetrics.OpSnapshot reads = DbMetrics.snapshot().get("getItemById");
+        assertEquals(2, reads.rowsReturned);
+        assertEquals(0, reads.rowsScanned);
+    }
+
+    @Test
+    public void slowCallsAreLoggedOverTheThreshold() {
+        // Thresholds are set so the outcome does not depend on how fast this machine is
+        DbMetrics.setSlowThresholdMillis(60 * 60 * 1000);
+        db.addItem("fast", 1);
+        assertTrue(DbMetrics.snapshot().slowCalls.isEmpty());
+
+        DbMetrics.setSlowThresholdMillis(0);
+        for (int i = 0; i < DbMetrics.SLOW_LOG_SIZE + 5; i++) {
+            db.getItemCount();
+        }
+        DbMetrics.Snapshot snapshot = DbMetrics.snapshot();
+        assertEquals(DbMetrics.SLOW_LOG_SIZE, snapshot.slowCalls.size());
+        assertEquals("getItemCount", snapshot.slowCalls.get(0).operation);
+        assertTrue(snapshot.slowCalls.get(0).mainThread);
+    }
+
+    @Test
+    public void snapshotExportsAsJson() throws IOException {
+        db.addItem("bolt", 1);
+        StringWriter out = new StringWriter();
+        DbMetrics.snapshot().writeJson(out);
+
+        JsonReader json = new JsonReader(new StringReader(out.toString()));
+        boolean sawAddItem = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            if (!"operations".equals(json.nextName())) {
+                json.skipValue();
+                continue;
+            }
+            json.beginArray();
+            while (json.hasNext()) {
+                json.beginObject();
+                while (json.hasNext()) {
+                    String key = json.nextName();
+                    if ("name".equals(key)) {
+                        sawAddItem |= "addItem".equals(json.nextString());
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+            }
+            json.endArray();
+        }
+        json.endObject();
+        assertTrue(sawAddItem);
+    }
+}
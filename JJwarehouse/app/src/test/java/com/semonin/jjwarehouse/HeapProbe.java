@@ -0,0 +1,119 @@
+package com.semonin.jjwarehouse;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Measures the live heap while a stream is being produced or consumed, for checking that
+ * export and import memory does not grow with the number of rows. Every probeInterval
+ * bytes it forces a collection and records the heap still in use, so garbage does not
+ * count, only what the code under test keeps reachable.
+ */
+class HeapProbe {
+
+    private final long probeInterval;
+    private long sinceProbe;
+    private long peak;
+    private int probes;
+
+    HeapProbe(long probeInterval) {
+        this.probeInterval = probeInterval;
+    }
+
+    // Heap reachable right now, after full collections
+    static long retainedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // The second pass picks up what finalization released in the first
+        for (int i = 0; i < 2; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    long peak() {
+        return peak;
+    }
+
+    int probes() {
+        return probes;
+    }
+
+    private void advance(long bytes) {
+        sinceProbe += bytes;
+        if (sinceProbe >= probeInterval) {
+            sinceProbe = 0;
+            probe();
+        }
+    }
+
+    void probe() {
+        peak = Math.max(peak, retainedBytes());
+        probes++;
+    }
+
+    // Discards what is written to it, probing the heap along the way; counts bytes
+    OutputStream sink() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                advance(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                advance(len);
+            }
+        };
+    }
+
+    /**
+     * Generates an import CSV of rows items on the fly, so the input is never held in
+     * memory either. Row i has guid %032x of i, so importing twice updates the same items.
+     */
+    InputStream csvSource(final int rows) {
+        return new InputStream() {
+            private byte[] line = "guid,name,quantity,reorder_threshold\r\n".getBytes(StandardCharsets.US_ASCII);
+            private int pos;
+            private int row;
+
+            @Override
+            public int read() {
+                if (!fill()) {
+                    return -1;
+                }
+                advance(1);
+                return line[pos++];
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, line.length - pos);
+                System.arraycopy(line, pos, b, off, n);
+                pos += n;
+                advance(n);
+                return n;
+            }
+
+            private boolean fill() {
+                if (pos < line.length) {
+                    return true;
+                }
+                if (row == rows) {
+                    return false;
+                }
+                line = String.format(Locale.ROOT, "%032x,\"item, %d\",%d,%d\r\n", row, row, row % 100, row % 7)
+                        .getBytes(StandardCharsets.US_ASCII);
+                pos = 0;
+                row++;
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package com.semonin.jjwarehouse;
+
+import android.content.Context;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local JVM benchmarks (Robolectric's SQLite) for the DatabaseHelper and SecurityUtils
+ * hot paths. Excluded from the normal test run, run with:
+ * ./gradlew testDebugUnitTest -Pbenchmark
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HotPathBenchmark {
+
+    private static final int[] CATALOGUE_SIZES = {1_000, 10_000, 100_000};
+
+    private static BenchmarkHarness harness;
+
+    @BeforeClass
+    public static void createHarness() {
+        harness = new BenchmarkHarness();
+    }
+
+    @AfterClass
+    public static void checkBaseline() {
+        harness.assertNoRegressions();
+    }
+
+    // In-memory database so file system noise does not end up in the numbers
+    private static DatabaseHelper newDatabase(int rows) {
+        Context context = RuntimeEnvironment.getApplication();
+        DatabaseHelper db = new DatabaseHelper(context, null);
+        List<Item> items = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Item item = new Item();
+            item.setName("item " + i);
+            item.setQuantity(i % 1000);
+            items.add(item);
+        }
+        db.addItems(items);
+        return db;
+    }
+
+    @Test
+    public void getItems() throws Exception {
+        for (int rows : CATALOGUE_SIZES) {
+            final DatabaseHelper db = newDatabase(rows);
+            int iterations = rows >= 100_000 ? 5 : rows >= 10_000 ? 20 : 100;
+            harness.measure("getItems " + rows, 2, iterations, i -> db.getItems());
+            db.close();
+        }
+    }
+
+    @Test
+    public void getItemById() throws Exception {
+        final DatabaseHelper db = newDatabase(10_000);
+        harness.measure("getItemById cached", 1_000, 20_000, i -> db.getItemById(1 + i % 100));
+        harness.measure("getItemById uncached", 1_000, 20_000, i -> {
+            db.getItemCache().clear();
+            db.getItemById(1 + (i * 7919) % 10_000);
+        });
+        db.close();
+    }
+
+    @Test
+    public void itemWrites() throws Exception {
+        final DatabaseHelper db = newDatabase(10_000);
+        harness.measure("addItem", 200, 5_000, i -> db.addItem("new " + i, i));
+        harness.measure("updateItem", 200, 5_000, i -> db.updateItem(1 + i % 10_000, "renamed " + i, i));
+        harness.measure("deleteItem", 0, 5_000, i -> db.deleteItem(1 + i));
+        db.close();
+    }
+
+    @Test
+    public void userLookups() throws Exception {
+        InventorySeeder.useMinimumHashCost(RuntimeEnvironment.getApplication());
+        final DatabaseHelper db = newDatabase(0);
+        for (int i = 0; i < 100; i++) {
+            db.addUser("user" + i, "password" + i);
+        }
+        harness.measure("checkUser", 10, 200, i -> db.checkUser("user" + (i % 100), "password" + (i % 100)));
+        harness.measure("checkUserExists", 500, 10_000, i -> db.checkUserExists("user" + (i % 2_000)));
+        db.close();
+    }
+
+    @Test
+    public void hashPassword() throws Exception {
+        // At the minimum cost; real cost is calibrated per device, so only the per-iteration speed is comparable
+        harness.measure("hashPassword", 20, 200,
+                i -> SecurityUtils.hashPassword("correct horse battery staple", SecurityUtils.MIN_ITERATIONS));
+    }
+}
@@ -0,0 +1,177 @@
+package com.semonin.jjwarehouse;
+
+import android.content.Context;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * InventoryAdapter binding: stable ids, the per-holder click handler, quantity-only
+ * payloads, and binding that allocates nothing beyond the row text.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryAdapterTest {
+
+    private static final int ROWS = 10_000;
+    // Holders a scrolling RecyclerView cycles through: a screenful plus the recycled ones
+    private static final int HOLDERS = 12;
+    // Well under one byte per bind; a String or listener per bind would be ~40 bytes each
+    private static final long ALLOCATION_SLACK = 16 * 1024;
+
+    private Context context;
+    private List<Item> items;
+    private final List<Item> clicked = new ArrayList<>();
+
+    private static Item item(int id, String name, int quantity) {
+        Item item = new Item();
+        item.setId(id);
+        item.setName(name);
+        item.setQuantity(quantity);
+        return item;
+    }
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        items = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            items.add(item(i + 1, "item " + i, i % 500));
+        }
+    }
+
+    private InventoryAdapter adapter() {
+        return new InventoryAdapter(items, clicked::add);
+    }
+
+    private RecyclerView recyclerView(InventoryAdapter adapter) {
+        RecyclerView recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(new LinearLayoutManager(context));
+        recyclerView.setAdapter(adapter);
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, 1080, 1920);
+        return recyclerView;
+    }
+
+    @Test
+    public void idsAreItemIds() {
+        InventoryAdapter adapter = adapter();
+        assertTrue(adapter.hasStableIds());
+        assertEquals(1, adapter.getItemId(0));
+        assertEquals(ROWS, adapter.getItemId(ROWS - 1));
+    }
+
+    @Test
+    public void clickResolvesTheRowAtClickTime() {
+        InventoryAdapter adapter = adapter();
+        RecyclerView recyclerView = recyclerView(adapter);
+        RecyclerView.ViewHolder holder = recyclerView.findViewHolderForAdapterPosition(3);
+        assertNotNull(holder);
+        holder.itemView.performClick();
+        assertEquals(1, clicked.size());
+        assertEquals(4, clicked.get(0).getId());
+
+        // After scrolling, recycled holders report the rows they are bound to now
+        recyclerView.scrollToPosition(500);
+        recyclerView.layout(0, 0, 1080, 1920);
+        holder = recyclerView.findViewHolderForAdapterPosition(500);
+        assertNotNull(holder);
+        holder.itemView.performClick();
+        assertEquals(501, clicked.get(1).getId());
+    }
+
+    @Test
+    public void quantityPayloadRebindsOnlyTheQuantity() {
+        Item before = item(1, "bolt", 5);
+        Item after = item(1, "bolt", 6);
+        assertSame(InventoryAdapter.PAYLOAD_QUANTITY, InventoryAdapter.DIFF_CALLBACK.getChangePayload(before, after));
+        assertNull(InventoryAdapter.DIFF_CALLBACK.getChangePayload(before, item(1, "hex bolt", 6)));
+
+        InventoryAdapter adapter = adapter();
+        InventoryAdapter.ViewHolder holder = adapter.onCreateViewHolder(recyclerView(adapter), 0);
+        adapter.onBindViewHolder(holder, 2);
+        holder.textViewItemName.setText("untouched");
+
+        adapter.onBindViewHolder(holder, 2, Collections.<Object>singletonList(InventoryAdapter.PAYLOAD_QUANTITY));
+        assertEquals("untouched", holder.textViewItemName.getText().toString());
+        assertEquals("2", holder.textViewItemQuantity.getText().toString());
+
+        // Any other payload is a full rebind
+        adapter.onBindViewHolder(holder, 2, Collections.<Object>singletonList("other"));
+        assertEquals("item 2", holder.textViewItemName.getText().toString());
+    }
+
+    @Test
+    public void quantityTextIsShared() {
+        assertSame(InventoryAdapter.quantityText(42), InventoryAdapter.quantityText(42));
+        assertEquals("-1", InventoryAdapter.quantityText(-1));
+        assertEquals("123456", InventoryAdapter.quantityText(123_456));
+    }
+
+    @Test
+    public void bindingAllocatesNothingBeyondTheRowText() {
+        InventoryAdapter adapter = adapter();
+        RecyclerView parent = recyclerView(adapter);
+        InventoryAdapter.ViewHolder[] holders = new InventoryAdapter.ViewHolder[HOLDERS];
+        for (int i = 0; i < HOLDERS; i++) {
+            holders[i] = adapter.onCreateViewHolder(parent, 0);
+        }
+        // What any binding has to cost: setting the row's text, with the strings made up front
+        String[] names = new String[ROWS];
+        String[] quantities = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            names[i] = items.get(i).getName();
+            quantities[i] = new String(InventoryAdapter.quantityText(items.get(i).getQuantity()));
+        }
+
+        // Warm up, so class loading and the first-run caches are not counted
+        for (int i = 0; i < 3; i++) {
+            scroll(adapter, holders);
+            setTextOnly(holders, names, quantities);
+        }
+
+        assumeTrue("this JVM cannot count allocated bytes", BenchmarkHarness.allocatedBytes() >= 0);
+        long start = BenchmarkHarness.allocatedBytes();
+        scroll(adapter, holders);
+        long bound = BenchmarkHarness.allocatedBytes() - start;
+
+        start = BenchmarkHarness.allocatedBytes();
+        setTextOnly(holders, names, quantities);
+        long baseline = BenchmarkHarness.allocatedBytes() - start;
+
+        assertTrue("binding " + ROWS + " rows allocated " + bound + " bytes, " + (bound - baseline)
+                        + " beyond the " + baseline + " of setting the row text",
+                bound - baseline < ALLOCATION_SLACK);
+    }
+
+    // Every row once, top to bottom, through a small recycled set of holders
+    private static void scroll(InventoryAdapter adapter, InventoryAdapter.ViewHolder[] holders) {
+        for (int position = 0; position < ROWS; position++) {
+            adapter.onBindViewHolder(holders[position % holders.length], position);
+        }
+    }
+
+    private static void setTextOnly(InventoryAdapter.ViewHolder[] holders, String[] names, String[] quantities) {
+        for (int position = 0; position < ROWS; position++) {
+            TextView name = holders[position % holders.length].textViewItemName;
+            TextView quantity = holders[position % holders.length].textViewItemQuantity;
+            name.setText(names[position]);
+            quantity.setText(quantities[position]);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.semonin.jjwarehouse;
+
+import android.content.Context;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic data for benchmarks and stress tests. The same seed always
+ * produces the same catalogue. Items are generated lazily and written through
+ * DatabaseHelper.addItems, so million-row catalogues are never held in memory.
+ */
+class InventorySeeder {
+
+    // Words item names are built from, so full-text search has realistic tokens to match
+    static final String[] WORDS = {
+            "red", "blue", "green", "black", "white", "steel", "brass", "plastic", "small", "large",
+            "box", "crate", "pallet", "bolt", "screw", "washer", "nut", "bracket", "hinge", "panel",
+            "cable", "tape", "glove", "boot", "helmet", "ladder", "drill", "bit", "saw", "blade",
+            "filter", "valve", "pipe", "fitting", "clamp", "hose", "pump", "motor", "belt", "bearing"
+    };
+
+    // Draws name lengths (in characters) from some distribution
+    interface NameLength {
+        int next(Random random);
+    }
+
+    static NameLength uniform(final int min, final int max) {
+        return random -> min + random.nextInt(max - min + 1);
+    }
+
+    // Gaussian around mean, clamped to [min, max]; closer to real catalogues than uniform
+    static NameLength normal(final double mean, final double stddev, final int min, final int max) {
+        return random -> (int) Math.max(min, Math.min(max, Math.round(mean + stddev * random.nextGaussian())));
+    }
+
+    private final long seed;
+
+    InventorySeeder(long seed) {
+        this.seed = seed;
+    }
+
+    // Inserts count items; quantities are uniform in [0, maxQuantity]
+    int seedItems(DatabaseHelper db, int count, NameLength nameLength, int maxQuantity) {
+        return db.addItems(items(count, nameLength, maxQuantity), 5_000);
+    }
+
+    // Pins password hashing to the cheapest allowed cost, so seeding users does not take minutes
+    static void useMinimumHashCost(Context context) {
+        context.getSharedPreferences(DatabaseHelper.SECURITY_PREFS, Context.MODE_PRIVATE).edit()
+                .putInt(DatabaseHelper.PREF_HASH_ITERATIONS, SecurityUtils.MIN_ITERATIONS)
+                .commit();
+        SecurityUtils.setIterations(SecurityUtils.MIN_ITERATIONS);
+    }
+
+    // Users "user0".."user{count-1}" with password "password{i}"
+    void seedUsers(DatabaseHelper db, int count) {
+        for (int i = 0; i < count; i++) {
+            db.addUser("user" + i, "password" + i);
+        }
+    }
+
+    // Lazily generated items, the same sequence for the same seed
+    Iterable<Item> items(final int count, final NameLength nameLength, final int maxQuantity) {
+        return () -> new Iterator<Item>() {
+            private final Random random = new Random(seed);
+            private final StringBuilder name = new StringBuilder(64);
+            private int produced;
+
+            @Override
+            public boolean hasNext() {
+                return produced < count;
+            }
+
+            @Override
+            public Item next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Item item = new Item();
+                item.setName(nextName(random, nameLength.next(random)));
+                item.setQuantity(random.nextInt(maxQuantity + 1));
+                produced++;
+                return item;
+            }
+
+            private String nextName(Random random, int length) {
+                name.setLength(0);
+                while (name.length() < length) {
+                    if (name.length() > 0) {
+                        name.append(' ');
+                    }
+                    name.append(WORDS[random.nextInt(WORDS.length)]);
+                }
+                name.setLength(Math.max(1, length));
+                if (name.charAt(name.length() - 1) == ' ') {
+                    name.setLength(name.length() - 1);
+                }
+                return name.toString();
+            }
+        };
+    }
+}
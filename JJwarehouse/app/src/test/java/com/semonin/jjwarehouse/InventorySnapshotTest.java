@@ -0,0 +1,119 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.*;
+
+/**
+ * InventorySnapshot read from the database: dictionary-encoded names, sort orders,
+ * composable filters and totals.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventorySnapshotTest {
+
+    private DatabaseHelper db;
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private int add(String name, int quantity, int reorderThreshold) {
+        int id = (int) db.addItem(name, quantity);
+        db.setReorderThreshold(id, reorderThreshold);
+        return id;
+    }
+
+    private static String names(InventorySnapshot snapshot, int[] rows) {
+        StringBuilder names = new StringBuilder();
+        for (int row : rows) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(snapshot.getName(row));
+        }
+        return names.toString();
+    }
+
+    @Test
+    public void readsEveryColumn() {
+        int bolt = add("bolt", 5, 10);
+        add("washer", 7, 0);
+        add("bolt", 2, 0);
+
+        InventorySnapshot snapshot = db.getInventorySnapshot();
+        assertEquals(3, snapshot.size());
+        // Repeated names share one pool entry
+        assertEquals(2, snapshot.distinctNames());
+        int row = snapshot.rowOf(bolt);
+        assertEquals("bolt", snapshot.getName(row));
+        assertEquals(5, snapshot.getQuantity(row));
+        assertEquals(10, snapshot.getReorderThreshold(row));
+        assertEquals(-1, snapshot.rowOf(bolt + 100));
+
+        Item item = snapshot.toItem(row);
+        assertEquals(bolt, item.getId());
+        assertEquals(10, item.getReorderThreshold());
+    }
+
+    @Test
+    public void sortsByNameAndQuantity() {
+        add("washer", 3, 0);
+        add("Bolt", 9, 0);
+        add(null, 4, 0);
+        add("bolt", 1, 0);
+        add("anchor", 9, 0);
+
+        InventorySnapshot snapshot = db.getInventorySnapshot();
+        assertEquals("null,anchor,Bolt,bolt,washer", names(snapshot, snapshot.orderByName()));
+        // Equal quantities keep id order
+        assertEquals("bolt,washer,null,Bolt,anchor", names(snapshot, snapshot.orderByQuantity()));
+    }
+
+    @Test
+    public void filtersComposeAndKeepOrder() {
+        add("bolt", 5, 10);
+        add("BOLT cutter", 50, 0);
+        add("bomb rack", 5, 0);
+        add("washer", 1, 2);
+        add("bolt", 30, 0);
+
+        InventorySnapshot snapshot = db.getInventorySnapshot();
+        int[] bolts = snapshot.whereNameStartsWith(snapshot.orderByQuantity(), "bol");
+        assertEquals(3, bolts.length);
+        assertEquals(5, snapshot.getQuantity(bolts[0]));
+        assertEquals(50, snapshot.getQuantity(bolts[2]));
+
+        int[] fewBolts = snapshot.whereQuantityBetween(bolts, 0, 30);
+        assertEquals("bolt,bolt", names(snapshot, fewBolts));
+        assertEquals(0, snapshot.whereNameStartsWith(null, "z").length);
+        assertEquals(2, snapshot.whereLowStock(null).length);
+    }
+
+    @Test
+    public void totalsMatchTheStatsTable() {
+        for (int i = 0; i < 200; i++) {
+            add("item " + i, i % 13, i % 5);
+        }
+        InventorySnapshot snapshot = db.getInventorySnapshot();
+        InventoryStats.Totals expected = db.getInventoryTotals();
+        InventoryStats.Totals totals = snapshot.totals(null);
+        assertEquals(expected.itemCount, totals.itemCount);
+        assertEquals(expected.totalQuantity, totals.totalQuantity);
+        assertEquals(expected.lowStockCount, totals.lowStockCount);
+
+        InventoryStats.Totals some = snapshot.totals(snapshot.whereQuantityBetween(null, 12, 12));
+        assertEquals(15, some.itemCount);
+        assertEquals(15 * 12, some.totalQuantity);
+    }
+}
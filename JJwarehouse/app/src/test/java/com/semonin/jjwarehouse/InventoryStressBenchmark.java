@@ -0,0 +1,203 @@
+package com.semonin.jjwarehouse;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Mixed read/write/search/adjust workload from several threads against a large seeded
+ * catalogue, reporting tail latency per operation plus how long threads spent blocked
+ * or waiting (SQLite connection pool and lock waits show up as waiting).
+ *
+ * Excluded from the normal test run; run with ./gradlew testDebugUnitTest -Pbenchmark.
+ * The catalogue size comes from the "stress.items" system property (default 1,000,000).
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryStressBenchmark {
+
+    private static final String DB_NAME = "stress_inventory.db";
+    private static final long SEED = 20240601L;
+    private static final int THREADS = 4;
+    private static final int OPS_PER_THREAD = 5_000;
+
+    private static final String[] OPS = {"read", "page", "search", "adjust", "write"};
+
+    private Context context;
+    private DatabaseHelper db;
+    private int catalogueSize;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(DB_NAME);
+        InventorySeeder.useMinimumHashCost(context);
+        db = new DatabaseHelper(context, DB_NAME);
+        catalogueSize = Integer.getInteger("stress.items", 1_000_000);
+
+        InventorySeeder seeder = new InventorySeeder(SEED);
+        long start = System.nanoTime();
+        seeder.seedItems(db, catalogueSize, InventorySeeder.normal(18, 6, 3, 60), 500);
+        seeder.seedUsers(db, 100);
+        System.out.printf(Locale.ROOT, "seeded %d items in %.1fs%n", catalogueSize, (System.nanoTime() - start) / 1e9);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void mixedWorkload() throws Exception {
+        setContentionMonitoring(true);
+        // Per-thread samples so recording does not itself add lock contention
+        final Samples[] samples = new Samples[THREADS];
+        final long[][] contention = new long[THREADS][];
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            final int worker = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    samples[worker] = runWorker(new Random(SEED + worker));
+                    contention[worker] = contentionOfCurrentThread();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "stress-" + t);
+            workers.add(thread);
+            thread.start();
+        }
+
+        long wallStart = System.nanoTime();
+        start.countDown();
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        long wall = System.nanoTime() - wallStart;
+        setContentionMonitoring(false);
+        if (failure.get() != null) {
+            throw new AssertionError("worker failed", failure.get());
+        }
+
+        LatencyRecorder[] latencies = new LatencyRecorder[OPS.length];
+        for (int op = 0; op < OPS.length; op++) {
+            latencies[op] = new LatencyRecorder(THREADS * OPS_PER_THREAD);
+            for (Samples threadSamples : samples) {
+                for (int i = 0; i < threadSamples.counts[op]; i++) {
+                    latencies[op].record(threadSamples.nanos[op][i]);
+                }
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%d threads x %d ops over %d items: %.0f ops/s%n",
+                THREADS, OPS_PER_THREAD, catalogueSize, THREADS * OPS_PER_THREAD / (wall / 1e9));
+        for (int i = 0; i < OPS.length; i++) {
+            LatencyRecorder recorder = latencies[i];
+            System.out.printf(Locale.ROOT, "  %-7s n=%6d p50=%8.1fus p99=%8.1fus p99.9=%8.1fus%n", OPS[i], recorder.getCount(),
+                    recorder.getPercentile(0.5) / 1e3, recorder.getPercentile(0.99) / 1e3, recorder.getPercentile(0.999) / 1e3);
+        }
+        for (int t = 0; t < THREADS; t++) {
+            long[] c = contention[t];
+            if (c != null) {
+                System.out.printf(Locale.ROOT, "  stress-%d blocked %d times / %d ms, waited %d times / %d ms%n",
+                        t, c[0], c[1], c[2], c[3]);
+            }
+        }
+        assertEquals(THREADS * OPS_PER_THREAD, sum(latencies));
+    }
+
+    // 50% point reads, 15% keyset pages, 15% searches, 15% quantity adjustments, 5% inserts/renames
+    private Samples runWorker(Random random) {
+        Samples samples = new Samples();
+        for (int i = 0; i < OPS_PER_THREAD; i++) {
+            int roll = random.nextInt(100);
+            int id = 1 + random.nextInt(catalogueSize);
+            int op;
+            long start = System.nanoTime();
+            if (roll < 50) {
+                op = 0;
+                db.getItemById(id);
+            } else if (roll < 65) {
+                op = 1;
+                db.getItemsAfter(id, 50);
+            } else if (roll < 80) {
+                op = 2;
+                String word = InventorySeeder.WORDS[random.nextInt(InventorySeeder.WORDS.length)];
+                db.getItemsFilteredBy(word.substring(0, 2 + random.nextInt(word.length() - 1)), 50);
+            } else if (roll < 95) {
+                op = 3;
+                db.adjustQuantity(id, random.nextInt(11) - 5);
+            } else {
+                op = 4;
+                if (random.nextBoolean()) {
+                    db.addItem("stress item " + i, random.nextInt(100));
+                } else {
+                    db.updateItemName(id, "renamed item " + i);
+                }
+            }
+            samples.nanos[op][samples.counts[op]++] = System.nanoTime() - start;
+        }
+        return samples;
+    }
+
+    private static class Samples {
+        final long[][] nanos = new long[OPS.length][OPS_PER_THREAD];
+        final int[] counts = new int[OPS.length];
+    }
+
+    private static int sum(LatencyRecorder[] recorders) {
+        int total = 0;
+        for (LatencyRecorder recorder : recorders) {
+            total += recorder.getCount();
+        }
+        return total;
+    }
+
+    // java.lang.management is not on the unit test compile classpath (android.jar), hence reflection
+
+    private static Object threadBean() throws ReflectiveOperationException {
+        return Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+    }
+
+    private static void setContentionMonitoring(boolean enabled) throws ReflectiveOperationException {
+        Object bean = threadBean();
+        Class<?> type = Class.forName("java.lang.management.ThreadMXBean");
+        if ((Boolean) type.getMethod("isThreadContentionMonitoringSupported").invoke(bean)) {
+            type.getMethod("setThreadContentionMonitoringEnabled", boolean.class).invoke(bean, enabled);
+        }
+    }
+
+    // {blocked count, blocked ms, waited count, waited ms} for the calling thread
+    private static long[] contentionOfCurrentThread() throws ReflectiveOperationException {
+        Object bean = threadBean();
+        Object info = Class.forName("java.lang.management.ThreadMXBean")
+                .getMethod("getThreadInfo", long.class).invoke(bean, Thread.currentThread().getId());
+        Class<?> infoType = Class.forName("java.lang.management.ThreadInfo");
+        Method blockedCount = infoType.getMethod("getBlockedCount");
+        Method blockedTime = infoType.getMethod("getBlockedTime");
+        Method waitedCount = infoType.getMethod("getWaitedCount");
+        Method waitedTime = infoType.getMethod("getWaitedTime");
+        return new long[]{
+                (Long) blockedCount.invoke(info), (Long) blockedTime.invoke(info),
+                (Long) waitedCount.invoke(info), (Long) waitedTime.invoke(info)};
+    }
+}
@@ -0,0 +1,171 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streaming export and import: round trips, upsert on guid and chunk commits. Heap use
+ * against the row count is checked by TransferBenchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryTransferTest {
+
+    private DatabaseHelper db;
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private static String text(ByteArrayOutputStream out) {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static ByteArrayInputStream input(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Adds count rows in one statement, without building them in Java
+    private void seed(int count) {
+        db.getWritableDatabase().execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < "
+                + count + ") INSERT INTO items (name, quantity, reorder_threshold) "
+                + "SELECT 'item ' || i, i % 100, i % 7 FROM n");
+    }
+
+    @Test
+    public void csvRoundTripKeepsAwkwardNames() throws IOException {
+        String[] names = {"plain", "comma, inside", "say \"hi\"", "two\r\nlines", " padded ", "", null, "ünïcödé"};
+        for (int i = 0; i < names.length; i++) {
+            db.addItem(names[i], i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(names.length, db.exportItems(out, InventoryTransfer.Format.CSV));
+
+        DatabaseHelper copy = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        try {
+            InventoryTransfer.ImportResult result = copy.importItems(
+                    new ByteArrayInputStream(out.toByteArray()), InventoryTransfer.Format.CSV);
+            assertEquals(names.length, result.getInserted());
+            List<Item> items = copy.getItemsAfter(0, 100);
+            for (int i = 0; i < names.length; i++) {
+                assertEquals(names[i], items.get(i).getName());
+                assertEquals(i, items.get(i).getQuantity());
+            }
+        } finally {
+            copy.close();
+        }
+    }
+
+    @Test
+    public void jsonExportHasEveryRow() throws IOException {
+        seed(2_500);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2_500, db.exportItems(out, InventoryTransfer.Format.JSON));
+        String json = text(out);
+        assertTrue(json.startsWith("[{\"guid\":"));
+        assertTrue(json.contains("\"name\":\"item 2500\""));
+    }
+
+    @Test
+    public void importUpsertsOnGuid() throws IOException {
+        int id = (int) db.addItem("bolt", 5);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        db.exportItems(out, InventoryTransfer.Format.JSON);
+        String guid = text(out).split("\"guid\":\"")[1].split("\"")[0];
+
+        String json = "[{\"guid\":\"" + guid + "\",\"name\":\"hex bolt\",\"quantity\":9,\"reorder_threshold\":3},"
+                + "{\"name\":\"washer\",\"quantity\":4}]";
+        InventoryTransfer.ImportResult result = db.importItems(input(json), InventoryTransfer.Format.JSON);
+        assertEquals(1, result.getUpdated());
+        assertEquals(1, result.getInserted());
+
+        Item item = db.getItemById(id);
+        assertEquals("hex bolt", item.getName());
+        assertEquals(9, item.getQuantity());
+        assertEquals(3, item.getReorderThreshold());
+        assertEquals(2, db.getItemCount());
+    }
+
+    @Test
+    public void skusSurviveARoundTrip() throws IOException {
+        for (InventoryTransfer.Format format : InventoryTransfer.Format.values()) {
+            DatabaseHelper source = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+            DatabaseHelper copy = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+            try {
+                source.setSku((int) source.addItem("bolt", 5), "0042");
+                source.addItem("washer", 4);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                source.exportItems(out, format);
+
+                copy.importItems(new ByteArrayInputStream(out.toByteArray()), format);
+                assertEquals(format.name(), "bolt", copy.getItemBySku("0042").getName());
+                assertNull(format.name(), copy.getItemsAfter(0, 10).get(1).getSku());
+            } finally {
+                source.close();
+                copy.close();
+            }
+        }
+    }
+
+    @Test
+    public void importWithoutSkusKeepsExistingOnes() throws IOException {
+        int id = (int) db.addItem("bolt", 5);
+        db.setSku(id, "0042");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        db.exportItems(out, InventoryTransfer.Format.JSON);
+        String guid = text(out).split("\"guid\":\"")[1].split("\"")[0];
+
+        db.importItems(input("guid,name,quantity\n" + guid + ",hex bolt,9\n"), InventoryTransfer.Format.CSV);
+        assertEquals("0042", db.getItemById(id).getSku());
+
+        // With the column, a blank SKU removes it
+        db.importItems(input("guid,name,quantity,sku\n" + guid + ",hex bolt,9,\n"), InventoryTransfer.Format.CSV);
+        assertNull(db.getItemById(id).getSku());
+    }
+
+    @Test
+    public void duplicateSkuFailsTheImport() {
+        db.setSku((int) db.addItem("bolt", 5), "0042");
+        try {
+            db.importItems(input("name,quantity,sku\nwasher,4,0042\n"), InventoryTransfer.Format.CSV);
+            fail("import should have failed");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("0042"));
+        }
+        assertEquals(1, db.getItemCount());
+    }
+
+    @Test
+    public void badRecordKeepsCommittedChunks() {
+        StringBuilder csv = new StringBuilder("name,quantity\n");
+        for (int i = 0; i < InventoryTransfer.IMPORT_CHUNK + 10; i++) {
+            csv.append("item ").append(i).append(',').append(i).append('\n');
+        }
+        csv.append("broken,not a number\n");
+        try {
+            db.importItems(input(csv.toString()), InventoryTransfer.Format.CSV);
+            fail("import should have failed");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Line " + (InventoryTransfer.IMPORT_CHUNK + 12)));
+        }
+        // The first chunk committed, the partial second one rolled back
+        assertEquals(InventoryTransfer.IMPORT_CHUNK, db.getItemCount());
+    }
+}
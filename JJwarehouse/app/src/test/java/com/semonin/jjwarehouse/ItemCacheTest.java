@@ -0,0 +1,79 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the LRU item cache.
+ */
+public class ItemCacheTest {
+
+    private static Item item(int id, String name, int quantity) {
+        Item item = new Item();
+        item.setId(id);
+        item.setName(name);
+        item.setQuantity(quantity);
+        return item;
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ItemCache cache = new ItemCache(2);
+        cache.put(item(1, "a", 1));
+        cache.put(item(2, "b", 2));
+        assertNotNull(cache.get(1)); // 2 is now the eldest
+        cache.put(item(3, "c", 3));
+
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(3));
+        assertEquals(1, cache.evictionCount());
+        assertEquals(3, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void peekIsNotCounted() {
+        ItemCache cache = new ItemCache(2);
+        cache.put(item(1, "a", 1));
+        assertEquals("a", cache.peek(1).getName());
+        assertNull(cache.peek(2));
+        assertEquals(0, cache.hitCount());
+        assertEquals(0, cache.missCount());
+    }
+
+    @Test
+    public void returnsCopies() {
+        ItemCache cache = new ItemCache(4);
+        Item original = item(1, "bolt", 5);
+        cache.put(original);
+        original.setQuantity(99);
+        cache.get(1).setQuantity(42);
+
+        assertEquals(5, cache.get(1).getQuantity());
+    }
+
+    @Test
+    public void readBeforeConcurrentWriteIsNotCached() {
+        ItemCache cache = new ItemCache(4);
+        long stamp = cache.readStamp();
+        cache.put(item(1, "new", 2)); // a writer lands between the read and its put
+        cache.putIfUnchanged(item(1, "old", 1), stamp);
+
+        assertEquals("new", cache.get(1).getName());
+    }
+
+    @Test
+    public void shrinkingEvicts() {
+        ItemCache cache = new ItemCache(3);
+        cache.put(item(1, "a", 1));
+        cache.put(item(2, "b", 1));
+        cache.put(item(3, "c", 1));
+        cache.resize(1);
+
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(3));
+        assertEquals(2, cache.evictionCount());
+    }
+}
@@ -0,0 +1,139 @@
+package com.semonin.jjwarehouse;
+
+import android.os.Looper;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Checks that ItemRepository streams re-query only after writes to items.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ItemRepositoryTest {
+
+    private DatabaseHelper db;
+    private ItemRepository repository;
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        repository = new ItemRepository(db);
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+        db.close();
+    }
+
+    // Runs main thread callbacks until the background work behind them has delivered
+    private static void awaitMain(List<?> received, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(5);
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    @Test
+    public void versionMovesOnlyOnItemWrites() {
+        long id = db.addItem("bolt", 5);
+        assertEquals(1, repository.getVersion());
+
+        db.checkUserExists("nobody");
+        db.getItems();
+        db.updateItemName(12345, "missing");
+        assertEquals(1, repository.getVersion());
+
+        db.adjustQuantity((int) id, 2);
+        db.deleteItem((int) id);
+        assertEquals(3, repository.getVersion());
+
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(Integer.valueOf(3), repository.getItemsVersion().getValue());
+    }
+
+    @Test
+    public void itemStreamReloadsAfterWrite() throws Exception {
+        final int id = (int) db.addItem("bolt", 5);
+        LiveData<Item> stream = repository.getItem(id);
+        final List<Item> received = new ArrayList<>();
+        Observer<Item> observer = received::add;
+        stream.observeForever(observer);
+
+        awaitMain(received, 1);
+        assertEquals(1, received.size());
+        assertEquals(5, received.get(0).getQuantity());
+
+        // Re-observing without a write serves the held value, no reload
+        stream.removeObserver(observer);
+        stream.observeForever(observer);
+        assertEquals(2, received.size());
+        Thread.sleep(50);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(2, received.size());
+
+        db.adjustQuantity(id, 3);
+        awaitMain(received, 3);
+        assertEquals(3, received.size());
+        assertEquals(8, received.get(2).getQuantity());
+        stream.removeObserver(observer);
+    }
+
+    @Test
+    public void writesToOtherItemsAreNotDelivered() throws Exception {
+        final int id = (int) db.addItem("bolt", 5);
+        final int other = (int) db.addItem("nut", 5);
+        LiveData<Item> stream = repository.getItem(id);
+        final List<Item> received = new ArrayList<>();
+        Observer<Item> observer = received::add;
+        stream.observeForever(observer);
+        awaitMain(received, 1);
+
+        db.adjustQuantity(other, 1);
+        db.adjustQuantity(id, 1);
+        awaitMain(received, 2);
+        // Give a redelivery for the other item's write the chance to arrive
+        Thread.sleep(50);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(2, received.size());
+        assertEquals(6, received.get(1).getQuantity());
+        stream.removeObserver(observer);
+    }
+
+    @Test
+    public void deletedItemStreamsNull() throws Exception {
+        final int id = (int) db.addItem("bolt", 5);
+        LiveData<Item> stream = repository.getItem(id);
+        final List<Item> received = new ArrayList<>();
+        Observer<Item> observer = received::add;
+        stream.observeForever(observer);
+        awaitMain(received, 1);
+        int version = received.get(0).getVersion();
+
+        db.adjustQuantity(id, 1);
+        awaitMain(received, 2);
+        assertTrue(received.get(1).getVersion() > version);
+
+        db.deleteItem(id);
+        awaitMain(received, 3);
+        assertEquals(3, received.size());
+        assertNull(received.get(2));
+        assertNull(db.getItemById(id));
+        stream.removeObserver(observer);
+    }
+}
@@ -0,0 +1,70 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Locale;
+
+/**
+ * Reads scoped to one site while other sites hold more and more stock: paging, counting
+ * and totalling the site's 1,000 items should cost the same with 0 or 1,000,000 rows
+ * held elsewhere.
+ *
+ * Excluded from the normal test run; run with ./gradlew testDebugUnitTest -Pbenchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocationScaleBenchmark {
+
+    private static final int SITE_ITEMS = 1_000;
+    private static final int OTHER_SITES = 100;
+    private static final int[] OTHER_ROWS = {0, 100_000, 1_000_000};
+
+    private static BenchmarkHarness harness;
+
+    @BeforeClass
+    public static void createHarness() {
+        harness = new BenchmarkHarness();
+    }
+
+    @AfterClass
+    public static void checkBaseline() {
+        harness.assertNoRegressions();
+    }
+
+    @Test
+    public void siteQueriesIgnoreOtherSites() throws Exception {
+        final DatabaseHelper db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        final int site = (int) db.addLocation("site", Locations.NO_PARENT);
+        for (int i = 0; i < OTHER_SITES; i++) {
+            db.addLocation("other " + i, Locations.NO_PARENT);
+        }
+        // Items 1..SITE_ITEMS, each held at the site
+        db.getWritableDatabase().execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < "
+                + SITE_ITEMS + ") INSERT INTO items (name, quantity) SELECT 'item ' || i, 10 FROM n");
+        db.getWritableDatabase().execSQL("INSERT INTO stock (location_id, item_id, quantity) SELECT "
+                + site + ", id, 10 FROM items");
+
+        int held = 0;
+        for (int rows : OTHER_ROWS) {
+            if (rows > held) {
+                // Spread over the other sites; item ids past the site's own, stock only
+                db.getWritableDatabase().execSQL("WITH RECURSIVE n(i) AS (SELECT " + held + " UNION ALL SELECT i + 1"
+                        + " FROM n WHERE i < " + (rows - 1) + ") INSERT INTO stock (location_id, item_id, quantity)"
+                        + " SELECT " + (site + 1) + " + i % " + OTHER_SITES + ", " + SITE_ITEMS + " + 1 + i / "
+                        + OTHER_SITES + ", 1 + i % 7 FROM n");
+                held = rows;
+            }
+            String suffix = String.format(Locale.ROOT, " (%d rows elsewhere)", rows);
+            harness.measure("getStockAfter" + suffix, 200, 2_000,
+                    i -> db.getStockAfter(site, (i * 37) % SITE_ITEMS, 50));
+            harness.measure("getStockCount" + suffix, 200, 2_000, i -> db.getStockCount(site));
+            harness.measure("getStockItemIdAfter" + suffix, 200, 2_000,
+                    i -> db.getStockItemIdAfter(site, 0, (i * 37) % SITE_ITEMS));
+        }
+        db.close();
+    }
+}
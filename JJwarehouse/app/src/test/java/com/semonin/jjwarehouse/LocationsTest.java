@@ -0,0 +1,188 @@
+package com.semonin.jjwarehouse;
+
+import android.util.SparseIntArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stock by location: adjustments, atomic transfers, cross-location totals and
+ * location-scoped paging.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocationsTest {
+
+    private DatabaseHelper db;
+    private int north;
+    private int south;
+    private int bolt;
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        north = (int) db.addLocation("North", Locations.NO_PARENT);
+        south = (int) db.addLocation("South", Locations.NO_PARENT);
+        bolt = (int) db.addItem("bolt", 0);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void namesAreUniquePerParent() {
+        int bin = (int) db.addLocation("A-01", north);
+        assertTrue(bin > 0);
+        assertEquals(-1, db.addLocation("A-01", north));
+        assertTrue(db.addLocation("A-01", south) > 0);
+
+        List<Locations.Location> locations = db.getLocations();
+        assertEquals(4, locations.size());
+        assertEquals("North", locations.get(0).name);
+        assertEquals(bin, locations.get(1).id);
+        assertEquals(north, locations.get(1).parentId);
+    }
+
+    @Test
+    public void adjustingStockMovesTheTotal() {
+        assertEquals(30, db.adjustStock(north, bolt, 30));
+        assertEquals(5, db.adjustStock(south, bolt, 5));
+        assertEquals(35, db.getItemById(bolt).getQuantity());
+        assertEquals(35, db.getInventoryTotals().totalQuantity);
+
+        // Floored at zero: only the 5 units that were there leave the total
+        assertEquals(0, db.adjustStock(south, bolt, -8));
+        assertEquals(30, db.getItemById(bolt).getQuantity());
+        assertEquals(0, db.getStockCount(south));
+
+        assertEquals(-1, db.adjustStock(north + 100, bolt, 1));
+        assertEquals(-1, db.adjustStock(north, bolt + 100, 1));
+    }
+
+    @Test
+    public void transfersAreAllOrNothing() {
+        db.adjustStock(north, bolt, 10);
+        assertTrue(db.transferStock(bolt, north, south, 4));
+        assertFalse(db.transferStock(bolt, north, south, 7));
+        assertFalse(db.transferStock(bolt, north, south + 100, 1));
+
+        SparseIntArray stock = db.getItemStock(bolt);
+        assertEquals(6, stock.get(north));
+        assertEquals(4, stock.get(south));
+        // Transfers never change the item's total
+        assertEquals(10, db.getItemById(bolt).getQuantity());
+    }
+
+    @Test
+    public void unassignedUnitsCanBePutAway() {
+        int nut = (int) db.addItem("nut", 12);
+        assertEquals(12, db.getItemStock(nut).get(Locations.UNASSIGNED));
+
+        assertTrue(db.transferStock(nut, Locations.UNASSIGNED, north, 9));
+        assertFalse(db.transferStock(nut, Locations.UNASSIGNED, south, 4));
+        assertTrue(db.transferStock(nut, north, Locations.UNASSIGNED, 2));
+
+        SparseIntArray stock = db.getItemStock(nut);
+        assertEquals(7, stock.get(north));
+        assertEquals(5, stock.get(Locations.UNASSIGNED));
+        assertEquals(12, db.getItemById(nut).getQuantity());
+    }
+
+    @Test
+    public void decrementsOnlyTakeUnassignedUnits() {
+        db.adjustStock(north, bolt, 6);
+        db.adjustStock(south, bolt, 4);
+        assertEquals(13, db.adjustQuantity(bolt, 3));
+        assertEquals(3, db.getItemStock(bolt).get(Locations.UNASSIGNED));
+
+        // The 3 unassigned units go, the 10 put away stay
+        assertEquals(10, db.adjustQuantity(bolt, -5));
+        assertLocatedWithinTotal(bolt);
+
+        db.updateItem(bolt, "bolt", 0);
+        assertEquals(10, db.getItemById(bolt).getQuantity());
+        assertLocatedWithinTotal(bolt);
+
+        int version = db.getItemById(bolt).getVersion();
+        assertEquals(DatabaseHelper.UpdateResult.Status.UPDATED, db.updateItem(bolt, "bolt", 2, version).status);
+        assertEquals(10, db.getItemById(bolt).getQuantity());
+
+        assertTrue(db.setSku(bolt, "B-1"));
+        assertEquals(Integer.valueOf(10), db.adjustQuantitiesBySku(Collections.singletonMap("B-1", -50)).get("B-1"));
+        assertLocatedWithinTotal(bolt);
+
+        SparseIntArray stock = db.getItemStock(bolt);
+        assertEquals(6, stock.get(north));
+        assertEquals(4, stock.get(south));
+        assertEquals(0, stock.get(Locations.UNASSIGNED));
+    }
+
+    private void assertLocatedWithinTotal(int itemId) {
+        SparseIntArray stock = db.getItemStock(itemId);
+        int located = 0;
+        for (int i = 0; i < stock.size(); i++) {
+            if (stock.keyAt(i) != Locations.UNASSIGNED) {
+                located += stock.valueAt(i);
+            }
+        }
+        int total = db.getItemById(itemId).getQuantity();
+        assertTrue("located " + located + " > total " + total, located <= total);
+    }
+
+    @Test
+    public void totalsPerLocation() {
+        int nut = (int) db.addItem("nut", 0);
+        db.adjustStock(north, bolt, 3);
+        db.adjustStock(north, nut, 4);
+        db.adjustStock(south, nut, 5);
+
+        List<Locations.Totals> totals = db.getLocationTotals();
+        assertEquals(2, totals.size());
+        assertEquals(north, totals.get(0).locationId);
+        assertEquals(2, totals.get(0).itemCount);
+        assertEquals(7, totals.get(0).totalQuantity);
+        assertEquals(5, totals.get(1).totalQuantity);
+    }
+
+    @Test
+    public void pagesOneLocation() {
+        for (int i = 0; i < 30; i++) {
+            int id = (int) db.addItem("item " + i, 0);
+            db.adjustStock(i % 2 == 0 ? north : south, id, i + 1);
+        }
+        assertEquals(15, db.getStockCount(north));
+
+        List<Item> first = db.getStockAfter(north, 0, 10);
+        assertEquals(10, first.size());
+        assertEquals("item 0", first.get(0).getName());
+        // Quantity is what this location holds
+        assertEquals(1, first.get(0).getQuantity());
+        assertEquals("item 2", first.get(1).getName());
+
+        int tenthId = first.get(9).getId();
+        assertEquals(5, db.getStockAfter(north, tenthId, 10).size());
+        assertEquals(9, db.getStockBefore(north, tenthId, 50).size());
+        assertEquals(9, db.countStockBefore(north, tenthId));
+        assertEquals(tenthId, db.getStockItemIdAfter(north, 0, 9));
+        assertEquals(tenthId, db.getStockItemIdAfter(north, first.get(4).getId(), 4));
+        assertEquals(-1, db.getStockItemIdAfter(north, 0, 15));
+    }
+
+    @Test
+    public void deletingAnItemDropsItsStock() {
+        db.adjustStock(north, bolt, 3);
+        db.deleteItem(bolt);
+        assertEquals(0, db.getStockCount(north));
+        assertEquals(0, db.getItemStock(bolt).size());
+    }
+}
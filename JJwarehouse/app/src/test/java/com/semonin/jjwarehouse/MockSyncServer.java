@@ -0,0 +1,359 @@
+package com.semonin.jjwarehouse;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process HTTP server speaking the HttpSyncApi protocol, for sync tests and
+ * benchmarks. Merges uploads the way the backend is expected to: names, thresholds and
+ * SKUs are replaced field by field, quantity deltas are added, and a (client, seq) pair is
+ * applied at most once.
+ */
+class MockSyncServer implements Closeable {
+
+    static final class ServerItem {
+        String name;
+        int quantity;
+        int reorderThreshold;
+        String sku;
+        boolean deleted;
+        long changeSeq;
+    }
+
+    private final ServerSocket socket;
+    private final Thread acceptor;
+
+    private final Map<String, ServerItem> items = new HashMap<>();
+    // Server change seq -> guid of the item it last touched, for "changes since token"
+    private final TreeMap<Long, String> changes = new TreeMap<>();
+    private final Map<String, Long> acknowledged = new HashMap<>();
+    private long changeSeq;
+
+    // Counters for tests and benchmarks
+    private int uploadRequests;
+    private long uploadedBytes;
+    private long appliedChanges;
+    private int failUploadsAfter = -1;
+
+    MockSyncServer() throws IOException {
+        socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::acceptLoop, "mock-sync-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + socket.getLocalPort() + "/sync";
+    }
+
+    // Lets this many more uploads through, then answers every upload with HTTP 503
+    synchronized void failUploadsAfter(int successfulUploads) {
+        failUploadsAfter = uploadRequests + successfulUploads;
+    }
+
+    synchronized void stopFailing() {
+        failUploadsAfter = -1;
+    }
+
+    synchronized ServerItem item(String guid) {
+        return items.get(guid);
+    }
+
+    synchronized int itemCount() {
+        int count = 0;
+        for (ServerItem item : items.values()) {
+            if (!item.deleted) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    synchronized int uploadRequests() {
+        return uploadRequests;
+    }
+
+    synchronized long uploadedBytes() {
+        return uploadedBytes;
+    }
+
+    synchronized long appliedChanges() {
+        return appliedChanges;
+    }
+
+    // A write made by another device
+    synchronized void editOnServer(String guid, String name, int quantityDelta) {
+        ServerItem item = items.get(guid);
+        if (name != null) {
+            item.name = name;
+        }
+        item.quantity = Math.max(0, item.quantity + quantityDelta);
+        touch(guid, item);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void acceptLoop() {
+        while (!socket.isClosed()) {
+            try (Socket connection = socket.accept()) {
+                handle(connection);
+            } catch (IOException e) {
+                // Closed, or a client went away mid-request
+            }
+        }
+    }
+
+    private void handle(Socket connection) throws IOException {
+        InputStream in = new BufferedInputStream(connection.getInputStream());
+        String requestLine = readLine(in);
+        int contentLength = 0;
+        boolean gzipBody = false;
+        String header;
+        while (!(header = readLine(in)).isEmpty()) {
+            String lower = header.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("content-length:")) {
+                contentLength = Integer.parseInt(header.substring(15).trim());
+            } else if (lower.startsWith("content-encoding:") && lower.contains("gzip")) {
+                gzipBody = true;
+            }
+        }
+        byte[] body = new byte[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            int n = in.read(body, read, contentLength - read);
+            if (n < 0) {
+                throw new IOException("Truncated body");
+            }
+            read += n;
+        }
+
+        String[] parts = requestLine.split(" ");
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        int status = 200;
+        if ("POST".equals(parts[0])) {
+            InputStream bodyIn = new ByteArrayInputStream(body);
+            status = upload(gzipBody ? new GZIPInputStream(bodyIn) : bodyIn, response, contentLength);
+        } else {
+            download(parts[1], response);
+        }
+
+        OutputStream out = connection.getOutputStream();
+        byte[] bytes = response.toByteArray();
+        String head = "HTTP/1.1 " + status + (status == 200 ? " OK" : " Unavailable") + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + (status == 200 ? "Content-Encoding: gzip\r\n" : "")
+                + "Content-Length: " + (status == 200 ? bytes.length : 0) + "\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        if (status == 200) {
+            out.write(bytes);
+        }
+        out.flush();
+    }
+
+    private synchronized int upload(InputStream body, OutputStream response, int compressedSize) throws IOException {
+        if (failUploadsAfter >= 0 && uploadRequests >= failUploadsAfter) {
+            return 503;
+        }
+        uploadRequests++;
+        uploadedBytes += compressedSize;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String client = null;
+        long ack = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("client".equals(name)) {
+                client = reader.nextString();
+            } else if ("changes".equals(name)) {
+                long done = acknowledged.containsKey(client) ? acknowledged.get(client) : 0;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    long seq = applyChange(reader, done);
+                    ack = Math.max(ack, seq);
+                }
+                reader.endArray();
+                acknowledged.put(client, Math.max(done, ack));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        JsonWriter writer = gzipJson(response);
+        writer.beginObject().name("ack").value(ack).endObject();
+        writer.close();
+        return 200;
+    }
+
+    // Applies one change unless this client already sent it; returns its seq
+    private long applyChange(JsonReader reader, long alreadyApplied) throws IOException {
+        long seq = 0;
+        String guid = null;
+        String op = null;
+        String name = null;
+        boolean hasName = false;
+        Integer delta = null;
+        Integer threshold = null;
+        String sku = null;
+        boolean hasSku = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "seq":
+                    seq = reader.nextLong();
+                    break;
+                case "guid":
+                    guid = reader.nextString();
+                    break;
+                case "op":
+                    op = reader.nextString();
+                    break;
+                case "name":
+                    hasName = true;
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        name = reader.nextString();
+                    }
+                    break;
+                case "quantity_delta":
+                    delta = reader.nextInt();
+                    break;
+                case "reorder_threshold":
+                    threshold = reader.nextInt();
+                    break;
+                case "sku":
+                    hasSku = true;
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        sku = reader.nextString();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (seq <= alreadyApplied) {
+            return seq;
+        }
+
+        ServerItem item = items.get(guid);
+        if (item == null) {
+            item = new ServerItem();
+            items.put(guid, item);
+        }
+        if ("delete".equals(op)) {
+            item.deleted = true;
+        } else {
+            if (hasName) {
+                item.name = name;
+            }
+            if (delta != null) {
+                item.quantity = Math.max(0, item.quantity + delta);
+            }
+            if (threshold != null) {
+                item.reorderThreshold = threshold;
+            }
+            if (hasSku) {
+                item.sku = sku;
+            }
+        }
+        appliedChanges++;
+        touch(guid, item);
+        return seq;
+    }
+
+    private void touch(String guid, ServerItem item) {
+        if (item.changeSeq != 0) {
+            changes.remove(item.changeSeq);
+        }
+        item.changeSeq = ++changeSeq;
+        changes.put(item.changeSeq, guid);
+    }
+
+    private synchronized void download(String path, OutputStream response) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        int start = path.indexOf('?');
+        if (start >= 0) {
+            for (String pair : path.substring(start + 1).split("&")) {
+                int eq = pair.indexOf('=');
+                query.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        long since = query.containsKey("since") ? Long.parseLong(query.get("since")) : 0;
+        int limit = Integer.parseInt(query.get("limit"));
+
+        JsonWriter writer = gzipJson(response);
+        writer.beginObject();
+        writer.name("items").beginArray();
+        long last = since;
+        int count = 0;
+        Iterator<Map.Entry<Long, String>> it = changes.tailMap(since, false).entrySet().iterator();
+        while (it.hasNext() && count < limit) {
+            Map.Entry<Long, String> entry = it.next();
+            ServerItem item = items.get(entry.getValue());
+            writer.beginObject();
+            writer.name("guid").value(entry.getValue());
+            writer.name("deleted").value(item.deleted);
+            if (!item.deleted) {
+                writer.name("name").value(item.name);
+                writer.name("quantity").value(item.quantity);
+                writer.name("reorder_threshold").value(item.reorderThreshold);
+                writer.name("sku").value(item.sku);
+            }
+            writer.endObject();
+            last = entry.getKey();
+            count++;
+        }
+        writer.endArray();
+        writer.name("token").value(String.valueOf(last));
+        writer.name("has_more").value(it.hasNext());
+        writer.endObject();
+        writer.close();
+    }
+
+    private static JsonWriter gzipJson(OutputStream out) throws IOException {
+        return new JsonWriter(new OutputStreamWriter(new GZIPOutputStream(out), StandardCharsets.UTF_8));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.semonin.jjwarehouse;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 90 days of history for 1,000 items, 1,000,000 movements: charting one item's days
+ * from the rollups against aggregating its raw movements, plus the cost the journal
+ * adds to a quantity change and to an incremental rollup.
+ *
+ * Excluded from the normal test run; run with ./gradlew testDebugUnitTest -Pbenchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MovementHistoryBenchmark {
+
+    private static final int ITEMS = 1_000;
+    private static final int MOVEMENTS = 1_000_000;
+    private static final int DAYS = 90;
+
+    private static BenchmarkHarness harness;
+
+    @BeforeClass
+    public static void createHarness() {
+        harness = new BenchmarkHarness();
+    }
+
+    @AfterClass
+    public static void checkBaseline() {
+        harness.assertNoRegressions();
+    }
+
+    @Test
+    public void ninetyDayChart() throws Exception {
+        final DatabaseHelper db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        final SQLiteDatabase sql = db.getWritableDatabase();
+        sql.execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < " + ITEMS
+                + ") INSERT INTO items (name, quantity) SELECT 'item ' || i, 0 FROM n");
+        final long now = System.currentTimeMillis() / 1000;
+        final long from = now - DAYS * (long) StockJournal.DAY;
+        // Spread evenly over the 90 days, oldest first, as the triggers would have appended them
+        sql.execSQL("WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i < " + (MOVEMENTS - 1)
+                + ") INSERT INTO " + StockJournal.TABLE_MOVEMENTS + " (at, item_id, delta) SELECT "
+                + from + " + i * " + (DAYS * (long) StockJournal.DAY / MOVEMENTS) + ", 1 + i % " + ITEMS
+                + ", (i % 11) - 5 FROM n");
+
+        long start = System.nanoTime();
+        // Keep every raw movement so the raw query below has them to scan
+        int rolled = StockJournal.rollUp(sql, now, Long.MAX_VALUE / 2);
+        System.out.printf("rolled up %d movements in %.1f ms%n", rolled, (System.nanoTime() - start) / 1e6);
+        assertEquals(MOVEMENTS, rolled);
+
+        // Before the first history read, which compacts everything past the retention window
+        long rawIn = rawUnitsIn(sql, 1, from, now);
+        harness.measure("raw movements 90 days", 2, 20, i -> rawUnitsIn(sql, 1 + (i * 37) % ITEMS, from, now));
+
+        List<StockJournal.Bucket> days = db.getMovementHistory(1, StockJournal.DAY, from, now);
+        assertTrue(days.size() <= DAYS + 1);
+        long rolledUpIn = 0;
+        for (StockJournal.Bucket day : days) {
+            rolledUpIn += day.unitsIn;
+        }
+        assertEquals(rawIn, rolledUpIn);
+        harness.measure("getMovementHistory 90 days", 50, 500,
+                i -> db.getMovementHistory(1 + (i * 37) % ITEMS, StockJournal.DAY, from, now));
+        harness.measure("adjustQuantity with journal", 100, 2_000, i -> db.adjustQuantity(1 + (i * 37) % ITEMS, 1));
+        // Each run folds in the one movement appended just before it
+        harness.measure("rollUpMovements incremental", 50, 500, i -> {
+            db.adjustQuantity(1 + (i * 37) % ITEMS, 1);
+            db.rollUpMovements();
+        });
+        db.close();
+    }
+
+    // What a chart would have to run without rollups: aggregate the item's raw movements per day
+    private static long rawUnitsIn(SQLiteDatabase sql, int itemId, long from, long to) {
+        Cursor cursor = sql.rawQuery("SELECT at / " + StockJournal.DAY + " AS day, SUM(MAX(delta, 0)) FROM "
+                        + StockJournal.TABLE_MOVEMENTS + " WHERE item_id = ? AND at >= ? AND at < ? GROUP BY day",
+                new String[]{String.valueOf(itemId), String.valueOf(from), String.valueOf(to)});
+        try {
+            long unitsIn = 0;
+            while (cursor.moveToNext()) {
+                unitsIn += cursor.getLong(1);
+            }
+            return unitsIn;
+        } finally {
+            cursor.close();
+        }
+    }
+}
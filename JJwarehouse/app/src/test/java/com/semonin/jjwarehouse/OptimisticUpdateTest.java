@@ -0,0 +1,141 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Version-checked item updates: conflicts are reported, and the retry helper never
+ * loses an update when many threads write the same row.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OptimisticUpdateTest {
+
+    private DatabaseHelper db;
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void staleVersionIsAConflict() {
+        int id = (int) db.addItem("bolt", 5);
+        Item read = db.getItemById(id);
+        assertEquals(0, read.getVersion());
+
+        DatabaseHelper.UpdateResult first = db.updateItem(id, "bolt", 6, read.getVersion());
+        assertEquals(DatabaseHelper.UpdateResult.Status.UPDATED, first.status);
+        assertEquals(1, first.newVersion);
+
+        // Based on the same, now outdated read
+        DatabaseHelper.UpdateResult second = db.updateItem(id, "hex bolt", 9, read.getVersion());
+        assertEquals(DatabaseHelper.UpdateResult.Status.CONFLICT, second.status);
+        assertEquals(6, second.current.getQuantity());
+        assertEquals(1, second.current.getVersion());
+        assertEquals("bolt", db.getItemById(id).getName());
+    }
+
+    @Test
+    public void everyWriterMovesTheVersion() {
+        int id = (int) db.addItem("bolt", 5);
+        int version = db.getItemById(id).getVersion();
+
+        db.adjustQuantity(id, 2);
+        db.updateItemName(id, "hex bolt");
+        db.setReorderThreshold(id, 3);
+        db.updateItem(id, "hex bolt", 7);
+        Item item = db.getItemById(id);
+        assertEquals(version + 4, item.getVersion());
+
+        assertEquals(DatabaseHelper.UpdateResult.Status.CONFLICT,
+                db.updateItem(id, "bolt", 1, version).status);
+    }
+
+    @Test
+    public void missingItemIsNotFound() {
+        assertEquals(DatabaseHelper.UpdateResult.Status.NOT_FOUND, db.updateItem(42, "x", 1, 0).status);
+        assertEquals(DatabaseHelper.UpdateResult.Status.NOT_FOUND,
+                db.updateItemWithRetry(42, current -> current, 3).status);
+    }
+
+    @Test
+    public void retryGivesUpAfterMaxAttempts() {
+        int id = (int) db.addItem("bolt", 5);
+        // Every merge is overtaken by another write before it lands
+        DatabaseHelper.UpdateResult result = db.updateItemWithRetry(id, current -> {
+            db.adjustQuantity(id, 1);
+            current.setQuantity(0);
+            return current;
+        }, 3);
+        assertEquals(DatabaseHelper.UpdateResult.Status.CONFLICT, result.status);
+        assertEquals(8, db.getItemById(id).getQuantity());
+    }
+
+    @Test
+    public void mergerCanRefuseTheCurrentRow() {
+        int id = (int) db.addItem("bolt", 5);
+        db.updateItemName(id, "hex bolt");
+        DatabaseHelper.UpdateResult result = db.updateItemWithRetry(id, current -> null, 3);
+        assertEquals(DatabaseHelper.UpdateResult.Status.CONFLICT, result.status);
+        assertEquals("hex bolt", result.current.getName());
+        assertEquals(result.current.getVersion(), db.getItemById(id).getVersion());
+    }
+
+    @Test
+    public void noLostUpdatesUnderContention() throws Exception {
+        final int threads = 8;
+        final int incrementsPerThread = 250;
+        final int id = (int) db.addItem("contended", 0);
+        final AtomicInteger merges = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < incrementsPerThread; i++) {
+                    DatabaseHelper.UpdateResult result = db.updateItemWithRetry(id, current -> {
+                        merges.incrementAndGet();
+                        current.setQuantity(current.getQuantity() + 1);
+                        return current;
+                    }, Integer.MAX_VALUE);
+                    assertEquals(DatabaseHelper.UpdateResult.Status.UPDATED, result.status);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        int total = threads * incrementsPerThread;
+        Item item = db.getItemById(id);
+        // Every conflict cost one extra merge; none of them dropped an increment
+        String counts = "merges: " + merges.get() + ", conflicts: " + (merges.get() - total);
+        assertEquals(counts, total, item.getQuantity());
+        assertEquals(counts, total, item.getVersion());
+    }
+}
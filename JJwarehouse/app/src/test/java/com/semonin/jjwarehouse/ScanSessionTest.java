@@ -0,0 +1,88 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.*;
+
+/**
+ * ScanSession: scans stay in memory until commit, which applies them all at once.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ScanSessionTest {
+
+    private DatabaseHelper db;
+    private int bolt;
+    private int nut;
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        bolt = (int) db.addItem("bolt", 10);
+        nut = (int) db.addItem("nut", 1);
+        db.setSku(bolt, "B-1");
+        db.setSku(nut, "N-1");
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void scansApplyOnCommit() {
+        ScanSession session = new ScanSession(db);
+        for (int i = 0; i < 5; i++) {
+            session.scan("B-1");
+        }
+        session.scan(" B-1 ", 2);
+        session.scan("N-1", -3);
+        session.scan("X-9");
+        session.scan("");
+        assertEquals(8, session.getScanCount());
+        assertEquals(3, session.getSkuCount());
+        assertEquals(7, session.getPending("B-1"));
+        // Nothing written yet
+        assertEquals(10, db.getItemById(bolt).getQuantity());
+
+        ScanSession.Result result = session.commit();
+        assertEquals(Integer.valueOf(17), result.quantities.get("B-1"));
+        // Floored at zero like adjustQuantity
+        assertEquals(Integer.valueOf(0), result.quantities.get("N-1"));
+        assertEquals(Integer.valueOf(1), result.unknown.get("X-9"));
+        assertEquals(17, db.getItemById(bolt).getQuantity());
+        assertEquals(0, db.getItemById(nut).getQuantity());
+
+        assertEquals(0, session.getScanCount());
+        assertTrue(session.commit().quantities.isEmpty());
+    }
+
+    @Test
+    public void failedCommitKeepsTheScans() {
+        ScanSession session = new ScanSession(db);
+        session.scan("B-1", 4);
+        // Make the write fail
+        db.getWritableDatabase().execSQL("DROP TABLE " + DatabaseHelper.TABLE_ITEMS);
+        try {
+            session.commit();
+            fail("commit should have failed");
+        } catch (RuntimeException expected) {
+            // the table is gone
+        }
+        assertEquals(4, session.getPending("B-1"));
+        assertEquals(1, session.getScanCount());
+    }
+
+    @Test
+    public void discardDropsEverything() {
+        ScanSession session = new ScanSession(db);
+        session.scan("B-1");
+        session.discard();
+        assertTrue(session.commit().quantities.isEmpty());
+        assertEquals(10, db.getItemById(bolt).getQuantity());
+    }
+}
@@ -0,0 +1,85 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for password hashing. Robolectric provides the Looper MainThreadGuard uses.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SecurityUtilsTest {
+
+    @Test
+    public void matchesReferencePbkdf2() throws Exception {
+        String stored = SecurityUtils.hashPassword("s3cret-pässword", 1000);
+        String[] parts = stored.split("\\$");
+        assertEquals("pbkdf2-sha256", parts[0]);
+        assertEquals("1000", parts[1]);
+
+        byte[] salt = fromHex(parts[2]);
+        PBEKeySpec spec = new PBEKeySpec("s3cret-pässword".toCharArray(), salt, 1000, 256);
+        byte[] expected = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        assertArrayEquals(expected, fromHex(parts[3]));
+    }
+
+    @Test
+    public void verifiesOwnHashes() {
+        int iterations = SecurityUtils.MIN_ITERATIONS;
+        String stored = SecurityUtils.hashPassword("hunter2", iterations);
+        assertTrue(SecurityUtils.verifyPassword("hunter2", stored));
+        assertFalse(SecurityUtils.verifyPassword("hunter3", stored));
+        assertFalse(SecurityUtils.verifyPassword("hunter2", stored.substring(0, stored.length() - 1)));
+        assertNotEquals(stored, SecurityUtils.hashPassword("hunter2", iterations));
+
+        String empty = SecurityUtils.hashPassword("", iterations);
+        assertTrue(SecurityUtils.verifyPassword("", empty));
+        String astral = SecurityUtils.hashPassword("p\u00e4ss\ud83d\udd11", iterations);
+        assertTrue(SecurityUtils.verifyPassword("p\u00e4ss\ud83d\udd11", astral));
+        assertFalse(SecurityUtils.verifyPassword("p\u00e4ss", astral));
+    }
+
+    @Test
+    public void rejectsIterationCountsOutOfBounds() {
+        String stored = SecurityUtils.hashPassword("hunter2", SecurityUtils.MIN_ITERATIONS);
+        String rest = stored.substring(stored.indexOf('$', SecurityUtils.PBKDF2_PREFIX.length()));
+        for (String count : new String[]{"2147483647", "99999999999", "0", "-5", "", "12a"}) {
+            assertFalse(count, SecurityUtils.verifyPassword("hunter2", SecurityUtils.PBKDF2_PREFIX + count + rest));
+        }
+        // Hashed below the floor, so refused even though it is genuine
+        assertFalse(SecurityUtils.verifyPassword("hunter2", SecurityUtils.hashPassword("hunter2", 1000)));
+    }
+
+    @Test
+    public void acceptsAndUpgradesLegacySha256() {
+        // SHA-256("password") as the old hashPassword stored it
+        String legacy = "5e884898da28047151d0e56f8dc6292773603d0d6aabbdd62a11ef721d1542d8";
+        assertTrue(SecurityUtils.verifyPassword("password", legacy));
+        assertFalse(SecurityUtils.verifyPassword("Password", legacy));
+        assertTrue(SecurityUtils.needsRehash(legacy));
+
+        SecurityUtils.setIterations(SecurityUtils.MIN_ITERATIONS);
+        assertFalse(SecurityUtils.needsRehash(SecurityUtils.hashPassword("password")));
+        assertTrue(SecurityUtils.needsRehash(SecurityUtils.hashPassword("password", 1000)));
+    }
+
+    @Test
+    public void calibrationStaysInBounds() {
+        int iterations = SecurityUtils.calibrateIterations(1);
+        assertTrue(iterations >= SecurityUtils.MIN_ITERATIONS);
+        assertTrue(iterations <= SecurityUtils.MAX_ITERATIONS);
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,87 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * SKU lookup latency against a 1,000,000-item catalogue where every item has a SKU:
+ * single lookups, a 100-scan batch resolved in one query versus 100 round trips, and a
+ * ScanSession commit.
+ *
+ * Excluded from the normal test run; run with ./gradlew testDebugUnitTest -Pbenchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SkuLookupBenchmark {
+
+    private static final int ROWS = 1_000_000;
+    private static final int BATCH = 100;
+
+    private static BenchmarkHarness harness;
+
+    @BeforeClass
+    public static void createHarness() {
+        harness = new BenchmarkHarness();
+    }
+
+    @AfterClass
+    public static void checkBaseline() {
+        harness.assertNoRegressions();
+    }
+
+    private static String sku(int i) {
+        return String.format(Locale.ROOT, "SKU%08d", i);
+    }
+
+    // Scattered over the catalogue, so lookups do not hit the same index pages
+    private static int pick(int i) {
+        return 1 + (int) ((i * 7919L) % ROWS);
+    }
+
+    @Test
+    public void lookups() throws Exception {
+        final DatabaseHelper db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        long start = System.nanoTime();
+        db.getWritableDatabase().execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < "
+                + ROWS + ") INSERT INTO items (name, quantity, sku) "
+                + "SELECT 'item ' || i, i % 1000, printf('SKU%08d', i) FROM n");
+        System.out.printf(Locale.ROOT, "seeded %d items in %.1fs%n", ROWS, (System.nanoTime() - start) / 1e9);
+        assertEquals(42 % 1000, db.getItemBySku(sku(42)).getQuantity());
+
+        harness.measure("getItemBySku " + ROWS, 1_000, 20_000, i -> db.getItemBySku(sku(pick(i))));
+
+        final List<List<String>> batches = new ArrayList<>();
+        for (int b = 0; b < 300; b++) {
+            List<String> batch = new ArrayList<>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                batch.add(sku(pick(b * BATCH + i)));
+            }
+            batches.add(batch);
+        }
+        harness.measure("getItemBySku x" + BATCH + " " + ROWS, 20, 200, i -> {
+            for (String sku : batches.get(i % batches.size())) {
+                db.getItemBySku(sku);
+            }
+        });
+        harness.measure("getItemsBySkus " + BATCH + " " + ROWS, 20, 200,
+                i -> db.getItemsBySkus(batches.get(i % batches.size())));
+
+        harness.measure("ScanSession commit " + BATCH + " " + ROWS, 20, 200, i -> {
+            ScanSession session = new ScanSession(db);
+            for (String sku : batches.get(i % batches.size())) {
+                session.scan(sku);
+            }
+            session.commit();
+        });
+        db.close();
+    }
+}
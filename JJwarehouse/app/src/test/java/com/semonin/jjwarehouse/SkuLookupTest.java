@@ -0,0 +1,82 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * SKU assignment and lookup: uniqueness, single and batched resolution.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SkuLookupTest {
+
+    private DatabaseHelper db;
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void skusAreUniqueAndTrimmed() {
+        int bolt = (int) db.addItem("bolt", 5);
+        int nut = (int) db.addItem("nut", 3);
+        assertTrue(db.setSku(bolt, " 4006381333931 "));
+        assertFalse(db.setSku(nut, "4006381333931"));
+        assertNull(db.getItemById(nut).getSku());
+        assertFalse(db.setSku(nut + 100, "123"));
+
+        Item item = db.getItemBySku("4006381333931");
+        assertEquals(bolt, item.getId());
+        assertEquals("4006381333931", item.getSku());
+        assertNull(db.getItemBySku("0000"));
+        assertNull(db.getItemBySku("  "));
+
+        // Blank clears it, and any number of items may have none
+        assertTrue(db.setSku(bolt, ""));
+        assertNull(db.getItemBySku("4006381333931"));
+        assertTrue(db.setSku(nut, "4006381333931"));
+    }
+
+    @Test
+    public void relabellingMovesTheVersion() {
+        int bolt = (int) db.addItem("bolt", 5);
+        int version = db.getItemById(bolt).getVersion();
+        db.setSku(bolt, "A-1");
+        assertEquals(version + 1, db.getItemById(bolt).getVersion());
+    }
+
+    @Test
+    public void batchResolvesEveryKnownSku() {
+        // More SKUs than one statement may bind
+        int count = DatabaseHelper.MAX_SQL_VARIABLES * 2 + 5;
+        List<String> scanned = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int id = (int) db.addItem("item " + i, i);
+            db.setSku(id, "SKU" + i);
+            scanned.add("SKU" + i);
+        }
+        scanned.addAll(Arrays.asList("SKU0", " SKU1", "missing", null, ""));
+
+        Map<String, Item> items = db.getItemsBySkus(scanned);
+        assertEquals(count, items.size());
+        assertEquals("item 1", items.get("SKU1").getName());
+        assertEquals(count - 1, items.get("SKU" + (count - 1)).getQuantity());
+        assertFalse(items.containsKey("missing"));
+    }
+}
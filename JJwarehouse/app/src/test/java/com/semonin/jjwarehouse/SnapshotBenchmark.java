@@ -0,0 +1,95 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * InventorySnapshot against List<Item> at 100k rows: retained heap of each, and the
+ * time to sort by name and by quantity.
+ *
+ * Excluded from the normal test run; run with ./gradlew testDebugUnitTest -Pbenchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SnapshotBenchmark {
+
+    private static final int ROWS = 100_000;
+
+    private static final Comparator<Item> BY_NAME = (a, b) -> InventorySnapshot.NAME_ORDER.compare(a.getName(), b.getName());
+    private static final Comparator<Item> BY_QUANTITY = (a, b) -> Integer.compare(a.getQuantity(), b.getQuantity());
+
+    private static BenchmarkHarness harness;
+
+    private DatabaseHelper db;
+
+    @BeforeClass
+    public static void createHarness() {
+        harness = new BenchmarkHarness();
+    }
+
+    @AfterClass
+    public static void checkBaseline() {
+        harness.assertNoRegressions();
+    }
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        new InventorySeeder(22).seedItems(db, ROWS, InventorySeeder.normal(18, 6, 3, 40), 1_000);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void footprint() {
+        long before = HeapProbe.retainedBytes();
+        List<Item> items = db.getItems();
+        long listBytes = HeapProbe.retainedBytes() - before;
+        assertEquals(ROWS, items.size());
+        items = null;
+
+        before = HeapProbe.retainedBytes();
+        InventorySnapshot snapshot = db.getInventorySnapshot();
+        long snapshotBytes = HeapProbe.retainedBytes() - before;
+        assertEquals(ROWS, snapshot.size());
+
+        System.out.println("retained at " + ROWS + " rows: List<Item> " + listBytes / 1024 + " KB ("
+                + listBytes / ROWS + " B/row), snapshot " + snapshotBytes / 1024 + " KB ("
+                + snapshotBytes / ROWS + " B/row), " + snapshot.distinctNames() + " distinct names");
+        assertTrue("snapshot is not smaller than the list", snapshotBytes < listBytes);
+    }
+
+    @Test
+    public void sort() throws Exception {
+        final List<Item> items = db.getItems();
+        final InventorySnapshot snapshot = db.getInventorySnapshot();
+
+        harness.measure("sort List<Item> by name " + ROWS, 3, 10, i -> {
+            List<Item> sorted = new ArrayList<>(items);
+            Collections.sort(sorted, BY_NAME);
+        });
+        harness.measure("sort snapshot by name " + ROWS, 3, 10, i -> snapshot.orderByName());
+        harness.measure("sort List<Item> by quantity " + ROWS, 3, 10, i -> {
+            List<Item> sorted = new ArrayList<>(items);
+            Collections.sort(sorted, BY_QUANTITY);
+        });
+        harness.measure("sort snapshot by quantity " + ROWS, 3, 10, i -> snapshot.orderByQuantity());
+        harness.measure("snapshot read " + ROWS, 1, 5, i -> db.getInventorySnapshot());
+        harness.measure("getItems " + ROWS, 1, 5, i -> db.getItems());
+    }
+}
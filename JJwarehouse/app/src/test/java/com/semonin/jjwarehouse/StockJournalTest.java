@@ -0,0 +1,213 @@
+package com.semonin.jjwarehouse;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.SparseIntArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The movement journal: one row per quantity change whichever way it was written, in
+ * the same transaction, and hourly/daily rollups that stay exact across incremental
+ * runs and compaction of old raw movements.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StockJournalTest {
+
+    // A fixed UTC midnight, 2024-01-01, so bucket boundaries are known
+    private static final long DAY_ONE = 1_704_067_200L;
+
+    private DatabaseHelper db;
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void everyQuantityChangeIsJournaled() {
+        int bolt = (int) db.addItem("bolt", 10);
+        db.adjustQuantity(bolt, 5);
+        db.updateItem(bolt, "bolt", 12);
+        db.updateItemName(bolt, "hex bolt");
+        db.setReorderThreshold(bolt, 4);
+        db.setSku(bolt, "0001");
+        assertEquals(Integer.valueOf(20), db.adjustQuantitiesBySku(Collections.singletonMap("0001", 8))
+                .get("0001"));
+        SparseIntArray deltas = new SparseIntArray();
+        deltas.put(bolt, -2);
+        db.adjustQuantities(deltas);
+        db.deleteItem(bolt);
+
+        // Renames, thresholds and SKUs move no stock
+        assertArrayEquals(new long[]{10, 5, -3, 8, -2, -18}, deltas(bolt));
+    }
+
+    @Test
+    public void zeroQuantityItemsStartWithoutMovements() {
+        int nut = (int) db.addItem("nut", 0);
+        db.updateItem(nut, "nut", 0);
+        db.deleteItem(nut);
+        assertEquals(0, deltas(nut).length);
+    }
+
+    @Test
+    public void rolledBackChangesLeaveNoMovement() {
+        int bolt = (int) db.addItem("bolt", 10);
+        SQLiteDatabase sql = db.getWritableDatabase();
+        sql.beginTransaction();
+        try {
+            sql.execSQL("UPDATE items SET quantity = 99 WHERE id = " + bolt);
+        } finally {
+            sql.endTransaction();
+        }
+        assertArrayEquals(new long[]{10}, deltas(bolt));
+    }
+
+    @Test
+    public void rollupsSumMovementsPerHourAndDay() {
+        journal(DAY_ONE + 60, 1, 10);
+        journal(DAY_ONE + 120, 1, -4);
+        journal(DAY_ONE + 3 * StockJournal.HOUR, 1, 6);
+        journal(DAY_ONE + StockJournal.DAY + 5, 1, -1);
+        journal(DAY_ONE + 200, 2, 7);
+        SQLiteDatabase sql = db.getWritableDatabase();
+        long now = DAY_ONE + 2 * StockJournal.DAY;
+        assertEquals(5, StockJournal.rollUp(sql, now, StockJournal.RAW_RETENTION_SECONDS));
+
+        List<StockJournal.Bucket> hours = StockJournal.readBuckets(sql, 1, StockJournal.HOUR, DAY_ONE, now);
+        assertEquals(3, hours.size());
+        assertBucket(hours.get(0), DAY_ONE, 10, 4, 2);
+        assertBucket(hours.get(1), DAY_ONE + 3 * StockJournal.HOUR, 6, 0, 1);
+
+        List<StockJournal.Bucket> days = StockJournal.readBuckets(sql, 1, StockJournal.DAY, DAY_ONE, now);
+        assertEquals(2, days.size());
+        assertBucket(days.get(0), DAY_ONE, 16, 4, 3);
+        assertEquals(12, days.get(0).net());
+        assertBucket(days.get(1), DAY_ONE + StockJournal.DAY, 0, 1, 1);
+
+        List<StockJournal.Bucket> all = StockJournal.readBuckets(sql, StockJournal.ALL_ITEMS, StockJournal.DAY,
+                DAY_ONE, now);
+        assertBucket(all.get(0), DAY_ONE, 23, 4, 4);
+
+        // A range starting mid-day still includes that day's bucket
+        assertEquals(2, StockJournal.readBuckets(sql, 1, StockJournal.DAY, DAY_ONE + 100, now).size());
+    }
+
+    @Test
+    public void laterRunsAddOnlyNewMovements() {
+        SQLiteDatabase sql = db.getWritableDatabase();
+        long now = DAY_ONE + StockJournal.DAY;
+        journal(DAY_ONE + 10, 1, 3);
+        StockJournal.rollUp(sql, now, StockJournal.RAW_RETENTION_SECONDS);
+        assertEquals(0, StockJournal.rollUp(sql, now, StockJournal.RAW_RETENTION_SECONDS));
+
+        journal(DAY_ONE + 20, 1, 4);
+        journal(DAY_ONE + 30, 1, -2);
+        assertEquals(2, StockJournal.rollUp(sql, now, StockJournal.RAW_RETENTION_SECONDS));
+        assertBucket(StockJournal.readBuckets(sql, 1, StockJournal.DAY, DAY_ONE, now).get(0), DAY_ONE, 7, 2, 3);
+    }
+
+    @Test
+    public void oldMovementsAreCompactedIntoTheRollups() {
+        SQLiteDatabase sql = db.getWritableDatabase();
+        long now = DAY_ONE + 30L * StockJournal.DAY;
+        journal(DAY_ONE, 1, 5);
+        journal(DAY_ONE + 1, 1, 5);
+        journal(now - StockJournal.HOUR, 1, -3);
+        StockJournal.rollUp(sql, now, StockJournal.RAW_RETENTION_SECONDS);
+
+        // Only the movement inside the retention window is still raw
+        assertEquals(1, DatabaseUtils.queryNumEntries(sql, StockJournal.TABLE_MOVEMENTS));
+        List<StockJournal.Bucket> days = StockJournal.readBuckets(sql, 1, StockJournal.DAY, DAY_ONE, now);
+        assertEquals(2, days.size());
+        assertBucket(days.get(0), DAY_ONE, 10, 0, 2);
+
+        // Sequence numbers keep rising after compaction, so new movements are not mistaken for rolled ones
+        sql.execSQL("DELETE FROM " + StockJournal.TABLE_MOVEMENTS);
+        journal(now, 1, 1);
+        assertEquals(1, StockJournal.rollUp(sql, now, StockJournal.RAW_RETENTION_SECONDS));
+    }
+
+    @Test
+    public void hourlyRollupsExpireButDailyOnesStay() {
+        SQLiteDatabase sql = db.getWritableDatabase();
+        long now = DAY_ONE + 200L * StockJournal.DAY;
+        journal(DAY_ONE, 1, 5);
+        StockJournal.rollUp(sql, now, StockJournal.RAW_RETENTION_SECONDS);
+        assertTrue(StockJournal.readBuckets(sql, 1, StockJournal.HOUR, DAY_ONE, now).isEmpty());
+        assertEquals(1, StockJournal.readBuckets(sql, 1, StockJournal.DAY, DAY_ONE, now).size());
+    }
+
+    @Test
+    public void historyIncludesMovementsNotYetRolledUp() {
+        int bolt = (int) db.addItem("bolt", 10);
+        db.adjustQuantity(bolt, -3);
+        long now = System.currentTimeMillis() / 1000;
+
+        List<StockJournal.Bucket> days = db.getMovementHistory(bolt, StockJournal.DAY, now - 90L * StockJournal.DAY,
+                now + 1);
+        assertEquals(1, days.size());
+        assertEquals(10, days.get(0).unitsIn);
+        assertEquals(3, days.get(0).unitsOut);
+        long net = 0;
+        for (StockJournal.Bucket hour : db.getMovementHistory(StockJournal.ALL_ITEMS, StockJournal.HOUR,
+                now - StockJournal.DAY, now + 1)) {
+            net += hour.net();
+        }
+        assertEquals(7, net);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void historyRejectsOtherResolutions() {
+        db.getMovementHistory(1, 60, 0, 1);
+    }
+
+    private void journal(long at, int itemId, int delta) {
+        db.getWritableDatabase().execSQL("INSERT INTO " + StockJournal.TABLE_MOVEMENTS
+                + " (at, item_id, delta) VALUES (?, ?, ?)", new Object[]{at, itemId, delta});
+    }
+
+    // One item's journaled deltas, oldest first
+    private long[] deltas(int itemId) {
+        Cursor cursor = db.getReadableDatabase().rawQuery("SELECT delta FROM " + StockJournal.TABLE_MOVEMENTS
+                + " WHERE item_id = ? ORDER BY seq", new String[]{String.valueOf(itemId)});
+        try {
+            List<Long> deltas = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                deltas.add(cursor.getLong(0));
+            }
+            long[] result = new long[deltas.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = deltas.get(i);
+            }
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertBucket(StockJournal.Bucket bucket, long start, long in, long out, int movements) {
+        assertEquals(start, bucket.start);
+        assertEquals(in, bucket.unitsIn);
+        assertEquals(out, bucket.unitsOut);
+        assertEquals(movements, bucket.movements);
+    }
+}
@@ -0,0 +1,68 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sync throughput for 10,000 pending changes against MockSyncServer over loopback HTTP:
+ * first a full upload of new items, then a round of quantity edits. Reports changes per
+ * second and compressed bytes per change.
+ *
+ * Excluded from the normal test run; run with ./gradlew testDebugUnitTest -Pbenchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncBenchmark {
+
+    private static final int CHANGES = 10_000;
+
+    private DatabaseHelper db;
+    private MockSyncServer server;
+    private SyncEngine engine;
+
+    @Before
+    public void setUp() throws IOException {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        server = new MockSyncServer();
+        engine = new SyncEngine(db, new HttpSyncApi(server.url()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        db.close();
+    }
+
+    @Test
+    public void syncTenThousandChanges() throws IOException {
+        new InventorySeeder(42).seedItems(db, CHANGES, InventorySeeder.normal(18, 6, 3, 60), 500);
+        assertEquals(CHANGES, db.getPendingChangeCount());
+        report("initial upload", CHANGES);
+
+        // One statement, one logged update per row
+        db.getWritableDatabase().execSQL("UPDATE items SET quantity = quantity + 1");
+        assertEquals(CHANGES, db.getPendingChangeCount());
+        report("quantity edits", CHANGES);
+    }
+
+    private void report(String name, int pending) throws IOException {
+        long bytesBefore = server.uploadedBytes();
+        long start = System.nanoTime();
+        SyncEngine.Result result = engine.sync();
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(pending, result.uploaded);
+        assertEquals(0, db.getPendingChangeCount());
+        System.out.printf(Locale.ROOT, "%-16s %6d changes in %4d batches  %8.0f changes/s  %5.1f B/change gzip  pulled %d%n",
+                name, result.uploaded, result.uploadBatches, result.uploaded / (nanos / 1e9),
+                (server.uploadedBytes() - bytesBefore) / (double) result.uploaded, result.downloaded);
+    }
+}
@@ -0,0 +1,191 @@
+package com.semonin.jjwarehouse;
+
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * SyncEngine and the change log against MockSyncServer over real HTTP.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncEngineTest {
+
+    private DatabaseHelper db;
+    private MockSyncServer server;
+    private SyncEngine engine;
+
+    @Before
+    public void setUp() throws IOException {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        server = new MockSyncServer();
+        engine = new SyncEngine(db, new HttpSyncApi(server.url()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        db.close();
+    }
+
+    private String guidOf(long id) {
+        Cursor cursor = db.getReadableDatabase().rawQuery("SELECT guid FROM items WHERE id = ?",
+                new String[]{String.valueOf(id)});
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void everyWriteIsLogged() {
+        long id = db.addItem("bolt", 5);
+        db.updateItemName((int) id, "hex bolt");
+        db.adjustQuantity((int) id, 3);
+        db.updateItem((int) id, "hex bolt", 8); // no actual change
+        db.setReorderThreshold((int) id, 4);
+        db.setSku((int) id, "0042");
+        db.deleteItem((int) id);
+        assertEquals(6, db.getPendingChangeCount());
+
+        List<SyncApi.Change> changes = db.getPendingChanges(10);
+        assertEquals(ChangeLog.OP_INSERT, changes.get(0).op);
+        assertEquals(ChangeLog.FIELD_NAME, changes.get(1).fields);
+        assertEquals(ChangeLog.FIELD_QUANTITY, changes.get(2).fields);
+        assertEquals(3, changes.get(2).quantityDelta);
+        assertEquals(ChangeLog.FIELD_REORDER_THRESHOLD, changes.get(3).fields);
+        assertEquals(ChangeLog.FIELD_SKU, changes.get(4).fields);
+        assertEquals("0042", changes.get(4).sku);
+        assertEquals(ChangeLog.OP_DELETE, changes.get(5).op);
+    }
+
+    @Test
+    public void skuEditsReachOtherDevices() throws IOException {
+        int id = (int) db.addItem("bolt", 10);
+        db.setSku(id, "0042");
+        engine.sync();
+        String guid = guidOf(id);
+        assertEquals("0042", server.item(guid).sku);
+
+        // A second device pulls the item with its SKU
+        DatabaseHelper other = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        try {
+            new SyncEngine(other, new HttpSyncApi(server.url())).sync();
+            assertEquals("bolt", other.getItemBySku("0042").getName());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void uploadsInBatchesAndClearsTheLog() throws IOException {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 1_200; i++) {
+            Item item = new Item();
+            item.setName("item " + i);
+            item.setQuantity(i);
+            items.add(item);
+        }
+        db.addItems(items);
+
+        SyncEngine.Result result = engine.sync();
+        assertEquals(1_200, result.uploaded);
+        assertEquals(3, result.uploadBatches);
+        assertEquals(0, db.getPendingChangeCount());
+        assertEquals(1_200, server.itemCount());
+        assertEquals(7, server.item(guidOf(8)).quantity);
+
+        // Own changes come back on the pull but are not logged again
+        assertEquals(0, db.getPendingChangeCount());
+        assertEquals(0, engine.sync().uploaded);
+    }
+
+    @Test
+    public void resumesFromCheckpointAfterFailure() throws IOException {
+        for (int i = 0; i < 1_100; i++) {
+            db.addItem("item " + i, 1);
+        }
+        server.failUploadsAfter(1);
+        try {
+            engine.sync();
+            fail("upload should have failed");
+        } catch (IOException expected) {
+            // The first batch stays acknowledged
+        }
+        assertEquals(1_100 - SyncEngine.UPLOAD_BATCH_SIZE, db.getPendingChangeCount());
+
+        server.stopFailing();
+        engine.sync();
+        assertEquals(0, db.getPendingChangeCount());
+        assertEquals(1_100, server.appliedChanges());
+        assertEquals(1_100, server.itemCount());
+    }
+
+    @Test
+    public void mergesServerChangesPerField() throws IOException {
+        int id = (int) db.addItem("bolt", 10);
+        engine.sync();
+        String guid = guidOf(id);
+
+        // Another device renames and takes 4 out; this device adds 3
+        server.editOnServer(guid, "hex bolt", -4);
+        db.adjustQuantity(id, 3);
+        engine.sync();
+
+        Item item = db.getItemById(id);
+        assertEquals("hex bolt", item.getName());
+        assertEquals(9, item.getQuantity());
+        assertEquals(9, server.item(guid).quantity);
+    }
+
+    @Test
+    public void pendingLocalFieldsSurviveAPull() {
+        int id = (int) db.addItem("bolt", 10);
+        String guid = guidOf(id);
+        db.acknowledgeChanges(Long.MAX_VALUE);
+
+        // Not uploaded yet: local rename and +2
+        db.updateItemName(id, "local name");
+        db.adjustQuantity(id, 2);
+
+        SyncApi.RemoteItem remote = new SyncApi.RemoteItem(guid, false, ChangeLog.ALL_FIELDS, "server name", 20, 5, null);
+        db.applyRemoteChanges(Collections.singletonList(remote), "1");
+
+        Item item = db.getItemById(id);
+        assertEquals("local name", item.getName());
+        assertEquals(22, item.getQuantity());
+        assertEquals(5, item.getReorderThreshold());
+        assertEquals(2, db.getPendingChangeCount());
+        assertEquals("1", db.getSyncToken());
+    }
+
+    @Test
+    public void serverInsertsAndDeletesAreApplied() {
+        int id = (int) db.addItem("gone", 1);
+        String guid = guidOf(id);
+        db.acknowledgeChanges(Long.MAX_VALUE);
+
+        List<SyncApi.RemoteItem> delta = new ArrayList<>();
+        delta.add(new SyncApi.RemoteItem(guid, true, 0, null, 0, 0, null));
+        delta.add(new SyncApi.RemoteItem("feedface", false, ChangeLog.ALL_FIELDS, "new", 7, 0, "0042"));
+        db.applyRemoteChanges(delta, "2");
+
+        assertEquals(1, db.getItemCount());
+        assertEquals("new", db.getItems().get(0).getName());
+        assertEquals("new", db.getItemBySku("0042").getName());
+        assertEquals(0, db.getPendingChangeCount());
+    }
+}
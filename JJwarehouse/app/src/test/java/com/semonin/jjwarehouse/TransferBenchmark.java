@@ -0,0 +1,124 @@
+package com.semonin.jjwarehouse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streaming import and export at 10k, 100k and 1M rows: rows per second and the
+ * retained heap while streaming, which must not grow with the row count.
+ *
+ * Excluded from the normal test run; run with ./gradlew testDebugUnitTest -Pbenchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TransferBenchmark {
+
+    private static final int[] SIZES = {10_000, 100_000, 1_000_000};
+    private static final long FLAT_HEAP_TOLERANCE = 4L * 1024 * 1024;
+    // Rows a 10x larger table may add to the retained heap before it counts as growth;
+    // holding the extra 90k rows as Items would take several megabytes
+    private static final long TENFOLD_HEAP_TOLERANCE = 2L * 1024 * 1024;
+
+    private DatabaseHelper db;
+
+    @Before
+    public void setUp() {
+        db = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void importThenExport() throws IOException {
+        long firstImport = -1;
+        long firstExport = -1;
+        for (int rows : SIZES) {
+            db.getWritableDatabase().execSQL("DELETE FROM items");
+
+            HeapProbe probe = new HeapProbe(1024 * 1024);
+            probe.probe();
+            long start = System.nanoTime();
+            InventoryTransfer.ImportResult imported = db.importItems(probe.csvSource(rows), InventoryTransfer.Format.CSV);
+            long importNanos = System.nanoTime() - start;
+            probe.probe();
+            assertEquals(rows, imported.getInserted());
+            long importPeak = probe.peak();
+            report("import", rows, importNanos, importPeak, probe.probes());
+
+            probe = new HeapProbe(1024 * 1024);
+            probe.probe();
+            start = System.nanoTime();
+            assertEquals(rows, db.exportItems(probe.sink(), InventoryTransfer.Format.CSV));
+            long exportNanos = System.nanoTime() - start;
+            probe.probe();
+            long exportPeak = probe.peak();
+            report("export", rows, exportNanos, exportPeak, probe.probes());
+
+            if (firstImport < 0) {
+                firstImport = importPeak;
+                firstExport = exportPeak;
+            }
+            assertTrue("import heap grew at " + rows + " rows", importPeak - firstImport < FLAT_HEAP_TOLERANCE);
+            assertTrue("export heap grew at " + rows + " rows", exportPeak - firstExport < FLAT_HEAP_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void exportHeapStaysFlat() throws IOException {
+        seed(10_000);
+        long small = exportPeak();
+        seed(90_000);
+        long large = exportPeak();
+        assertTrue("export retained heap grew from " + small / 1024 + " KB at 10k rows to " + large / 1024
+                + " KB at 100k", large - small < TENFOLD_HEAP_TOLERANCE);
+    }
+
+    @Test
+    public void importHeapStaysFlat() throws IOException {
+        long small = importPeak(10_000);
+        long large = importPeak(100_000);
+        assertTrue("import retained heap grew from " + small / 1024 + " KB at 10k rows to " + large / 1024
+                + " KB at 100k", large - small < TENFOLD_HEAP_TOLERANCE);
+        // Row i of both runs has the same guid, so the second run updated the first 10k
+        assertEquals(100_000, db.getItemCount());
+    }
+
+    // Adds count rows in one statement, without building them in Java
+    private void seed(int count) {
+        db.getWritableDatabase().execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < "
+                + count + ") INSERT INTO items (name, quantity, reorder_threshold) "
+                + "SELECT 'item ' || i, i % 100, i % 7 FROM n");
+    }
+
+    private long exportPeak() throws IOException {
+        HeapProbe probe = new HeapProbe(256 * 1024);
+        probe.probe();
+        db.exportItems(probe.sink(), InventoryTransfer.Format.CSV);
+        probe.probe();
+        return probe.peak();
+    }
+
+    private long importPeak(int rows) throws IOException {
+        HeapProbe probe = new HeapProbe(256 * 1024);
+        probe.probe();
+        db.importItems(probe.csvSource(rows), InventoryTransfer.Format.CSV);
+        probe.probe();
+        return probe.peak();
+    }
+
+    private static void report(String name, int rows, long nanos, long peak, int probes) {
+        System.out.printf(Locale.ROOT, "%-6s %9d rows  %9.0f rows/s  peak retained %7d KB over %d probes%n",
+                name, rows, rows / (nanos / 1e9), peak / 1024, probes);
+    }
+}